@@ -0,0 +1,150 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the {@link WinstoneAccessLogs} of a running (or the last) launch: the current request rate, the status
+ * codes and the requested URIs, refreshed while the access log grows.
+ */
+public class WinstoneAccessLogPanel extends JPanel implements Disposable, WinstoneChangeSource.Listener {
+    private static final String[] COLUMNS = {"URI", "Hits", "Share", "Errors", "Bytes", "Avg bytes"};
+    private static final int RATE_WINDOW = 10;
+    private static final int MAX_STATUS_CODES = 8;
+
+    private final WinstoneAccessLogs logs;
+    private final JComboBox launches = new JComboBox();
+    private final JLabel rate = new JLabel();
+    private final JLabel statusCodes = new JLabel();
+    private final UriTableModel model = new UriTableModel();
+    private List<WinstoneAccessLogStats> shown = new ArrayList<WinstoneAccessLogStats>();
+
+
+    public WinstoneAccessLogPanel(Project project) {
+        super(new BorderLayout());
+        logs = WinstoneAccessLogs.getInstance(project);
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(new JLabel("Configuration"));
+        north.add(launches);
+        north.add(rate);
+        north.add(statusCodes);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+
+        launches.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshTable();
+            }
+        });
+        logs.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        logs.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        List<WinstoneAccessLogStats> all = logs.getStats();
+        if (!all.equals(shown)) {
+            shown = all;
+            launches.removeAllItems();
+            for (WinstoneAccessLogStats stats : all) launches.addItem(new LaunchItem(stats));
+        }
+        refreshTable();
+    }
+
+    private void refreshTable() {
+        LaunchItem item = (LaunchItem) launches.getSelectedItem();
+        if (item == null) {
+            model.setUris(new ArrayList<WinstoneAccessLogStats.UriStats>(), 0);
+            rate.setText("");
+            statusCodes.setText("");
+            return;
+        }
+        WinstoneAccessLogStats stats = item.stats;
+        double perSecond = stats.getRequestsPerSecond(System.currentTimeMillis() / 1000L - 1, RATE_WINDOW);
+        rate.setText(String.format("%.1f req/s (last %d s), %d requests, %d KB", perSecond, RATE_WINDOW,
+                                   stats.getRequests(), stats.getBytes() / 1024));
+        StringBuilder sb = new StringBuilder();
+        List<long[]> counts = stats.getStatusCounts();
+        for (int i = 0; i < counts.size() && i < MAX_STATUS_CODES; i++) {
+            if (sb.length() > 0) sb.append("  ");
+            sb.append(counts.get(i)[0] == 0 ? "?" : String.valueOf(counts.get(i)[0])).append(": ").append(counts.get(i)[1]);
+        }
+        if (stats.getMalformed() > 0) sb.append("  unreadable lines: ").append(stats.getMalformed());
+        statusCodes.setText(sb.toString());
+        model.setUris(stats.getUris(), stats.getRequests());
+    }
+
+    private static class LaunchItem {
+        private final WinstoneAccessLogStats stats;
+
+        LaunchItem(WinstoneAccessLogStats _stats) {
+            stats = _stats;
+        }
+
+        public String toString() {
+            return stats.getConfiguration();
+        }
+    }
+
+    private static class UriTableModel extends AbstractTableModel {
+        private List<WinstoneAccessLogStats.UriStats> uris = new ArrayList<WinstoneAccessLogStats.UriStats>();
+        private long total;
+
+        void setUris(List<WinstoneAccessLogStats.UriStats> _uris, long _total) {
+            uris = _uris;
+            total = _total;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return uris.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneAccessLogStats.UriStats stats = uris.get(row);
+            switch (column) {
+                case 0:
+                    return stats.uri;
+                case 1:
+                    return stats.hits;
+                case 2:
+                    return total == 0 ? "" : String.format("%.1f%%", stats.hits * 100.0 / total);
+                case 3:
+                    return stats.errors;
+                case 4:
+                    return stats.bytes;
+                default:
+                    return stats.hits == 0 ? "" : String.valueOf(stats.bytes / stats.hits);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.googlecode.intellimars.winstone;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Aggregates lines of Winstone's SimpleAccessLogger (common format) as they are appended:
+ * <pre>
+ * 127.0.0.1 - - [18/Oct/2012:10:00:00 +0900] "GET /app/index.jsp?x=1 HTTP/1.1" 200 1234
+ * </pre>
+ * Lines are parsed in place from the buffer they were read into. Nothing is allocated per line but the key of a
+ * URI seen for the first time; URIs are kept in an open addressing table of byte keys, at most {@link #MAX_URIS}
+ * of them, the rest is counted as {@link #OTHER_URIS}.
+ */
+public class WinstoneAccessLogStats {
+    public static final String OTHER_URIS = "(other)";
+    private static final int MAX_URIS = 4096;
+    private static final int RATE_SLOTS = 64;
+    private static final byte[] MONTHS = {'J', 'a', 'n', 'F', 'e', 'b', 'M', 'a', 'r', 'A', 'p', 'r', 'M', 'a', 'y',
+            'J', 'u', 'n', 'J', 'u', 'l', 'A', 'u', 'g', 'S', 'e', 'p', 'O', 'c', 't', 'N', 'o', 'v', 'D', 'e', 'c'};
+
+    public static class UriStats {
+        public final String uri;
+        public long hits;
+        public long errors;
+        public long bytes;
+
+        UriStats(String _uri) {
+            uri = _uri;
+        }
+
+        UriStats copy() {
+            UriStats copy = new UriStats(uri);
+            copy.hits = hits;
+            copy.errors = errors;
+            copy.bytes = bytes;
+            return copy;
+        }
+    }
+
+    private final String configuration;
+    private final long started = System.currentTimeMillis();
+    private long requests;
+    private long bytes;
+    private long malformed;
+    private final long[] statusCounts = new long[600];
+    private final long[] slotSecond = new long[RATE_SLOTS];
+    private final long[] slotCount = new long[RATE_SLOTS];
+    private byte[][] keys = new byte[256][];
+    private int[] hashes = new int[256];
+    private UriStats[] values = new UriStats[256];
+    private int size;
+    private UriStats other;
+
+
+    public WinstoneAccessLogStats(String _configuration) {
+        configuration = _configuration;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    /**
+     * Adds the complete lines of <code>buffer[from, to)</code>.
+     *
+     * @param arrivalSecond epoch second used for lines whose time stamp cannot be read (localized month names)
+     * @return the offset after the last complete line
+     */
+    public synchronized int addLines(ByteBuffer buffer, int from, int to, long arrivalSecond) {
+        int lineStart = from;
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) != '\n') continue;
+            int end = i > lineStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+            if (end > lineStart) addLine(buffer, lineStart, end, arrivalSecond);
+            lineStart = i + 1;
+        }
+        return lineStart;
+    }
+
+    private void addLine(ByteBuffer b, int start, int end, long arrivalSecond) {
+        int open = indexOf(b, '[', start, end);
+        int close = open < 0 ? -1 : indexOf(b, ']', open, end);
+        int quote = close < 0 ? -1 : indexOf(b, '"', close, end);
+        int method = quote < 0 ? -1 : indexOf(b, ' ', quote, end);
+        if (method < 0) {
+            malformed++;
+            return;
+        }
+        int uriStart = method + 1;
+        int uriEnd = uriStart;
+        while (uriEnd < end) {
+            byte c = b.get(uriEnd);
+            if (c == ' ' || c == '?' || c == ';' || c == '"') break;
+            uriEnd++;
+        }
+        int endQuote = indexOf(b, '"', uriEnd, end);
+        if (endQuote < 0) {
+            malformed++;
+            return;
+        }
+        int i = endQuote + 1;
+        while (i < end && b.get(i) == ' ') i++;
+        int status = 0;
+        while (i < end && b.get(i) >= '0' && b.get(i) <= '9') status = status * 10 + (b.get(i++) - '0');
+        while (i < end && b.get(i) == ' ') i++;
+        long size = 0;
+        while (i < end && b.get(i) >= '0' && b.get(i) <= '9') size = size * 10 + (b.get(i++) - '0');
+
+        requests++;
+        bytes += size;
+        statusCounts[status > 0 && status < statusCounts.length ? status : 0]++;
+        long second = parseEpochSecond(b, open + 1, close);
+        countSecond(second >= 0 ? second : arrivalSecond);
+        UriStats stats = lookup(b, uriStart, uriEnd);
+        stats.hits++;
+        stats.bytes += size;
+        if (status >= 400) stats.errors++;
+    }
+
+    private static int indexOf(ByteBuffer b, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b.get(i) == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses <code>dd/MMM/yyyy:HH:mm:ss +zzzz</code> without allocating.
+     *
+     * @return -1 if the time stamp is not in the expected (English) form
+     */
+    static long parseEpochSecond(ByteBuffer b, int start, int end) {
+        if (end - start < 26) return -1;
+        int day = digits(b, start, 2);
+        int month = -1;
+        for (int m = 0; m < 12 && month < 0; m++) {
+            if (b.get(start + 3) == MONTHS[m * 3] && b.get(start + 4) == MONTHS[m * 3 + 1]
+                && b.get(start + 5) == MONTHS[m * 3 + 2]) month = m + 1;
+        }
+        int year = digits(b, start + 7, 4);
+        int hour = digits(b, start + 12, 2);
+        int minute = digits(b, start + 15, 2);
+        int second = digits(b, start + 18, 2);
+        int offset = digits(b, start + 22, 2) * 3600 + digits(b, start + 24, 2) * 60;
+        if (day < 0 || month < 0 || year < 0 || hour < 0 || minute < 0 || second < 0 || offset < 0) return -1;
+        if (b.get(start + 21) == '-') offset = -offset;
+        return daysFromCivil(year, month, day) * 86400L + hour * 3600 + minute * 60 + second - offset;
+    }
+
+    private static int digits(ByteBuffer b, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            byte c = b.get(i);
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private void countSecond(long second) {
+        int slot = (int) (second & (RATE_SLOTS - 1));
+        if (slotSecond[slot] != second) {
+            slotSecond[slot] = second;
+            slotCount[slot] = 0;
+        }
+        slotCount[slot]++;
+    }
+
+    private UriStats lookup(ByteBuffer b, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31 * hash + b.get(i);
+        int mask = keys.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            byte[] key = keys[slot];
+            if (key == null) break;
+            if (hashes[slot] == hash && matches(key, b, start, end)) return values[slot];
+        }
+        if (size >= MAX_URIS) {
+            if (other == null) other = new UriStats(OTHER_URIS);
+            return other;
+        }
+        byte[] key = new byte[end - start];
+        for (int i = 0; i < key.length; i++) key[i] = b.get(start + i);
+        UriStats stats = new UriStats(decode(key));
+        if ((size + 1) * 2 > keys.length) grow();
+        put(key, hash, stats);
+        size++;
+        return stats;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer b, int start, int end) {
+        if (key.length != end - start) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != b.get(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void put(byte[] key, int hash, UriStats stats) {
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) slot = (slot + 1) & mask;
+        keys[slot] = key;
+        hashes[slot] = hash;
+        values[slot] = stats;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldHashes = hashes;
+        UriStats[] oldValues = values;
+        keys = new byte[oldKeys.length * 2][];
+        hashes = new int[oldKeys.length * 2];
+        values = new UriStats[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) put(oldKeys[i], oldHashes[i], oldValues[i]);
+        }
+    }
+
+    private static String decode(byte[] key) {
+        try {
+            return new String(key, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized long getRequests() {
+        return requests;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getMalformed() {
+        return malformed;
+    }
+
+    /**
+     * @return the mean rate of the <code>window</code> seconds up to <code>nowSecond</code> (epoch seconds)
+     */
+    public synchronized double getRequestsPerSecond(long nowSecond, int window) {
+        long sum = 0;
+        for (int i = 0; i < RATE_SLOTS; i++) {
+            if (slotSecond[i] > nowSecond - window && slotSecond[i] <= nowSecond) sum += slotCount[i];
+        }
+        return (double) sum / window;
+    }
+
+    /**
+     * @return status code and count pairs, most frequent first
+     */
+    public synchronized List<long[]> getStatusCounts() {
+        List<long[]> result = new ArrayList<long[]>();
+        for (int status = 0; status < statusCounts.length; status++) {
+            if (statusCounts[status] > 0) result.add(new long[]{status, statusCounts[status]});
+        }
+        Collections.sort(result, new Comparator<long[]>() {
+            public int compare(long[] o1, long[] o2) {
+                return o1[1] > o2[1] ? -1 : o1[1] < o2[1] ? 1 : (int) (o1[0] - o2[0]);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return copies of the URI statistics, most requested first
+     */
+    public synchronized List<UriStats> getUris() {
+        List<UriStats> result = new ArrayList<UriStats>(size + 1);
+        for (UriStats stats : values) {
+            if (stats != null) result.add(stats.copy());
+        }
+        if (other != null) result.add(other.copy());
+        Collections.sort(result, new Comparator<UriStats>() {
+            public int compare(UriStats o1, UriStats o2) {
+                return o1.hits > o2.hits ? -1 : o1.hits < o2.hits ? 1 : o1.uri.compareTo(o2.uri);
+            }
+        });
+        return result;
+    }
+}
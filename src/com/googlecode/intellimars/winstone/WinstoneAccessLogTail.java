@@ -0,0 +1,94 @@
+package com.googlecode.intellimars.winstone;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Follows the access logs Winstone writes into one directory (one <code>*_access.log</code> per webapp) and feeds
+ * the appended lines to a {@link WinstoneAccessLogStats}.
+ * <p/>
+ * Each {@link #poll()} reads from the last complete line on: small increments through one reused buffer, backlogs
+ * of {@link #MAP_THRESHOLD} bytes and more by mapping the file region. A file that got shorter is read again from
+ * the start.
+ */
+public class WinstoneAccessLogTail {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    private static final long MAP_CHUNK = 64L * 1024 * 1024;
+    private static final String SUFFIX = "_access.log";
+
+    private final File directory;
+    private final WinstoneAccessLogStats stats;
+    private final Map<String, Long> positions = new HashMap<String, Long>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+
+    public WinstoneAccessLogTail(File _directory, WinstoneAccessLogStats _stats) {
+        directory = _directory;
+        stats = _stats;
+    }
+
+    /**
+     * @return the number of bytes consumed
+     */
+    public synchronized long poll() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return 0;
+        long consumed = 0;
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().endsWith(SUFFIX)) continue;
+            Long position = positions.get(file.getName());
+            long from = position != null ? position : 0;
+            long length = file.length();
+            if (length < from) from = 0;
+            if (length == from) continue;
+            long to = read(file, from);
+            positions.put(file.getName(), to);
+            consumed += to - from;
+        }
+        return consumed;
+    }
+
+    /**
+     * @return the position after the last complete line
+     */
+    private long read(File file, long position) throws IOException {
+        long arrivalSecond = System.currentTimeMillis() / 1000L;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            while (size - position >= MAP_THRESHOLD) {
+                long length = Math.min(size - position, MAP_CHUNK);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = stats.addLines(mapped, 0, (int) length, arrivalSecond);
+                if (consumed == 0) {
+                    // a line longer than a chunk, skip it
+                    consumed = (int) length;
+                }
+                position += consumed;
+            }
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) break;
+                int consumed = stats.addLines(buffer, 0, read, arrivalSecond);
+                if (consumed == 0) {
+                    // an incomplete last line, or a line longer than the buffer
+                    if (read < BUFFER_SIZE) break;
+                    consumed = read;
+                }
+                position += consumed;
+            }
+            return position;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Access log statistics of the launches with the "Access log" option, the latest launch of each configuration.
+ * <p/>
+ * Winstone writes the logs into a directory of the plugin system directory per configuration, which is emptied at
+ * every launch and tailed every {@link #POLL_INTERVAL} ms while the process runs.
+ */
+public class WinstoneAccessLogs extends WinstoneChangeSource {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final long POLL_INTERVAL = 500;
+    public static final String LOGGER_CLASS = "winstone.accesslog.SimpleAccessLogger";
+
+    private final Map<String, WinstoneAccessLogStats> stats = new LinkedHashMap<String, WinstoneAccessLogStats>();
+
+
+    public static WinstoneAccessLogs getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneAccessLogs.class);
+    }
+
+    public static File getLogDirectory(WinstoneConfiguration config) {
+        String key = config.getProject().getName() + "/" + config.getName();
+        return new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "accesslog"),
+                        WinstoneDigest.sha1(key).substring(0, 12));
+    }
+
+    /**
+     * Empties the log directory; called before the launch, so the statistics only cover this run.
+     */
+    public static void prepare(WinstoneConfiguration config) {
+        File dir = getLogDirectory(config);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) FileUtil.delete(file);
+        }
+        dir.mkdirs();
+    }
+
+    public void start(WinstoneConfiguration config, ProcessHandler processHandler) {
+        final WinstoneAccessLogStats logStats = new WinstoneAccessLogStats(config.getName());
+        final WinstoneAccessLogTail tail = new WinstoneAccessLogTail(getLogDirectory(config), logStats);
+        synchronized (this) {
+            stats.remove(config.getName());
+            stats.put(config.getName(), logStats);
+        }
+        final ScheduledFuture<?> poller = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                poll(tail);
+            }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+        processHandler.addProcessListener(new ProcessAdapter() {
+            public void processTerminated(ProcessEvent event) {
+                poller.cancel(false);
+                poll(tail);
+            }
+        });
+        fireChanged();
+    }
+
+    private void poll(WinstoneAccessLogTail tail) {
+        try {
+            tail.poll();
+        } catch (IOException e) {
+            LOGGER.info("WinstoneAccessLogs: could not read the access log", e);
+        }
+        // also without new lines, the request rate decays
+        fireChanged();
+    }
+
+    /**
+     * @return the statistics, most recently started launch first
+     */
+    public synchronized List<WinstoneAccessLogStats> getStats() {
+        List<WinstoneAccessLogStats> result = new ArrayList<WinstoneAccessLogStats>(stats.values());
+        Collections.reverse(result);
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.IconLoader;
+
+import java.util.List;
+
+/**
+ * Console toolbar action that tries every {@link WinstonePerformanceProfile} with the {@link WinstoneAutoTuner},
+ * prints the measurements and offers to use the profile that is best for the chosen goal.
+ */
+public class WinstoneAutoTuneAction extends AnAction {
+    private final WinstoneConfiguration config;
+    private final JavaParameters javaParameters;
+    private final ConsoleView console;
+    private volatile boolean running;
+
+
+    public WinstoneAutoTuneAction(WinstoneConfiguration _config, JavaParameters _javaParameters, ConsoleView _console) {
+        super("Auto-tune", "Launch the webapp under each performance profile and pick the best one",
+              IconLoader.getIcon("/actions/lightning.png"));
+        config = _config;
+        javaParameters = _javaParameters;
+        console = _console;
+    }
+
+    public void update(AnActionEvent e) {
+        e.getPresentation().setEnabled(!running && WinstoneReadinessProbe.isApplicable(config));
+    }
+
+    public void actionPerformed(AnActionEvent e) {
+        WinstoneAutoTuner.Goal[] goals = WinstoneAutoTuner.Goal.values();
+        String[] names = new String[goals.length];
+        for (int i = 0; i < goals.length; i++) names[i] = goals[i].toString();
+        String message = "Every profile is launched and measured once, which takes a few minutes. Optimize for:";
+        int chosen = Messages.showChooseDialog(config.getProject(), message, "Auto-tune " + config.getName(),
+                                               Messages.getQuestionIcon(), names, names[0]);
+        if (chosen < 0) return;
+        final WinstoneAutoTuner.Goal goal = goals[chosen];
+        running = true;
+        ProgressManager.getInstance().run(new Task.Backgroundable(config.getProject(), "Auto-tuning " + config.getName(), true) {
+            public void run(ProgressIndicator indicator) {
+                try {
+                    indicator.setIndeterminate(false);
+                    List<WinstoneAutoTuner.Trial> trials = new WinstoneAutoTuner(config, javaParameters).run(indicator);
+                    for (WinstoneAutoTuner.Trial trial : trials) {
+                        console.print("Auto-tune: " + trial + "\n", trial.isSuccessful() ? ConsoleViewContentType.SYSTEM_OUTPUT
+                                                                                       : ConsoleViewContentType.ERROR_OUTPUT);
+                    }
+                    if (indicator.isCanceled()) {
+                        console.print("Auto-tune canceled\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                        return;
+                    }
+                    final WinstoneAutoTuner.Trial best = WinstoneAutoTuner.pickBest(trials, goal);
+                    if (best == null) {
+                        console.print("Auto-tune: no profile could be measured for " + goal + "\n",
+                                      ConsoleViewContentType.ERROR_OUTPUT);
+                        return;
+                    }
+                    console.print("Auto-tune: best " + goal + " with the " + best.profile + " profile\n",
+                                  ConsoleViewContentType.SYSTEM_OUTPUT);
+                    ApplicationManager.getApplication().invokeLater(new Runnable() {
+                        public void run() {
+                            offer(best.profile);
+                        }
+                    });
+                } finally {
+                    running = false;
+                }
+            }
+        });
+    }
+
+    private void offer(WinstonePerformanceProfile profile) {
+        if (WinstonePerformanceProfile.get(config.PERFORMANCE_PROFILE) == profile) return;
+        String message = "Use the " + profile + " profile for " + config.getName() + " from the next launch on?";
+        int answer = Messages.showYesNoDialog(config.getProject(), message, "Auto-tune", Messages.getQuestionIcon());
+        if (answer == 0) config.PERFORMANCE_PROFILE = profile.getStoredName();
+    }
+}
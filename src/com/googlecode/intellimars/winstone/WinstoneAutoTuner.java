@@ -0,0 +1,277 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.CommandLineBuilder;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.execution.configurations.ParametersList;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.ServerSocket;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches a configuration once per {@link WinstonePerformanceProfile} without a console, on a free HTTP port and
+ * with the AJP and control ports disabled, and measures each trial: the time until the readiness URL answers, a
+ * short benchmark of the readiness URL and the peak resident set size (Linux only) after it.
+ * <p/>
+ * The trials start from the VM parameters of the configuration, not from everything the launch added to them (CDS
+ * archive, agents, profiler), and run one after another, so they only differ in the profile.
+ */
+public class WinstoneAutoTuner {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final long READY_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    private static final long POLL_INTERVAL = 50;
+    private static final int CONCURRENCY = 8;
+    private static final int WARMUP_SECONDS = 3;
+    private static final int DURATION_SECONDS = 10;
+    private static final String[] TRIAL_OWNED_OPTIONS = {"--httpPort=", "--ajp13Port=", "--controlPort=",
+            "--accessLoggerClassName=", "--simpleAccessLogger."};
+
+    public enum Goal {
+        STARTUP("Time to ready"),
+        LATENCY("p99 latency"),
+        THROUGHPUT("Throughput"),
+        FOOTPRINT("Peak RSS");
+
+        private final String displayName;
+
+        Goal(String _displayName) {
+            displayName = _displayName;
+        }
+
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    public static class Trial {
+        public final WinstonePerformanceProfile profile;
+        public long readyMillis = -1;
+        public double requestsPerSecond;
+        public long p99 = -1;
+        public long peakRssKb = -1;
+        public String error;
+
+        Trial(WinstonePerformanceProfile _profile) {
+            profile = _profile;
+        }
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        public String toString() {
+            if (error != null) return profile + ": " + error;
+            return String.format("%s: ready after %d ms, %.1f req/s, p99 %s, peak RSS %s", profile, readyMillis,
+                                 requestsPerSecond, WinstoneBenchmarkRecord.formatMicros(p99),
+                                 peakRssKb < 0 ? "n/a" : (peakRssKb / 1024) + " MB");
+        }
+    }
+
+    private final WinstoneConfiguration config;
+    private final JavaParameters launched;
+    private final int jdkVersion;
+
+
+    /**
+     * @param _launched the parameters the configuration was launched with, for the JDK and class path
+     */
+    public WinstoneAutoTuner(WinstoneConfiguration _config, JavaParameters _launched) {
+        config = _config;
+        launched = _launched;
+        jdkVersion = _launched.getJdk() != null ?
+                     WinstoneCdsArchive.parseFeatureVersion(_launched.getJdk().getVersionString()) : 0;
+    }
+
+    public List<Trial> run(ProgressIndicator indicator) {
+        List<Trial> trials = new ArrayList<Trial>();
+        WinstonePerformanceProfile[] profiles = WinstonePerformanceProfile.values();
+        for (int i = 0; i < profiles.length && !indicator.isCanceled(); i++) {
+            indicator.setText("Trying the " + profiles[i] + " profile");
+            indicator.setFraction((double) i / profiles.length);
+            trials.add(run(profiles[i], indicator));
+        }
+        return trials;
+    }
+
+    private Trial run(WinstonePerformanceProfile profile, final ProgressIndicator indicator) {
+        Trial trial = new Trial(profile);
+        OSProcessHandler processHandler = null;
+        try {
+            int port = findFreePort();
+            GeneralCommandLine commandLine = CommandLineBuilder.createFromJavaParameters(createJavaParameters(profile, port));
+            long start = System.nanoTime();
+            Process process = commandLine.createProcess();
+            processHandler = new OSProcessHandler(process, commandLine.getCommandLineString());
+            processHandler.startNotify();
+            final OSProcessHandler handler = processHandler;
+            if (!awaitReady(processHandler, port, indicator)) {
+                trial.error = processHandler.isProcessTerminated() ? "the process ended before it was ready" :
+                              "not ready after " + READY_TIMEOUT / 1000 + " s";
+                return trial;
+            }
+            trial.readyMillis = (System.nanoTime() - start) / 1000000L;
+
+            WinstoneBenchmark.Settings settings = new WinstoneBenchmark.Settings(
+                    Collections.singletonList(config.getReadinessUrlPath()), CONCURRENCY, true, WARMUP_SECONDS,
+                    DURATION_SECONDS);
+            WinstoneBenchmark.Result result = new WinstoneBenchmark(port, settings).run(new WinstoneBenchmark.Progress() {
+                public boolean isCanceled() {
+                    return indicator.isCanceled() || handler.isProcessTerminated();
+                }
+
+                public void setFraction(double fraction) {
+                }
+            });
+            trial.requestsPerSecond = result.getRequestsPerSecond();
+            trial.p99 = result.histogram.getValueAtPercentile(99);
+            if (result.errors > 0) trial.error = result.errors + " failed requests during the benchmark";
+            trial.peakRssKb = getPeakRssKb(process);
+        } catch (ExecutionException e) {
+            trial.error = e.getMessage();
+        } catch (IOException e) {
+            trial.error = e.getMessage();
+        } finally {
+            if (processHandler != null) {
+                processHandler.destroyProcess();
+                processHandler.waitFor(TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+        LOGGER.info("WinstoneAutoTuner: " + trial);
+        return trial;
+    }
+
+    private JavaParameters createJavaParameters(WinstonePerformanceProfile profile, int port) {
+        JavaParameters parameters = new JavaParameters();
+        parameters.setJdk(launched.getJdk());
+        parameters.setWorkingDirectory(launched.getWorkingDirectory());
+        parameters.setEnv(launched.getEnv());
+        parameters.setPassParentEnvs(launched.isPassParentEnvs());
+        parameters.setCharset(launched.getCharset());
+        parameters.getClassPath().addAll(launched.getClassPath().getPathList());
+        parameters.setMainClass(launched.getMainClass());
+
+        List<String> vmParameters = new ArrayList<String>();
+        for (String parameter : ParametersList.parse(config.VM_PARAMETERS)) vmParameters.add(parameter);
+        parameters.getVMParametersList().addAll(vmParameters);
+        parameters.getVMParametersList().addAll(profile.getVmOptions(jdkVersion, vmParameters));
+        parameters.getVMParametersList().add("-Djava.awt.headless=true");
+
+        for (String parameter : launched.getProgramParametersList().getList()) {
+            if (!isTrialOwned(parameter)) parameters.getProgramParametersList().add(parameter);
+        }
+        parameters.getProgramParametersList().add("--httpPort=" + port);
+        parameters.getProgramParametersList().add("--ajp13Port=-1");
+        parameters.getProgramParametersList().add("--controlPort=-1");
+        return parameters;
+    }
+
+    private static boolean isTrialOwned(String parameter) {
+        for (String option : TRIAL_OWNED_OPTIONS) {
+            if (parameter.startsWith(option)) return true;
+        }
+        return false;
+    }
+
+    private boolean awaitReady(OSProcessHandler processHandler, int port, ProgressIndicator indicator)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        Selector selector = Selector.open();
+        try {
+            while (!processHandler.isProcessTerminated() && !indicator.isCanceled()
+                   && System.currentTimeMillis() < deadline) {
+                int status = WinstoneReadinessProbe.probe(selector, port, config.getReadinessUrlPath());
+                if (status > 0 && WinstoneReadinessProbe.matchesStatus(config.READINESS_STATUS, status)) return true;
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return false;
+        } finally {
+            selector.close();
+        }
+    }
+
+    static int findFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * @return the VmHWM of the process in KB, -1 where there is no /proc or the pid cannot be found
+     */
+    static long getPeakRssKb(Process process) {
+        long pid = getPid(process);
+        if (pid < 0) return -1;
+        try {
+            for (String line : FileUtil.loadFile(new File("/proc/" + pid + "/status")).split("\n")) {
+                if (!line.startsWith("VmHWM:")) continue;
+                String value = line.substring("VmHWM:".length()).trim();
+                return Long.parseLong(value.substring(0, value.indexOf(' ')));
+            }
+        } catch (IOException ignored) {
+        } catch (RuntimeException ignored) {
+        }
+        return -1;
+    }
+
+    private static long getPid(Process process) {
+        try {
+            // Java 9 and later
+            return ((Number) Process.class.getMethod("pid").invoke(process)).longValue();
+        } catch (Exception ignored) {
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return ((Number) field.get(process)).longValue();
+        } catch (Exception ignored) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the successful trial that is best for the goal, null if none was successful
+     */
+    @Nullable
+    public static Trial pickBest(List<Trial> trials, Goal goal) {
+        Trial best = null;
+        for (Trial trial : trials) {
+            if (!trial.isSuccessful()) continue;
+            if (goal == Goal.FOOTPRINT && trial.peakRssKb < 0) continue;
+            if (best == null || isBetter(trial, best, goal)) best = trial;
+        }
+        return best;
+    }
+
+    private static boolean isBetter(Trial trial, Trial than, Goal goal) {
+        switch (goal) {
+            case STARTUP:
+                return trial.readyMillis < than.readyMillis;
+            case LATENCY:
+                return trial.p99 < than.p99;
+            case THROUGHPUT:
+                return trial.requestsPerSecond > than.requestsPerSecond;
+            default:
+                return trial.peakRssKb < than.peakRssKb;
+        }
+    }
+}
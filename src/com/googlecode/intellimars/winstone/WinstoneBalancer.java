@@ -0,0 +1,414 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The front of a local cluster: a single-threaded NIO proxy on the HTTP port that hands every client connection to
+ * one of the nodes, round robin or to the node with the fewest open connections. A node that refuses the connection
+ * (still starting, or stopped) is skipped for the next one.
+ * <p/>
+ * Balancing is per connection, so the requests of a keep-alive connection stay on one node. The requests are counted
+ * per node by following the request heads and Content-Length bodies; a chunked request body ends the counting for
+ * the rest of its connection.
+ */
+public class WinstoneBalancer implements Runnable {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    public enum Strategy {
+        ROUND_ROBIN("Round robin"),
+        LEAST_CONNECTIONS("Least connections");
+
+        private final String displayName;
+
+        Strategy(String _displayName) {
+            displayName = _displayName;
+        }
+
+        /**
+         * @param name as stored in {@link WinstoneConfiguration#CLUSTER_BALANCING}
+         */
+        public static Strategy get(String name) {
+            for (Strategy strategy : values()) {
+                if (strategy.name().equals(name)) return strategy;
+            }
+            return ROUND_ROBIN;
+        }
+
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    public static class Backend {
+        public final int port;
+        public final AtomicInteger active = new AtomicInteger();
+        public final AtomicLong connections = new AtomicLong();
+        public final AtomicLong requests = new AtomicLong();
+        public final AtomicLong bytesIn = new AtomicLong();
+        public final AtomicLong bytesOut = new AtomicLong();
+        public final AtomicLong refused = new AtomicLong();
+        volatile boolean stopped;
+
+        public Backend(int _port) {
+            port = _port;
+        }
+
+        /**
+         * Takes the node out of the rotation, for good.
+         */
+        public void stop() {
+            stopped = true;
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+    }
+
+    private final int port;
+    private final List<Backend> backends;
+    private final Strategy strategy;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private volatile boolean running = true;
+    private int next;
+
+
+    /**
+     * Binds the port right away, so a port in use fails the launch instead of the first request.
+     */
+    public WinstoneBalancer(int _port, List<Backend> _backends, Strategy _strategy) throws IOException {
+        port = _port;
+        backends = _backends;
+        strategy = _strategy;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(_port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) LOGGER.info("WinstoneBalancer: stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) ((Connection) key.attachment()).close();
+            }
+            close(server);
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = server.accept();
+        if (client == null) return;
+        client.configureBlocking(false);
+        Connection connection = new Connection(client);
+        connection.clientKey = client.register(selector, SelectionKey.OP_READ, connection);
+        connection.connect();
+    }
+
+    /**
+     * @return the next node for a connection that did not reach the tried nodes, null if there is none left
+     */
+    private Backend pick(List<Backend> tried) {
+        Backend best = null;
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get((next + i) % backends.size());
+            if (backend.stopped || tried.contains(backend)) continue;
+            if (strategy == Strategy.ROUND_ROBIN) {
+                best = backend;
+                break;
+            }
+            if (best == null || backend.active.get() < best.active.get()) best = backend;
+        }
+        if (best != null) next = (backends.indexOf(best) + 1) % backends.size();
+        return best;
+    }
+
+    private static void close(java.nio.channels.Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel client;
+        private final ByteBuffer toBackend = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer toClient = ByteBuffer.allocate(BUFFER_SIZE);
+        private final RequestCounter counter = new RequestCounter();
+        private final List<Backend> tried = new ArrayList<Backend>();
+        private SelectionKey clientKey;
+        private SocketChannel backendChannel;
+        private SelectionKey backendKey;
+        private Backend backend;
+        private boolean connected;
+        private boolean clientEof;
+        private boolean backendEof;
+        private boolean outputShutdown;
+        private boolean closed;
+
+        Connection(SocketChannel _client) {
+            client = _client;
+        }
+
+        void connect() {
+            while (true) {
+                if (backend != null) backend.active.decrementAndGet();
+                backend = pick(tried);
+                if (backend == null) {
+                    close();
+                    return;
+                }
+                tried.add(backend);
+                backend.active.incrementAndGet();
+                try {
+                    backendChannel = SocketChannel.open();
+                    backendChannel.configureBlocking(false);
+                    InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("127.0.0.1"), backend.port);
+                    if (backendChannel.connect(address)) {
+                        backendKey = backendChannel.register(selector, 0, this);
+                        connected();
+                        updateInterest();
+                    } else {
+                        backendKey = backendChannel.register(selector, SelectionKey.OP_CONNECT, this);
+                    }
+                    return;
+                } catch (IOException e) {
+                    refused();
+                }
+            }
+        }
+
+        private void refused() {
+            backend.refused.incrementAndGet();
+            if (backendKey != null) backendKey.cancel();
+            WinstoneBalancer.close(backendChannel);
+            backendKey = null;
+            backendChannel = null;
+        }
+
+        private void connected() {
+            connected = true;
+            backend.connections.incrementAndGet();
+            // the request head may have come in while connecting
+            backend.requests.addAndGet(counter.takeCount());
+        }
+
+        void handle(SelectionKey key) {
+            try {
+                if (key == backendKey && key.isConnectable()) {
+                    try {
+                        backendChannel.finishConnect();
+                    } catch (IOException e) {
+                        refused();
+                        connect();
+                        return;
+                    }
+                    connected();
+                } else if (key == clientKey) {
+                    if (key.isReadable()) readClient();
+                    if (key.isValid() && key.isWritable()) write(client, toClient);
+                } else {
+                    if (key.isReadable()) readBackend();
+                    if (key.isValid() && key.isWritable()) backend.bytesIn.addAndGet(write(backendChannel, toBackend));
+                }
+                if (clientEof && connected && toBackend.position() == 0 && !outputShutdown) {
+                    outputShutdown = true;
+                    backendChannel.socket().shutdownOutput();
+                }
+                if (backendEof && toClient.position() == 0) {
+                    close();
+                    return;
+                }
+                updateInterest();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void readClient() throws IOException {
+            int start = toBackend.position();
+            int n = client.read(toBackend);
+            if (n < 0) {
+                clientEof = true;
+                return;
+            }
+            counter.scan(toBackend.array(), start, start + n);
+            if (connected) backend.requests.addAndGet(counter.takeCount());
+        }
+
+        private void readBackend() throws IOException {
+            int n = backendChannel.read(toClient);
+            if (n < 0) {
+                backendEof = true;
+            } else {
+                backend.bytesOut.addAndGet(n);
+            }
+        }
+
+        private int write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            int n = channel.write(buffer);
+            buffer.compact();
+            return n;
+        }
+
+        private void updateInterest() {
+            if (closed) return;
+            int clientOps = (clientEof || !toBackend.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                            | (toClient.position() > 0 ? SelectionKey.OP_WRITE : 0);
+            clientKey.interestOps(clientOps);
+            if (!connected) return;
+            int backendOps = (backendEof || !toClient.hasRemaining() ? 0 : SelectionKey.OP_READ)
+                             | (toBackend.position() > 0 ? SelectionKey.OP_WRITE : 0);
+            backendKey.interestOps(backendOps);
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            if (backend != null) backend.active.decrementAndGet();
+            if (clientKey != null) clientKey.cancel();
+            if (backendKey != null) backendKey.cancel();
+            WinstoneBalancer.close(client);
+            WinstoneBalancer.close(backendChannel);
+        }
+    }
+
+    /**
+     * Follows the requests of a connection: the head up to the empty line, then as many bytes of body as its
+     * Content-Length says.
+     */
+    static class RequestCounter {
+        private static final int MAX_LINE = 256;
+
+        private final StringBuilder line = new StringBuilder();
+        private boolean inHead;
+        private boolean emptyLine = true;
+        private long contentLength;
+        private long bodyRemaining;
+        private boolean chunked;
+        private boolean lost;
+        private int count;
+
+        void scan(byte[] bytes, int from, int to) {
+            int i = from;
+            while (i < to && !lost) {
+                if (bodyRemaining > 0) {
+                    int skip = (int) Math.min(bodyRemaining, to - i);
+                    bodyRemaining -= skip;
+                    i += skip;
+                    continue;
+                }
+                char c = (char) (bytes[i++] & 0xff);
+                if (!inHead) {
+                    // tolerate stray line breaks between requests
+                    if (c == '\r' || c == '\n') continue;
+                    inHead = true;
+                    contentLength = 0;
+                    chunked = false;
+                }
+                if (c == '\n') {
+                    if (emptyLine) {
+                        endOfHead();
+                    } else {
+                        header(line.toString());
+                        emptyLine = true;
+                    }
+                    line.setLength(0);
+                } else if (c != '\r') {
+                    emptyLine = false;
+                    if (line.length() < MAX_LINE) line.append(c);
+                }
+            }
+        }
+
+        private void header(String header) {
+            int colon = header.indexOf(':');
+            if (colon < 0) return;
+            String name = header.substring(0, colon).trim();
+            String value = header.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    lost = true;
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding") && !value.equalsIgnoreCase("identity")) {
+                chunked = true;
+            }
+        }
+
+        private void endOfHead() {
+            count++;
+            inHead = false;
+            if (chunked) {
+                lost = true;
+            } else {
+                bodyRemaining = contentLength;
+            }
+        }
+
+        /**
+         * @return the requests seen since the last call
+         */
+        int takeCount() {
+            int result = count;
+            count = 0;
+            return result;
+        }
+    }
+}
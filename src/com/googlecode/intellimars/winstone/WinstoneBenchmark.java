@@ -0,0 +1,315 @@
+package com.googlecode.intellimars.winstone;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Closed-loop HTTP load generator: a fixed number of connections driven by one selector thread, each sending its
+ * next request as soon as the previous response is complete. Latencies (microseconds) of the responses completed
+ * after the warmup are recorded in a {@link LatencyHistogram}.
+ * <p/>
+ * Understands Content-Length, chunked and close-delimited responses, so keep-alive connections are reused.
+ */
+public class WinstoneBenchmark {
+    public interface Progress {
+        boolean isCanceled();
+
+        void setFraction(double fraction);
+    }
+
+    public static class Settings {
+        public final List<String> paths;
+        public final int concurrency;
+        public final boolean keepAlive;
+        public final int warmupSeconds;
+        public final int durationSeconds;
+
+        public Settings(List<String> _paths, int _concurrency, boolean _keepAlive, int _warmupSeconds, int _durationSeconds) {
+            paths = _paths;
+            concurrency = _concurrency;
+            keepAlive = _keepAlive;
+            warmupSeconds = _warmupSeconds;
+            durationSeconds = _durationSeconds;
+        }
+    }
+
+    public static class Result {
+        public final LatencyHistogram histogram = new LatencyHistogram();
+        public long requests;
+        public long errors;
+        public long non2xx;
+        public long measuredMillis;
+
+        public double getRequestsPerSecond() {
+            return measuredMillis == 0 ? 0 : requests * 1000.0 / measuredMillis;
+        }
+    }
+
+    private static final int HEADERS = 0;
+    private static final int BODY_LENGTH = 1;
+    private static final int BODY_UNTIL_CLOSE = 2;
+    private static final int CHUNK_SIZE = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_END = 5;
+    private static final int TRAILER = 6;
+    private static final int DONE = 7;
+
+    private final InetSocketAddress address;
+    private final Settings settings;
+    private final byte[][] requests;
+
+    public WinstoneBenchmark(int port, Settings _settings) throws IOException {
+        address = new InetSocketAddress("127.0.0.1", port);
+        settings = _settings;
+        requests = new byte[settings.paths.size()][];
+        for (int i = 0; i < requests.length; i++) {
+            String request = "GET " + settings.paths.get(i) + " HTTP/1.1\r\n"
+                             + "Host: localhost:" + port + "\r\n"
+                             + "User-Agent: winstone-ce-benchmark\r\n"
+                             + (settings.keepAlive ? "" : "Connection: close\r\n")
+                             + "\r\n";
+            requests[i] = request.getBytes("ISO-8859-1");
+        }
+    }
+
+    public Result run(Progress progress) throws IOException {
+        Result result = new Result();
+        Selector selector = Selector.open();
+        List<Connection> connections = new ArrayList<Connection>();
+        long start = System.nanoTime();
+        long measureFrom = start + settings.warmupSeconds * 1000000000L;
+        long end = measureFrom + settings.durationSeconds * 1000000000L;
+        try {
+            for (int i = 0; i < settings.concurrency; i++) {
+                Connection connection = new Connection(i % requests.length);
+                connections.add(connection);
+                connection.open(selector, result);
+            }
+            long now;
+            while ((now = System.nanoTime()) < end && !progress.isCanceled()) {
+                progress.setFraction((double) (now - start) / (end - start));
+                selector.select(100);
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        connection.handle(key, selector, result, measureFrom);
+                    } catch (IOException e) {
+                        if (System.nanoTime() >= measureFrom) result.errors++;
+                        connection.close();
+                        connection.open(selector, result);
+                    }
+                }
+            }
+            result.measuredMillis = Math.max(0, (Math.min(System.nanoTime(), end) - measureFrom) / 1000000L);
+        } finally {
+            for (Connection connection : connections) connection.close();
+            selector.close();
+        }
+        return result;
+    }
+
+    private class Connection {
+        private final ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+        private final byte[] header = new byte[8 * 1024];
+        private SocketChannel channel;
+        private ByteBuffer out;
+        private int next;
+        private long started;
+        private int headerLength;
+        private int state;
+        private long remaining;
+        private int status;
+        private boolean closeAfter;
+        private boolean chunkExtension;
+
+        Connection(int first) {
+            next = first;
+        }
+
+        void open(Selector selector, Result result) throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            started = System.nanoTime();
+            if (channel.connect(address)) {
+                prepareRequest(false);
+                channel.register(selector, SelectionKey.OP_WRITE, this);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+
+        /**
+         * @param restartClock false for the first request of a new connection, which includes the connect time
+         */
+        private void prepareRequest(boolean restartClock) {
+            out = ByteBuffer.wrap(requests[next]);
+            next = (next + 1) % requests.length;
+            if (restartClock) started = System.nanoTime();
+            headerLength = 0;
+            state = HEADERS;
+            status = 0;
+            closeAfter = !settings.keepAlive;
+            chunkExtension = false;
+            in.clear();
+        }
+
+        void handle(SelectionKey key, Selector selector, Result result, long measureFrom) throws IOException {
+            if (key.isConnectable()) {
+                if (!channel.finishConnect()) return;
+                prepareRequest(false);
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (key.isWritable()) {
+                channel.write(out);
+                if (!out.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+            } else if (key.isReadable()) {
+                int read = channel.read(in);
+                if (read < 0) {
+                    if (state != BODY_UNTIL_CLOSE) throw new IOException("Connection closed by server");
+                    state = DONE;
+                } else {
+                    in.flip();
+                    parse();
+                    in.compact();
+                }
+                if (state != DONE) return;
+
+                long now = System.nanoTime();
+                if (now >= measureFrom) {
+                    result.requests++;
+                    if (status < 200 || status >= 300) result.non2xx++;
+                    result.histogram.record((now - started) / 1000L);
+                }
+                if (closeAfter || read < 0) {
+                    close();
+                    open(selector, result);
+                } else {
+                    prepareRequest(true);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private void parse() throws IOException {
+            while (in.hasRemaining() && state != DONE) {
+                switch (state) {
+                    case HEADERS:
+                        if (headerLength == header.length) throw new IOException("Response header too large");
+                        header[headerLength++] = in.get();
+                        if (headerLength >= 4 && header[headerLength - 1] == '\n' && header[headerLength - 2] == '\r'
+                            && header[headerLength - 3] == '\n' && header[headerLength - 4] == '\r') {
+                            parseHeaders();
+                        }
+                        break;
+                    case BODY_LENGTH:
+                    case CHUNK_DATA: {
+                        int skip = (int) Math.min(remaining, in.remaining());
+                        in.position(in.position() + skip);
+                        remaining -= skip;
+                        if (remaining == 0) {
+                            if (state == BODY_LENGTH) {
+                                state = DONE;
+                            } else {
+                                state = CHUNK_DATA_END;
+                                remaining = 2;
+                            }
+                        }
+                        break;
+                    }
+                    case BODY_UNTIL_CLOSE:
+                        in.position(in.limit());
+                        break;
+                    case CHUNK_SIZE: {
+                        byte b = in.get();
+                        if (b == '\n') {
+                            chunkExtension = false;
+                            if (remaining == 0) {
+                                state = TRAILER;
+                                headerLength = 0;
+                            } else {
+                                state = CHUNK_DATA;
+                            }
+                        } else if (!chunkExtension) {
+                            int digit = Character.digit((char) b, 16);
+                            if (digit >= 0) remaining = remaining * 16 + digit;
+                            else chunkExtension = true;  // ";ext" or the CR
+                        }
+                        break;
+                    }
+                    case CHUNK_DATA_END:
+                        in.get();
+                        if (--remaining == 0) {
+                            state = CHUNK_SIZE;
+                            remaining = 0;
+                        }
+                        break;
+                    case TRAILER: {
+                        byte b = in.get();
+                        if (b == '\n') {
+                            if (headerLength == 0) state = DONE;
+                            headerLength = 0;
+                        } else if (b != '\r') {
+                            headerLength++;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void parseHeaders() throws IOException {
+            String text = new String(header, 0, headerLength, "ISO-8859-1");
+            String[] lines = text.split("\r\n");
+            String[] statusLine = lines[0].split(" ");
+            if (statusLine.length < 2) throw new IOException("Bad status line: " + lines[0]);
+            status = Integer.parseInt(statusLine[1]);
+            long contentLength = -1;
+            boolean chunked = false;
+            if (lines[0].startsWith("HTTP/1.0")) closeAfter = true;
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon < 0) continue;
+                String name = lines[i].substring(0, colon).trim();
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.toLowerCase().contains("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    if (value.equalsIgnoreCase("close")) closeAfter = true;
+                    else if (value.equalsIgnoreCase("keep-alive") && settings.keepAlive) closeAfter = false;
+                }
+            }
+            if (status == 204 || status == 304 || (status >= 100 && status < 200)) {
+                state = DONE;
+            } else if (chunked) {
+                state = CHUNK_SIZE;
+                remaining = 0;
+            } else if (contentLength >= 0) {
+                state = contentLength == 0 ? DONE : BODY_LENGTH;
+                remaining = contentLength;
+            } else {
+                state = BODY_UNTIL_CLOSE;
+                closeAfter = true;
+            }
+        }
+    }
+}
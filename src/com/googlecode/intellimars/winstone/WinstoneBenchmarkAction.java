@@ -0,0 +1,114 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.util.IconLoader;
+
+import java.io.IOException;
+
+/**
+ * Console toolbar action that drives load at the running webapp with {@link WinstoneBenchmark}, prints the report
+ * against the previous comparable run and keeps it in the {@link WinstoneBenchmarkHistory}. A run of a launch with
+ * request timing is also compared with the last run without it, which shows what the timing agent costs.
+ */
+public class WinstoneBenchmarkAction extends AnAction {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+
+    private final WinstoneConfiguration config;
+    private final ProcessHandler processHandler;
+    private final ConsoleView console;
+    private final boolean requestTiming;
+    private volatile boolean running;
+
+
+    public WinstoneBenchmarkAction(WinstoneConfiguration _config, ProcessHandler _processHandler,
+                                   ConsoleView _console) {
+        super("Benchmark", "Drive load at the running webapp and report throughput and latency",
+              IconLoader.getIcon("/actions/profileCPU.png"));
+        config = _config;
+        processHandler = _processHandler;
+        console = _console;
+        requestTiming = _config.REQUEST_TIMING;
+    }
+
+    public void update(AnActionEvent e) {
+        e.getPresentation().setEnabled(!running && !processHandler.isProcessTerminated()
+                                       && WinstoneReadinessProbe.isApplicable(config));
+    }
+
+    public void actionPerformed(AnActionEvent e) {
+        final WinstoneBenchmarkHistory history = WinstoneBenchmarkHistory.getInstance(config.getProject());
+        WinstoneBenchmarkDialog dialog =
+                new WinstoneBenchmarkDialog(config.getProject(), config, history.getLatest(config.getName()));
+        dialog.show();
+        if (!dialog.isOK()) return;
+
+        final String urls = dialog.getUrls();
+        final WinstoneBenchmark.Settings settings = dialog.getSettings();
+        final int port = Integer.parseInt(config.HTTP_PORT.trim());
+        running = true;
+        ProgressManager.getInstance().run(new Task.Backgroundable(config.getProject(), "Benchmarking " + config.getName(), true) {
+            public void run(final ProgressIndicator indicator) {
+                try {
+                    console.print("Benchmark: " + settings.concurrency + " connections, keep-alive "
+                                  + (settings.keepAlive ? "on" : "off") + ", " + settings.warmupSeconds
+                                  + " s warmup, " + settings.durationSeconds + " s\n",
+                                  ConsoleViewContentType.SYSTEM_OUTPUT);
+                    indicator.setIndeterminate(false);
+                    WinstoneBenchmark.Result result = new WinstoneBenchmark(port, settings).run(new WinstoneBenchmark.Progress() {
+                        public boolean isCanceled() {
+                            return indicator.isCanceled() || processHandler.isProcessTerminated();
+                        }
+
+                        public void setFraction(double fraction) {
+                            indicator.setFraction(fraction);
+                        }
+                    });
+                    if (indicator.isCanceled()) {
+                        console.print("Benchmark canceled\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                        return;
+                    }
+                    WinstoneBenchmarkRecord record =
+                            new WinstoneBenchmarkRecord(config.getName(), urls, requestTiming, settings, result);
+                    history.add(record);
+                    console.print("Benchmark: " + record + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                    WinstoneBenchmarkRecord previous = history.getPrevious(record);
+                    if (previous != null) {
+                        console.print("Benchmark: against the previous run " + compare(record, previous) + "\n",
+                                      ConsoleViewContentType.SYSTEM_OUTPUT);
+                    }
+                    WinstoneBenchmarkRecord untimed = requestTiming ? history.getPrevious(record, false) : null;
+                    if (untimed != null) {
+                        console.print("Benchmark: request timing overhead against the last run without it "
+                                      + compare(record, untimed) + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                    }
+                } catch (IOException ex) {
+                    LOGGER.info("WinstoneBenchmarkAction", ex);
+                    console.print("Benchmark failed: " + ex.getMessage() + "\n", ConsoleViewContentType.ERROR_OUTPUT);
+                } finally {
+                    running = false;
+                }
+            }
+        });
+    }
+
+    static String compare(WinstoneBenchmarkRecord record, WinstoneBenchmarkRecord previous) {
+        return "throughput " + percent(record.requestsPerSecond, previous.requestsPerSecond)
+               + ", p50 " + percent(record.p50, previous.p50)
+               + ", p99 " + percent(record.p99, previous.p99)
+               + ", p99.9 " + percent(record.p999, previous.p999);
+    }
+
+    static String percent(double value, double before) {
+        if (before == 0) return "n/a";
+        double change = (value - before) * 100.0 / before;
+        return String.format("%+.1f%%", change);
+    }
+}
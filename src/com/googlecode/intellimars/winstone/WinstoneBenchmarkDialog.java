@@ -0,0 +1,144 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.ui.ValidationInfo;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Asks for the load of a benchmark run, prefilled with the settings of the previous run of the configuration.
+ */
+public class WinstoneBenchmarkDialog extends DialogWrapper {
+    private final WinstoneConfiguration config;
+    private final JTextArea urls = new JTextArea(5, 40);
+    private final JTextField concurrency = new JTextField(6);
+    private final JCheckBox keepAlive = new JCheckBox("Keep-alive");
+    private final JTextField warmup = new JTextField(6);
+    private final JTextField duration = new JTextField(6);
+
+
+    public WinstoneBenchmarkDialog(Project project, WinstoneConfiguration _config,
+                                   @Nullable WinstoneBenchmarkRecord previous) {
+        super(project, false);
+        config = _config;
+        WinstoneBenchmarkRecord defaults = previous != null ? previous : new WinstoneBenchmarkRecord();
+        urls.setText(defaults.urls);
+        concurrency.setText(String.valueOf(defaults.concurrency));
+        keepAlive.setSelected(defaults.keepAlive);
+        warmup.setText(String.valueOf(defaults.warmupSeconds));
+        duration.setText(String.valueOf(defaults.durationSeconds));
+        setTitle("Benchmark " + config.getName());
+        init();
+    }
+
+    protected JComponent createCenterPanel() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(2, 2, 2, 2);
+        c.anchor = GridBagConstraints.NORTHWEST;
+
+        c.gridx = 0;
+        c.gridy = 0;
+        panel.add(new JLabel("URLs (one per line, relative to " + getContextRoot() + ")"), c);
+        c.gridy++;
+        c.gridwidth = 2;
+        c.fill = GridBagConstraints.BOTH;
+        c.weightx = 1;
+        c.weighty = 1;
+        panel.add(new JScrollPane(urls), c);
+
+        c.gridwidth = 1;
+        c.fill = GridBagConstraints.NONE;
+        c.weightx = 0;
+        c.weighty = 0;
+        addRow(panel, c, "Concurrent connections", concurrency);
+        addRow(panel, c, "Warmup (seconds)", warmup);
+        addRow(panel, c, "Duration (seconds)", duration);
+        c.gridx = 0;
+        c.gridy++;
+        panel.add(keepAlive, c);
+        return panel;
+    }
+
+    private static void addRow(JPanel panel, GridBagConstraints c, String label, JComponent field) {
+        c.gridx = 0;
+        c.gridy++;
+        panel.add(new JLabel(label), c);
+        c.gridx = 1;
+        panel.add(field, c);
+    }
+
+    public JComponent getPreferredFocusedComponent() {
+        return urls;
+    }
+
+    protected ValidationInfo doValidate() {
+        if (getUrlLines().isEmpty()) return new ValidationInfo("Please specify at least one URL.", urls);
+        if (parse(concurrency) < 1) return new ValidationInfo("Please specify a positive number.", concurrency);
+        if (parse(warmup) < 0) return new ValidationInfo("Please specify a number of seconds.", warmup);
+        if (parse(duration) < 1) return new ValidationInfo("Please specify a positive number of seconds.", duration);
+        return null;
+    }
+
+    /**
+     * The URL list as it is saved with the results.
+     */
+    public String getUrls() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : getUrlLines()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(line);
+        }
+        return sb.toString();
+    }
+
+    public WinstoneBenchmark.Settings getSettings() {
+        List<String> paths = new ArrayList<String>();
+        for (String line : getUrlLines()) paths.add(toRequestPath(line));
+        return new WinstoneBenchmark.Settings(paths, parse(concurrency), keepAlive.isSelected(), parse(warmup),
+                                              parse(duration));
+    }
+
+    private List<String> getUrlLines() {
+        List<String> result = new ArrayList<String>();
+        for (String line : urls.getText().split("\n")) {
+            if (line.trim().length() > 0) result.add(line.trim());
+        }
+        return result;
+    }
+
+    /**
+     * Absolute URLs are sent as they are (against the local HTTP port), anything else is taken relative to the
+     * context root.
+     */
+    private String toRequestPath(String line) {
+        if (line.startsWith("http://") || line.startsWith("https://")) {
+            try {
+                String file = new URL(line).getFile();
+                return file.length() == 0 ? "/" : file;
+            } catch (MalformedURLException ignored) {
+            }
+        }
+        String root = getContextRoot();
+        return root + (line.startsWith("/") ? line.substring(1) : line);
+    }
+
+    private String getContextRoot() {
+        return "".equals(config.CONTEXT_NAME) ? "/" : "/" + config.CONTEXT_NAME + "/";
+    }
+
+    private static int parse(JTextField field) {
+        try {
+            return Integer.parseInt(field.getText().trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.xmlb.annotations.AbstractCollection;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark results of the Winstone run configurations of a project, kept in the workspace file.
+ */
+@State(name = "WinstoneBenchmarkHistory", storages = {@Storage(id = "other", file = "$WORKSPACE_FILE$")})
+public class WinstoneBenchmarkHistory extends WinstoneChangeSource
+        implements PersistentStateComponent<WinstoneBenchmarkHistory.HistoryState> {
+    private static final int MAX_RECORDS_PER_CONFIGURATION = 50;
+
+    public static class HistoryState {
+        @AbstractCollection(surroundWithTag = false)
+        public List<WinstoneBenchmarkRecord> records = new ArrayList<WinstoneBenchmarkRecord>();
+    }
+
+    private HistoryState state = new HistoryState();
+
+
+    public static WinstoneBenchmarkHistory getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneBenchmarkHistory.class);
+    }
+
+    public void add(WinstoneBenchmarkRecord record) {
+        synchronized (this) {
+            state.records.add(record);
+            int count = 0;
+            for (int i = state.records.size() - 1; i >= 0; i--) {
+                if (state.records.get(i).configuration.equals(record.configuration)
+                    && ++count > MAX_RECORDS_PER_CONFIGURATION) {
+                    state.records.remove(i);
+                }
+            }
+        }
+        fireChanged();
+    }
+
+    /**
+     * @return the records of the given run configuration, oldest first
+     */
+    public synchronized List<WinstoneBenchmarkRecord> getRecords(String configuration) {
+        List<WinstoneBenchmarkRecord> result = new ArrayList<WinstoneBenchmarkRecord>();
+        for (WinstoneBenchmarkRecord record : state.records) {
+            if (record.configuration.equals(configuration)) result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * @return the newest run of the configuration, whose settings prefill the next one
+     */
+    @Nullable
+    public synchronized WinstoneBenchmarkRecord getLatest(String configuration) {
+        for (int i = state.records.size() - 1; i >= 0; i--) {
+            if (state.records.get(i).configuration.equals(configuration)) return state.records.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * @return the newest run before the given one that drove the same load
+     */
+    @Nullable
+    public synchronized WinstoneBenchmarkRecord getPrevious(WinstoneBenchmarkRecord record) {
+        for (int i = state.records.indexOf(record) - 1; i >= 0; i--) {
+            WinstoneBenchmarkRecord candidate = state.records.get(i);
+            if (candidate.configuration.equals(record.configuration) && candidate.isComparableTo(record))
+                return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * @return the newest run before the given one that drove the same load with request timing on or off
+     */
+    @Nullable
+    public synchronized WinstoneBenchmarkRecord getPrevious(WinstoneBenchmarkRecord record, boolean requestTiming) {
+        for (int i = state.records.indexOf(record) - 1; i >= 0; i--) {
+            WinstoneBenchmarkRecord candidate = state.records.get(i);
+            if (candidate.configuration.equals(record.configuration) && candidate.isComparableTo(record)
+                && candidate.requestTiming == requestTiming) return candidate;
+        }
+        return null;
+    }
+
+    public synchronized List<String> getConfigurations() {
+        List<String> result = new ArrayList<String>();
+        for (WinstoneBenchmarkRecord record : state.records) {
+            if (!result.contains(record.configuration)) result.add(record.configuration);
+        }
+        return result;
+    }
+
+    public void clear(String configuration) {
+        synchronized (this) {
+            for (int i = state.records.size() - 1; i >= 0; i--) {
+                if (state.records.get(i).configuration.equals(configuration)) state.records.remove(i);
+            }
+        }
+        fireChanged();
+    }
+
+    public synchronized HistoryState getState() {
+        return state;
+    }
+
+    public synchronized void loadState(HistoryState _state) {
+        state = _state;
+    }
+}
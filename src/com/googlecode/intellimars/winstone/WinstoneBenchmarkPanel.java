@@ -0,0 +1,134 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows the {@link WinstoneBenchmarkHistory} of one run configuration, newest run first. The change column compares
+ * the throughput with the previous run that drove the same load.
+ */
+public class WinstoneBenchmarkPanel extends JPanel implements Disposable, WinstoneChangeSource.Listener {
+    private static final String[] COLUMNS = {
+            "Started", "Load", "Requests", "Errors", "Req/s", "Change", "p50", "p90", "p99", "p99.9", "Max"
+    };
+
+    private final WinstoneBenchmarkHistory history;
+    private final JComboBox configurations = new JComboBox();
+    private final BenchmarkTableModel model = new BenchmarkTableModel();
+
+
+    public WinstoneBenchmarkPanel(Project project) {
+        super(new BorderLayout());
+        history = WinstoneBenchmarkHistory.getInstance(project);
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(new JLabel("Configuration"));
+        north.add(configurations);
+        JButton clear = new JButton("Clear");
+        north.add(clear);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+
+        configurations.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshTable();
+            }
+        });
+        clear.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                String selected = (String) configurations.getSelectedItem();
+                if (selected != null) history.clear(selected);
+            }
+        });
+        history.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        history.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        Object selected = configurations.getSelectedItem();
+        configurations.removeAllItems();
+        for (String name : history.getConfigurations()) configurations.addItem(name);
+        if (selected != null) configurations.setSelectedItem(selected);
+        refreshTable();
+    }
+
+    private void refreshTable() {
+        String selected = (String) configurations.getSelectedItem();
+        model.setRecords(selected == null ? new ArrayList<WinstoneBenchmarkRecord>() : history.getRecords(selected));
+    }
+
+    private class BenchmarkTableModel extends AbstractTableModel {
+        private List<WinstoneBenchmarkRecord> records = new ArrayList<WinstoneBenchmarkRecord>();
+
+        void setRecords(List<WinstoneBenchmarkRecord> _records) {
+            records = _records;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return records.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneBenchmarkRecord record = records.get(records.size() - 1 - row);
+            switch (column) {
+                case 0:
+                    return DateFormat.getDateTimeInstance().format(new Date(record.timestamp));
+                case 1:
+                    return record.describeLoad();
+                case 2:
+                    return record.requests;
+                case 3:
+                    return record.errors + record.non2xx;
+                case 4:
+                    return String.format("%.1f", record.requestsPerSecond);
+                case 5: {
+                    WinstoneBenchmarkRecord previous = history.getPrevious(record);
+                    return previous == null ? "" : WinstoneBenchmarkAction.percent(record.requestsPerSecond,
+                                                                                     previous.requestsPerSecond);
+                }
+                case 6:
+                    return WinstoneBenchmarkRecord.formatMicros(record.p50);
+                case 7:
+                    return WinstoneBenchmarkRecord.formatMicros(record.p90);
+                case 8:
+                    return WinstoneBenchmarkRecord.formatMicros(record.p99);
+                case 9:
+                    return WinstoneBenchmarkRecord.formatMicros(record.p999);
+                default:
+                    return WinstoneBenchmarkRecord.formatMicros(record.max);
+            }
+        }
+    }
+}
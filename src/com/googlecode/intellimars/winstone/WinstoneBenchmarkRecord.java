@@ -0,0 +1,76 @@
+package com.googlecode.intellimars.winstone;
+
+/**
+ * One benchmark run in the {@link WinstoneBenchmarkHistory}. Public fields are serialized into the workspace file,
+ * latencies are in microseconds.
+ */
+public class WinstoneBenchmarkRecord {
+    public String configuration = "";
+    public long timestamp;
+    public String urls = "/";
+    public int concurrency = 8;
+    public boolean keepAlive = true;
+    public int warmupSeconds = 5;
+    public int durationSeconds = 20;
+    public boolean requestTiming;
+    public long requests;
+    public long errors;
+    public long non2xx;
+    public double requestsPerSecond;
+    public double mean;
+    public long p50;
+    public long p90;
+    public long p99;
+    public long p999;
+    public long max;
+
+
+    public WinstoneBenchmarkRecord() {
+    }
+
+    public WinstoneBenchmarkRecord(String _configuration, String _urls, boolean _requestTiming,
+                                   WinstoneBenchmark.Settings settings, WinstoneBenchmark.Result result) {
+        configuration = _configuration;
+        requestTiming = _requestTiming;
+        timestamp = System.currentTimeMillis();
+        urls = _urls;
+        concurrency = settings.concurrency;
+        keepAlive = settings.keepAlive;
+        warmupSeconds = settings.warmupSeconds;
+        durationSeconds = settings.durationSeconds;
+        requests = result.requests;
+        errors = result.errors;
+        non2xx = result.non2xx;
+        requestsPerSecond = result.getRequestsPerSecond();
+        LatencyHistogram histogram = result.histogram;
+        mean = histogram.getMean();
+        p50 = histogram.getValueAtPercentile(50);
+        p90 = histogram.getValueAtPercentile(90);
+        p99 = histogram.getValueAtPercentile(99);
+        p999 = histogram.getValueAtPercentile(99.9);
+        max = histogram.getMax();
+    }
+
+    /**
+     * @return whether both runs drove the same load, so that their numbers can be compared
+     */
+    public boolean isComparableTo(WinstoneBenchmarkRecord other) {
+        return urls.equals(other.urls) && concurrency == other.concurrency && keepAlive == other.keepAlive;
+    }
+
+    public String describeLoad() {
+        return concurrency + " connections, keep-alive " + (keepAlive ? "on" : "off") + ", "
+               + warmupSeconds + " s warmup, " + durationSeconds + " s" + (requestTiming ? ", request timing" : "");
+    }
+
+    public String toString() {
+        return String.format("%.1f req/s, %d requests (%d errors, %d non-2xx); latency p50 %s, p90 %s, p99 %s, "
+                             + "p99.9 %s, mean %s, max %s",
+                             requestsPerSecond, requests, errors, non2xx, formatMicros(p50), formatMicros(p90),
+                             formatMicros(p99), formatMicros(p999), formatMicros((long) mean), formatMicros(max));
+    }
+
+    static String formatMicros(long micros) {
+        return micros < 10000 ? String.format("%.2f ms", micros / 1000.0) : (micros / 1000) + " ms";
+    }
+}
@@ -0,0 +1,223 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.diagnostic.logging.AdditionalTabComponent;
+import com.intellij.openapi.actionSystem.ActionGroup;
+import com.intellij.openapi.application.ApplicationManager;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Run console tab to search a {@link WinstoneOutputCapture} by text, level, thread and time of day, and to choose
+ * what the console shows while the output is captured.
+ */
+public class WinstoneCaptureTab extends AdditionalTabComponent {
+    private static final String[] COLUMNS = {"Line", "Time", "Level", "Thread", "Text"};
+    private static final String ANY_THREAD = "Any thread";
+    private static final int REFRESH_INTERVAL = 1000;
+    private static final long MB = 1024 * 1024;
+
+    private final WinstoneOutputCapture capture;
+    private final JTextField text = new JTextField(20);
+    private final JComboBox level = new JComboBox(WinstoneOutputCapture.Level.values());
+    private final JComboBox thread = new JComboBox(new Object[]{ANY_THREAD});
+    private final JTextField from = new JTextField(6);
+    private final JTextField to = new JTextField(6);
+    private final JButton search = new JButton("Search");
+    private final JComboBox consoleLevel = new JComboBox(WinstoneOutputCapture.Level.values());
+    private final JLabel status = new JLabel();
+    private final JLabel searchStatus = new JLabel();
+    private final LineTableModel model = new LineTableModel();
+    private final JTable table = new JTable(model);
+    private final Timer timer;
+
+
+    public WinstoneCaptureTab(WinstoneOutputCapture _capture) {
+        super(new BorderLayout());
+        capture = _capture;
+
+        JPanel query = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        query.add(new JLabel("Text"));
+        query.add(text);
+        query.add(new JLabel("Level at least"));
+        query.add(level);
+        query.add(thread);
+        query.add(new JLabel("From"));
+        query.add(from);
+        query.add(new JLabel("to"));
+        query.add(to);
+        query.add(search);
+        query.add(searchStatus);
+        JPanel console = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        console.add(new JLabel("Console shows from level"));
+        console.add(consoleLevel);
+        console.add(status);
+        JPanel north = new JPanel(new GridLayout(2, 1));
+        north.add(query);
+        north.add(console);
+        add(north, BorderLayout.NORTH);
+        table.getColumnModel().getColumn(4).setPreferredWidth(800);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        from.setToolTipText("HH:mm:ss");
+        to.setToolTipText("HH:mm:ss");
+        consoleLevel.setSelectedItem(capture.getConsoleLevel());
+        consoleLevel.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                capture.setConsoleLevel((WinstoneOutputCapture.Level) consoleLevel.getSelectedItem());
+            }
+        });
+        ActionListener searchListener = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                search();
+            }
+        };
+        search.addActionListener(searchListener);
+        text.addActionListener(searchListener);
+        timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshStatus();
+            }
+        });
+        timer.start();
+        refreshStatus();
+    }
+
+    private void refreshStatus() {
+        status.setText(String.format("%d lines captured, %d MB: %d MB in memory, %d MB on disk%s",
+                                     capture.getLineCount(), capture.getTotalBytes() / MB,
+                                     capture.getMemoryBytes() / MB, capture.getDiskBytes() / MB,
+                                     capture.getDroppedLines() > 0 ? ", the first " + capture.getDroppedLines() +
+                                                                     " dropped" : ""));
+        List<String> threads = capture.getThreads();
+        for (int i = thread.getItemCount() - 1; i < threads.size(); i++) thread.addItem(threads.get(i));
+    }
+
+    private void search() {
+        final WinstoneOutputCapture.Query query = new WinstoneOutputCapture.Query();
+        query.text = text.getText();
+        query.minLevel = (WinstoneOutputCapture.Level) level.getSelectedItem();
+        query.thread = ANY_THREAD.equals(thread.getSelectedItem()) ? null : (String) thread.getSelectedItem();
+        try {
+            query.from = parseTime(from.getText());
+            query.to = parseTime(to.getText());
+        } catch (ParseException e) {
+            searchStatus.setText("Times are HH:mm:ss");
+            return;
+        }
+        // up to the end of the second
+        if (query.to > 0) query.to += 999;
+        search.setEnabled(false);
+        searchStatus.setText("Searching...");
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                final List<WinstoneOutputCapture.Line> lines = capture.search(query);
+                final long millis = (System.nanoTime() - start) / 1000000L;
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    public void run() {
+                        model.setLines(lines);
+                        searchStatus.setText(lines.size() + (lines.size() == query.maxResults ? " latest" : "")
+                                             + " lines in " + millis + " ms");
+                        search.setEnabled(true);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return the time of today, 0 for an empty text
+     */
+    private static long parseTime(String text) throws ParseException {
+        if (text.trim().length() == 0) return 0;
+        Calendar time = Calendar.getInstance();
+        time.setTime(new SimpleDateFormat("HH:mm:ss").parse(text.trim()));
+        Calendar today = Calendar.getInstance();
+        today.set(Calendar.HOUR_OF_DAY, time.get(Calendar.HOUR_OF_DAY));
+        today.set(Calendar.MINUTE, time.get(Calendar.MINUTE));
+        today.set(Calendar.SECOND, time.get(Calendar.SECOND));
+        today.set(Calendar.MILLISECOND, 0);
+        return today.getTimeInMillis();
+    }
+
+    public void dispose() {
+        timer.stop();
+        capture.close();
+    }
+
+    public String getTabTitle() {
+        return "Capture";
+    }
+
+    public JComponent getPreferredFocusableComponent() {
+        return text;
+    }
+
+    public ActionGroup getToolbarActions() {
+        return null;
+    }
+
+    public JComponent getSearchComponent() {
+        return null;
+    }
+
+    public String getToolbarPlace() {
+        return null;
+    }
+
+    public JComponent getToolbarContextComponent() {
+        return null;
+    }
+
+    public boolean isContentBuiltIn() {
+        return false;
+    }
+
+    private static class LineTableModel extends AbstractTableModel {
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        private List<WinstoneOutputCapture.Line> lines = new ArrayList<WinstoneOutputCapture.Line>();
+
+        void setLines(List<WinstoneOutputCapture.Line> _lines) {
+            lines = _lines;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return lines.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneOutputCapture.Line line = lines.get(row);
+            switch (column) {
+                case 0:
+                    return line.number;
+                case 1:
+                    return timeFormat.format(new Date(line.time));
+                case 2:
+                    return line.level;
+                case 3:
+                    return line.thread;
+                default:
+                    return line.text;
+            }
+        }
+    }
+}
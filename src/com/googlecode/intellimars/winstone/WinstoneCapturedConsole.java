@@ -0,0 +1,172 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.util.Key;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the run console attaches to instead of the process with "Capture output": every line goes into the
+ * {@link WinstoneOutputCapture}, the console only gets the lines of at least the console level of the capture, and
+ * of those at most {@link #MAX_LINES_PER_SECOND} a second (warnings and errors {@link #MAX_PROBLEMS_PER_SECOND}).
+ * The rest is summed up in a line per second. The other listeners of the process still see all of the output.
+ * <p/>
+ * Winstone prints the thread of a message with <code>--logThrowingThread=true</code>, as in
+ * <code>[Winstone 2012/01/31 12:00:00] - [RequestHandlerThread[#3]] - message</code>; it has no levels, so warnings
+ * and errors are told by their "WARNING:" and "ERROR:" prefixes, stack traces and the error stream.
+ */
+public class WinstoneCapturedConsole extends ProcessHandler {
+    private static final int MAX_LINES_PER_SECOND = 200;
+    private static final int MAX_PROBLEMS_PER_SECOND = 1000;
+    private static final String SEPARATOR = "] - ";
+
+    private final ProcessHandler process;
+    private final WinstoneOutputCapture capture;
+    private final Map<Key, StringBuilder> partialLines = new HashMap<Key, StringBuilder>();
+    private String lastThread;
+    private long second;
+    private int shown;
+    private int shownProblems;
+    private int suppressed;
+
+
+    public WinstoneCapturedConsole(ProcessHandler _process, WinstoneOutputCapture _capture) {
+        process = _process;
+        capture = _capture;
+        _process.addProcessListener(new ProcessAdapter() {
+            public void startNotified(ProcessEvent event) {
+                startNotify();
+            }
+
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                receive(event.getText(), outputType);
+            }
+
+            public void processTerminated(ProcessEvent event) {
+                flush();
+                notifyProcessTerminated(event.getExitCode());
+            }
+        });
+    }
+
+    private synchronized void receive(String text, Key outputType) {
+        StringBuilder partial = partialLines.get(outputType);
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            String line = text.substring(start, end);
+            if (partial != null && partial.length() > 0) {
+                line = partial.append(line).toString();
+                partial.setLength(0);
+            }
+            line(line, outputType);
+            start = end + 1;
+        }
+        if (start < text.length()) {
+            if (partial == null) {
+                partial = new StringBuilder();
+                partialLines.put(outputType, partial);
+            }
+            partial.append(text, start, text.length());
+        }
+    }
+
+    private synchronized void flush() {
+        for (Map.Entry<Key, StringBuilder> entry : partialLines.entrySet()) {
+            if (entry.getValue().length() > 0) line(entry.getValue().toString(), entry.getKey());
+        }
+        partialLines.clear();
+        summarize();
+    }
+
+    private void line(String line, Key outputType) {
+        if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+        WinstoneOutputCapture.Level level = getLevel(line, outputType);
+        // other lines, such as stack traces, most likely belong to the thread of the log line before them
+        String thread = line.startsWith("[") ? getThread(line) : lastThread;
+        lastThread = thread;
+        capture.append(line, level, thread);
+
+        if (level.compareTo(capture.getConsoleLevel()) < 0 && level != WinstoneOutputCapture.Level.SYSTEM) return;
+        long now = System.currentTimeMillis() / 1000;
+        if (now != second) {
+            summarize();
+            second = now;
+            shown = 0;
+            shownProblems = 0;
+        }
+        boolean problem = level.compareTo(WinstoneOutputCapture.Level.WARNING) >= 0;
+        if (level != WinstoneOutputCapture.Level.SYSTEM) {
+            if (problem ? shownProblems >= MAX_PROBLEMS_PER_SECOND : shown >= MAX_LINES_PER_SECOND) {
+                suppressed++;
+                return;
+            }
+            if (problem) {
+                shownProblems++;
+            } else {
+                shown++;
+            }
+        }
+        notifyTextAvailable(line + "\n", outputType);
+    }
+
+    private void summarize() {
+        if (suppressed == 0) return;
+        notifyTextAvailable("... " + suppressed + " more lines captured, search them in the Capture tab\n",
+                            ProcessOutputTypes.SYSTEM);
+        suppressed = 0;
+    }
+
+    static WinstoneOutputCapture.Level getLevel(String line, Key outputType) {
+        if (outputType == ProcessOutputTypes.SYSTEM) return WinstoneOutputCapture.Level.SYSTEM;
+        if (outputType == ProcessOutputTypes.STDERR) return WinstoneOutputCapture.Level.ERROR;
+        if (line.startsWith("\tat ") || line.startsWith("Caused by: ")) return WinstoneOutputCapture.Level.ERROR;
+        String message = getMessage(line);
+        if (message.startsWith("ERROR")) return WinstoneOutputCapture.Level.ERROR;
+        if (message.startsWith("WARNING")) return WinstoneOutputCapture.Level.WARNING;
+        return WinstoneOutputCapture.Level.INFO;
+    }
+
+    /**
+     * @return the thread of a Winstone log line, null if it has none
+     */
+    static String getThread(String line) {
+        int start = line.startsWith("[") ? line.indexOf(SEPARATOR) : -1;
+        if (start < 0 || !line.startsWith("[", start + SEPARATOR.length())) return null;
+        int end = line.indexOf(SEPARATOR, start + SEPARATOR.length());
+        return end < 0 ? null : line.substring(start + SEPARATOR.length() + 1, end);
+    }
+
+    private static String getMessage(String line) {
+        if (!line.startsWith("[")) return line;
+        int start = line.indexOf(SEPARATOR);
+        if (start < 0) return line;
+        start += SEPARATOR.length();
+        if (line.startsWith("[", start)) {
+            int end = line.indexOf(SEPARATOR, start);
+            if (end >= 0) start = end + SEPARATOR.length();
+        }
+        return line.substring(start);
+    }
+
+    protected void destroyProcessImpl() {
+        process.destroyProcess();
+    }
+
+    protected void detachProcessImpl() {
+        process.detachProcess();
+    }
+
+    public boolean detachIsDefault() {
+        return process.detachIsDefault();
+    }
+
+    public OutputStream getProcessInput() {
+        return process.getProcessInput();
+    }
+}
@@ -0,0 +1,105 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Class Data Sharing archive for the "Fast startup" option.
+ * <p/>
+ * The archive holds the classes of the -cp class path only; the commonLib jars and the webapp classes come from
+ * Winstone's own class loaders, which a dynamic archive does not cover. It is named after a digest of the JDK and
+ * the class path entries (path, size and time stamp), so changing any of them simply leads to a new archive, kept
+ * in a directory per project and configuration. JDK 19 and later maintain the archive by themselves
+ * (-XX:+AutoCreateSharedArchive), JDK 13 to 18 dump it at the exit of a run that had no usable archive, older JDKs
+ * are launched without one.
+ */
+public class WinstoneCdsArchive {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+
+    public static final String MODE_OFF = "off";
+    public static final String MODE_DUMP = "dump";
+    public static final String MODE_SHARED = "shared";
+    /** the option is on, but the JDK has no dynamic archives; such launches are not compared with MODE_OFF */
+    public static final String MODE_UNSUPPORTED = "unsupported";
+
+    private final File archive;
+    private final int jdkVersion;
+
+
+    /**
+     * @param classPath the -cp entries of the launch, winstone.jar included
+     */
+    public WinstoneCdsArchive(WinstoneConfiguration config, Sdk jdk, List<String> classPath) {
+        jdkVersion = parseFeatureVersion(jdk.getVersionString());
+        String key = config.getProject().getName() + "/" + config.getName();
+        File dir = new File(WinstoneRuntimeConfiguration.CDS_DIRECTORY, WinstoneDigest.sha1(key).substring(0, 12));
+        archive = new File(dir, WinstoneDigest.sha1(describeInputs(jdk, classPath)) + ".jsa");
+    }
+
+    /**
+     * Adds the CDS options to the VM parameters.
+     *
+     * @return one of {@link #MODE_UNSUPPORTED}, {@link #MODE_DUMP} or {@link #MODE_SHARED}
+     */
+    public String configure(List<String> vmOptions) {
+        if (jdkVersion < 13) {
+            LOGGER.info("WinstoneCdsArchive: JDK " + jdkVersion + " does not support dynamic CDS archives");
+            return MODE_UNSUPPORTED;
+        }
+        File dir = archive.getParentFile();
+        dir.mkdirs();
+        deleteStaleArchives(dir);
+        if (jdkVersion >= 19) {
+            boolean exists = archive.isFile();
+            vmOptions.add("-XX:+AutoCreateSharedArchive");
+            vmOptions.add("-XX:SharedArchiveFile=" + archive.getPath());
+            return exists ? MODE_SHARED : MODE_DUMP;
+        }
+        if (archive.isFile()) {
+            vmOptions.add("-XX:SharedArchiveFile=" + archive.getPath());
+            return MODE_SHARED;
+        }
+        vmOptions.add("-XX:ArchiveClassesAtExit=" + archive.getPath());
+        return MODE_DUMP;
+    }
+
+    private void deleteStaleArchives(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.equals(archive)) FileUtil.delete(file);
+        }
+    }
+
+    private static String describeInputs(Sdk jdk, List<String> classPath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(jdk.getHomePath()).append('|').append(jdk.getVersionString()).append('\n');
+        for (String path : classPath) {
+            File jar = new File(path);
+            sb.append(jar.getAbsolutePath()).append('|').append(jar.length()).append('|').append(jar.lastModified()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the feature version of a JDK version string ("1.8.0_292" is 8, "17.0.9" is 17), 0 if unknown
+     */
+    static int parseFeatureVersion(String versionString) {
+        if (versionString == null) return 0;
+        int i = 0;
+        while (i < versionString.length() && !Character.isDigit(versionString.charAt(i))) i++;
+        int[] numbers = new int[2];
+        for (int n = 0; n < numbers.length && i < versionString.length(); n++) {
+            while (i < versionString.length() && Character.isDigit(versionString.charAt(i))) {
+                numbers[n] = numbers[n] * 10 + (versionString.charAt(i++) - '0');
+            }
+            if (i < versionString.length() && versionString.charAt(i) == '.') i++;
+            else break;
+        }
+        return numbers[0] == 1 ? numbers[1] : numbers[0];
+    }
+}
@@ -0,0 +1,35 @@
+package com.googlecode.intellimars.winstone;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A model that tool window panels, console tabs and editors show; they redraw when it fires a change.
+ */
+public abstract class WinstoneChangeSource {
+    public interface Listener {
+        /**
+         * Called on the thread that changed the model.
+         */
+        void changed();
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+
+    public void addChangeListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    protected void removeChangeListeners() {
+        listeners.clear();
+    }
+
+    protected void fireChanged() {
+        for (Listener listener : listeners) listener.changed();
+    }
+}
@@ -0,0 +1,87 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.util.messages.MessageBusConnection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Collects the paths below the given roots that were changed in the VFS since the last {@link #drain()}.
+ * The tracker only records paths, whether a path was created, modified or deleted is decided when it is synced.
+ */
+public class WinstoneChangeTracker implements BulkFileListener {
+    private final List<File> roots = new ArrayList<File>();
+    private final Set<String> changed = new LinkedHashSet<String>();
+    private MessageBusConnection connection;
+
+
+    public WinstoneChangeTracker(String... _roots) {
+        for (String root : _roots) {
+            if (root != null && root.length() > 0) roots.add(new File(root));
+        }
+    }
+
+    public void start(MessageBusConnection _connection) {
+        connection = _connection;
+        connection.subscribe(VirtualFileManager.VFS_CHANGES, this);
+    }
+
+    public void stop() {
+        if (connection != null) connection.disconnect();
+        connection = null;
+    }
+
+    public void before(List<? extends VFileEvent> events) {
+    }
+
+    public void after(List<? extends VFileEvent> events) {
+        for (VFileEvent event : events) {
+            record(event.getPath());
+            if (event instanceof VFileMoveEvent) {
+                VFileMoveEvent move = (VFileMoveEvent) event;
+                record(move.getOldParent().getPath() + "/" + move.getFile().getName());
+            } else if (event instanceof VFileCopyEvent) {
+                VFileCopyEvent copy = (VFileCopyEvent) event;
+                record(copy.getNewParent().getPath() + "/" + copy.getNewChildName());
+            } else if (event instanceof VFilePropertyChangeEvent) {
+                VFilePropertyChangeEvent property = (VFilePropertyChangeEvent) event;
+                if (VirtualFile.PROP_NAME.equals(property.getPropertyName())) {
+                    record(property.getFile().getParent().getPath() + "/" + property.getNewValue());
+                }
+            }
+        }
+    }
+
+    private void record(String path) {
+        for (File root : roots) {
+            if (FileUtil.isAncestor(root, new File(path), false)) {
+                synchronized (changed) {
+                    changed.add(path);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the changed paths (system independent), oldest first; the tracker starts over afterwards
+     */
+    public List<String> drain() {
+        synchronized (changed) {
+            List<String> result = new ArrayList<String>(changed);
+            changed.clear();
+            return result;
+        }
+    }
+}
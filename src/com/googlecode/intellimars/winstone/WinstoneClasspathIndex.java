@@ -0,0 +1,222 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.roots.OrderEnumerator;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Prepares the commonLib jars for the "Deduplicated commonLib" option, so that Winstone does not open the same jar
+ * content several times on every launch.
+ * <p/>
+ * The jars are hashed (hashes are cached by path, size and time stamp) and jars with the same content as an earlier
+ * one are dropped. The rest is mirrored as hard links, or copies where links are not possible, into a folder per
+ * configuration that Winstone is given as --commonLibFolder, so the jars stay on Winstone's common class loader. The
+ * folder is only touched when a jar changed. Several versions of the same artifact (by file name, e.g.
+ * commons-io-2.4.jar and commons-io-2.11.jar) are all kept, since either may be the one the webapps need; they are
+ * only reported, like jars that the module libraries provide as well.
+ */
+public class WinstoneClasspathIndex {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final Pattern VERSIONED_JAR = Pattern.compile("(.+?)-(\\d[\\w.\\-]*)\\.(jar|zip)");
+    private static final String HASHES = "hashes.properties";
+
+    public static class Result {
+        public final List<File> jars = new ArrayList<File>();
+        public final List<String> removed = new ArrayList<String>();
+        public final List<String> versionConflicts = new ArrayList<String>();
+        public final List<String> moduleOverlaps = new ArrayList<String>();
+        public int scanned;
+        public int updated;
+        public long millis;
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Deduplicated commonLib: ").append(jars.size()).append(" of ").append(scanned).append(" jars, ");
+            sb.append(updated > 0 ? "folder updated" : "folder reused").append(" in ").append(millis).append(" ms");
+            if (!removed.isEmpty()) sb.append("; removed ").append(removed);
+            if (!versionConflicts.isEmpty()) sb.append("; several versions of ").append(versionConflicts);
+            if (!moduleOverlaps.isEmpty()) sb.append("; also in the module libraries: ").append(moduleOverlaps);
+            return sb.toString();
+        }
+    }
+
+    private final WinstoneConfiguration config;
+    private final File dir = new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "classpath");
+
+
+    public WinstoneClasspathIndex(WinstoneConfiguration _config) {
+        config = _config;
+    }
+
+    /**
+     * @return the folder Winstone is given as --commonLibFolder
+     */
+    public static File getDirectory(WinstoneConfiguration config) {
+        String key = config.getProject().getName() + "/" + config.getName();
+        return new File(new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "classpath"),
+                                 WinstoneDigest.sha1(key).substring(0, 12)), "commonlib");
+    }
+
+    public Result prepare() throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        dir.mkdirs();
+        synchronized (WinstoneClasspathIndex.class) {
+            Properties hashes = loadHashes();
+            int cached = hashes.size();
+
+            File[] files = new File(config.COMMONLIB_DIRECTORY).listFiles();
+            if (files == null) files = new File[0];
+            Arrays.sort(files);
+            Map<String, File> byHash = new LinkedHashMap<String, File>();
+            for (File file : files) {
+                if (!isJar(file)) continue;
+                result.scanned++;
+                String hash = hash(file, hashes);
+                if (byHash.containsKey(hash)) {
+                    result.removed.add(file.getName() + " (same as " + byHash.get(hash).getName() + ")");
+                } else {
+                    byHash.put(hash, file);
+                }
+            }
+            result.jars.addAll(byHash.values());
+            findVersionConflicts(result.jars, result.versionConflicts);
+            findModuleOverlaps(result, hashes);
+            if (hashes.size() != cached) saveHashes(hashes);
+            result.updated = mirror(result.jars, getDirectory(config));
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        LOGGER.info("WinstoneClasspathIndex: " + result);
+        return result;
+    }
+
+    private static boolean isJar(File file) {
+        String name = file.getName().toLowerCase();
+        return file.isFile() && (name.endsWith(".jar") || name.endsWith(".zip"));
+    }
+
+    /**
+     * Lists the artifacts that several jars are named like, in different versions.
+     */
+    static void findVersionConflicts(List<File> jars, List<String> conflicts) {
+        Map<String, List<String>> versions = new LinkedHashMap<String, List<String>>();
+        for (File jar : jars) {
+            Matcher matcher = VERSIONED_JAR.matcher(jar.getName());
+            if (!matcher.matches()) continue;
+            List<String> names = versions.get(matcher.group(1));
+            if (names == null) versions.put(matcher.group(1), names = new ArrayList<String>());
+            names.add(jar.getName());
+        }
+        for (Map.Entry<String, List<String>> entry : versions.entrySet()) {
+            if (entry.getValue().size() > 1) conflicts.add(entry.getKey() + " " + entry.getValue());
+        }
+    }
+
+    private void findModuleOverlaps(Result result, Properties hashes) throws IOException {
+        Module module = config.getConfigurationModule().getModule();
+        if (module == null) return;
+        Set<String> commonLib = new LinkedHashSet<String>();
+        for (File jar : result.jars) commonLib.add(hash(jar, hashes));
+        for (String path : OrderEnumerator.orderEntries(module).withoutSdk().withoutModuleSourceEntries()
+                .librariesOnly().getPathsList().getPathList()) {
+            File file = new File(path);
+            if (isJar(file) && commonLib.contains(hash(file, hashes))) result.moduleOverlaps.add(file.getName());
+        }
+    }
+
+    private static String hash(File file, Properties hashes) throws IOException {
+        String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        String hash = hashes.getProperty(key);
+        if (hash != null) return hash;
+        MessageDigest digest = WinstoneDigest.create();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        hash = WinstoneDigest.toHex(digest.digest());
+        hashes.setProperty(key, hash);
+        return hash;
+    }
+
+    /**
+     * Makes the folder hold exactly the given jars, linking or copying only the ones whose size or date differ.
+     *
+     * @return the number of jars linked, copied or deleted
+     */
+    private static int mirror(List<File> jars, File folder) throws IOException {
+        folder.mkdirs();
+        int updated = 0;
+        Set<String> names = new LinkedHashSet<String>();
+        for (File jar : jars) {
+            names.add(jar.getName());
+            File mirrored = new File(folder, jar.getName());
+            if (mirrored.length() == jar.length() && mirrored.lastModified() == jar.lastModified()) continue;
+            FileUtil.delete(mirrored);
+            if (!WinstoneWarCache.link(jar, mirrored)) {
+                FileUtil.copy(jar, mirrored);
+                mirrored.setLastModified(jar.lastModified());
+            }
+            updated++;
+        }
+        File[] files = folder.listFiles();
+        if (files == null) return updated;
+        for (File file : files) {
+            if (names.contains(file.getName())) continue;
+            FileUtil.delete(file);
+            updated++;
+        }
+        return updated;
+    }
+
+    private Properties loadHashes() {
+        Properties hashes = new Properties();
+        File file = new File(dir, HASHES);
+        if (!file.isFile()) return hashes;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                hashes.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.info("WinstoneClasspathIndex: could not read " + file, e);
+        }
+        return hashes;
+    }
+
+    private void saveHashes(Properties hashes) throws IOException {
+        for (String key : hashes.stringPropertyNames()) {
+            if (!new File(key.substring(0, key.indexOf('|'))).isFile()) hashes.remove(key);
+        }
+        OutputStream out = new FileOutputStream(new File(dir, HASHES));
+        try {
+            hashes.store(out, "content hashes of commonLib jars by path|size|time stamp");
+        } finally {
+            out.close();
+        }
+    }
+}
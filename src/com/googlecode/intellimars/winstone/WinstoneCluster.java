@@ -0,0 +1,228 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.CommandLineBuilder;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.execution.filters.TextConsoleBuilderFactory;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessTerminatedListener;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Launches a configuration as a local cluster of Winstone nodes with winstone.cluster.SimpleCluster, behind a
+ * {@link WinstoneBalancer} on the HTTP port.
+ * <p/>
+ * Node n (from 0) listens on HTTP port <code>base + 2n</code> and control port <code>base + 2n + 1</code>;
+ * SimpleCluster talks over the control ports, and every node is given the addresses of all others. The first node is
+ * the process of the run configuration with the main console, the others are launched from the same parameters and
+ * get a console tab each. Stopping the first node stops the cluster.
+ */
+public class WinstoneCluster {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    public static final Key<WinstoneCluster> KEY = Key.create("WinstoneCluster");
+    private static final String[] NODE_OWNED_OPTIONS = {"--httpPort=", "--ajp13Port=", "--controlPort=",
+            "--useCluster=", "--clusterNodes="};
+
+    public static class Node {
+        public final int index;
+        public final int httpPort;
+        public final int controlPort;
+        public final WinstoneBalancer.Backend backend;
+        private volatile ProcessHandler processHandler;
+        private ConsoleView console;
+        private volatile String error;
+
+        Node(int _index, int _httpPort, int _controlPort) {
+            index = _index;
+            httpPort = _httpPort;
+            controlPort = _controlPort;
+            backend = new WinstoneBalancer.Backend(_httpPort);
+        }
+
+        public String getName() {
+            return "Node " + (index + 1);
+        }
+
+        /**
+         * @return the console of the node, null for the first node, which has the run console
+         */
+        public ConsoleView getConsole() {
+            return console;
+        }
+
+        public String getState() {
+            if (error != null) return "failed: " + error;
+            ProcessHandler handler = processHandler;
+            if (handler == null) return "starting";
+            return handler.isProcessTerminated() ? "stopped" : "running";
+        }
+    }
+
+    private final WinstoneConfiguration config;
+    private final List<Node> nodes = new ArrayList<Node>();
+    private WinstoneBalancer balancer;
+
+
+    public WinstoneCluster(WinstoneConfiguration _config) {
+        config = _config;
+        int base = _config.getClusterBasePort();
+        for (int i = 0; i < _config.getClusterNodeCount(); i++) nodes.add(new Node(i, base + 2 * i, base + 2 * i + 1));
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the control ports of the nodes that have not stopped by now
+     */
+    public List<Integer> getControlPorts() {
+        List<Integer> ports = new ArrayList<Integer>();
+        for (Node node : nodes) {
+            if (!node.backend.isStopped()) ports.add(node.controlPort);
+        }
+        return ports;
+    }
+
+    public WinstoneBalancer.Strategy getStrategy() {
+        return WinstoneBalancer.Strategy.get(config.CLUSTER_BALANCING);
+    }
+
+    /**
+     * Makes the parameters of the run configuration those of the first node.
+     */
+    public void configureFirstNode(JavaParameters javaParameters) {
+        List<String> parameters = getNodeParameters(javaParameters.getProgramParametersList().getList(), nodes.get(0));
+        javaParameters.getProgramParametersList().clearAll();
+        javaParameters.getProgramParametersList().addAll(parameters);
+    }
+
+    private List<String> getNodeParameters(List<String> parameters, Node node) {
+        List<String> result = new ArrayList<String>();
+        for (String parameter : parameters) {
+            if (!isNodeOwned(parameter)) result.add(parameter);
+        }
+        result.add("--httpPort=" + node.httpPort);
+        result.add("--ajp13Port=-1");
+        result.add("--controlPort=" + node.controlPort);
+        result.add("--useCluster=true");
+        StringBuilder others = new StringBuilder();
+        for (Node other : nodes) {
+            if (other == node) continue;
+            if (others.length() > 0) others.append(',');
+            others.append("127.0.0.1:").append(other.controlPort);
+        }
+        result.add("--clusterNodes=" + others);
+        return result;
+    }
+
+    private static boolean isNodeOwned(String parameter) {
+        for (String option : NODE_OWNED_OPTIONS) {
+            if (parameter.startsWith(option)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Opens the HTTP port, before the first node is started, so a port in use fails the launch. Until a node is up,
+     * the connections are closed as if the server was not there yet.
+     */
+    public void startBalancer() throws ExecutionException {
+        List<WinstoneBalancer.Backend> backends = new ArrayList<WinstoneBalancer.Backend>();
+        for (Node node : nodes) backends.add(node.backend);
+        try {
+            balancer = new WinstoneBalancer(Integer.parseInt(config.HTTP_PORT.trim()), backends, getStrategy());
+        } catch (IOException e) {
+            throw new ExecutionException("Could not open the cluster port " + config.HTTP_PORT + ": " + e.getMessage());
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(balancer);
+    }
+
+    /**
+     * Starts the other nodes. A node that cannot be started is left out of the balancing, and the cluster runs on
+     * without it.
+     *
+     * @param firstNodeOnlyOptions VM options of the first node that the others must not get, such as agents and
+     *                             connectors listening on a port
+     */
+    public void start(ProcessHandler firstNode, JavaParameters launched, Collection<String> firstNodeOnlyOptions) {
+        firstNode.putUserData(KEY, this);
+        attach(nodes.get(0), firstNode);
+        firstNode.addProcessListener(new ProcessAdapter() {
+            public void processTerminated(ProcessEvent event) {
+                stop();
+            }
+        });
+        for (Node node : nodes.subList(1, nodes.size())) {
+            try {
+                JavaParameters parameters = createJavaParameters(node, launched, firstNodeOnlyOptions);
+                GeneralCommandLine commandLine = CommandLineBuilder.createFromJavaParameters(parameters);
+                OSProcessHandler processHandler = new OSProcessHandler(commandLine.createProcess(),
+                                                                       commandLine.getCommandLineString());
+                ProcessTerminatedListener.attach(processHandler);
+                node.console = TextConsoleBuilderFactory.getInstance().createBuilder(config.getProject()).getConsole();
+                node.console.attachToProcess(processHandler);
+                attach(node, processHandler);
+                processHandler.startNotify();
+            } catch (ExecutionException e) {
+                LOGGER.info("WinstoneCluster: could not start " + node.getName(), e);
+                node.error = e.getMessage();
+                node.backend.stop();
+            }
+        }
+    }
+
+    private void attach(final Node node, ProcessHandler processHandler) {
+        node.processHandler = processHandler;
+        processHandler.addProcessListener(new ProcessAdapter() {
+            public void processTerminated(ProcessEvent event) {
+                node.backend.stop();
+            }
+        });
+    }
+
+    private JavaParameters createJavaParameters(Node node, JavaParameters launched,
+                                                Collection<String> firstNodeOnlyOptions) {
+        JavaParameters parameters = new JavaParameters();
+        parameters.setJdk(launched.getJdk());
+        parameters.setWorkingDirectory(launched.getWorkingDirectory());
+        parameters.setEnv(launched.getEnv());
+        parameters.setPassParentEnvs(launched.isPassParentEnvs());
+        parameters.setCharset(launched.getCharset());
+        parameters.getClassPath().addAll(launched.getClassPath().getPathList());
+        parameters.setMainClass(launched.getMainClass());
+        for (String parameter : launched.getVMParametersList().getList()) {
+            if (!firstNodeOnlyOptions.contains(parameter)) parameters.getVMParametersList().add(parameter);
+        }
+        parameters.getProgramParametersList().addAll(
+                getNodeParameters(launched.getProgramParametersList().getList(), node));
+        return parameters;
+    }
+
+    /**
+     * Stops the balancer and every node still running.
+     */
+    public void stop() {
+        if (balancer != null) balancer.stop();
+        for (Node node : nodes) {
+            ProcessHandler processHandler = node.processHandler;
+            if (processHandler != null && !processHandler.isProcessTerminated()
+                && !processHandler.isProcessTerminating()) {
+                LOGGER.info("WinstoneCluster: stopping " + node.getName());
+                processHandler.destroyProcess();
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.diagnostic.logging.AdditionalTabComponent;
+import com.intellij.openapi.actionSystem.ActionGroup;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+/**
+ * Run console tab of a {@link WinstoneCluster}: per node the state, the connections and requests the balancer gave it
+ * and its throughput over the last second.
+ */
+public class WinstoneClusterTab extends AdditionalTabComponent {
+    private static final String[] COLUMNS = {"Node", "HTTP port", "Control port", "State", "Open", "Connections",
+            "Requests", "Req/s", "KB/s out", "Refused"};
+    private static final int REFRESH_INTERVAL = 1000;
+
+    private final WinstoneCluster cluster;
+    private final List<WinstoneCluster.Node> nodes;
+    private final long[] lastRequests;
+    private final long[] lastBytesOut;
+    private final double[] requestRate;
+    private final double[] bytesOutRate;
+    private long lastRefresh = System.currentTimeMillis();
+    private final JLabel summary = new JLabel();
+    private final NodeTableModel model = new NodeTableModel();
+    private final JTable table = new JTable(model);
+    private final Timer timer;
+
+
+    public WinstoneClusterTab(WinstoneCluster _cluster) {
+        super(new BorderLayout());
+        cluster = _cluster;
+        nodes = _cluster.getNodes();
+        lastRequests = new long[nodes.size()];
+        lastBytesOut = new long[nodes.size()];
+        requestRate = new double[nodes.size()];
+        bytesOutRate = new double[nodes.size()];
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(summary);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        timer = new Timer(REFRESH_INTERVAL, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+        timer.start();
+        refresh();
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - lastRefresh) / 1000.0;
+        lastRefresh = now;
+        long total = 0;
+        double rate = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            WinstoneBalancer.Backend backend = nodes.get(i).backend;
+            long requests = backend.requests.get();
+            long bytesOut = backend.bytesOut.get();
+            requestRate[i] = (requests - lastRequests[i]) / seconds;
+            bytesOutRate[i] = (bytesOut - lastBytesOut[i]) / seconds;
+            lastRequests[i] = requests;
+            lastBytesOut[i] = bytesOut;
+            total += requests;
+            rate += requestRate[i];
+        }
+        summary.setText(String.format("%d nodes, %s balancing: %d requests, %.1f req/s", nodes.size(),
+                                      cluster.getStrategy().toString().toLowerCase(), total, rate));
+        model.fireTableDataChanged();
+    }
+
+    public void dispose() {
+        timer.stop();
+    }
+
+    public String getTabTitle() {
+        return "Cluster";
+    }
+
+    public JComponent getPreferredFocusableComponent() {
+        return table;
+    }
+
+    public ActionGroup getToolbarActions() {
+        return null;
+    }
+
+    public JComponent getSearchComponent() {
+        return null;
+    }
+
+    public String getToolbarPlace() {
+        return null;
+    }
+
+    public JComponent getToolbarContextComponent() {
+        return null;
+    }
+
+    public boolean isContentBuiltIn() {
+        return false;
+    }
+
+    private class NodeTableModel extends AbstractTableModel {
+        public int getRowCount() {
+            return nodes.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneCluster.Node node = nodes.get(row);
+            switch (column) {
+                case 0:
+                    return node.getName();
+                case 1:
+                    return node.httpPort;
+                case 2:
+                    return node.controlPort;
+                case 3:
+                    return node.getState();
+                case 4:
+                    return node.backend.active.get();
+                case 5:
+                    return node.backend.connections.get();
+                case 6:
+                    return node.backend.requests.get();
+                case 7:
+                    return String.format("%.1f", requestRate[row]);
+                case 8:
+                    return String.format("%.1f", bytesOutRate[row] / 1024);
+                default:
+                    return node.backend.refused.get();
+            }
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package com.googlecode.intellimars.winstone;
 
+import com.intellij.diagnostic.logging.AdditionalTabComponentManager;
 import com.intellij.execution.CommonJavaRunConfigurationParameters;
 import com.intellij.execution.ExecutionException;
 import com.intellij.execution.Executor;
 import com.intellij.execution.JavaRunConfigurationExtensionManager;
+import com.intellij.execution.RunManager;
 import com.intellij.execution.configurations.JavaRunConfigurationModule;
 import com.intellij.execution.configurations.ModuleBasedConfiguration;
+import com.intellij.execution.configurations.RunConfiguration;
 import com.intellij.execution.configurations.RunProfileState;
 import com.intellij.execution.configurations.RuntimeConfigurationException;
+import com.intellij.execution.configurations.RuntimeConfigurationWarning;
 import com.intellij.execution.filters.TextConsoleBuilderFactory;
+import com.intellij.execution.process.ProcessHandler;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.module.Module;
@@ -18,17 +23,22 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.projectRoots.Sdk;
 import com.intellij.openapi.roots.ModuleRootManager;
 import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.util.Comparing;
 import com.intellij.openapi.util.DefaultJDOMExternalizer;
 import com.intellij.openapi.util.InvalidDataException;
 import com.intellij.openapi.util.WriteExternalException;
+import com.intellij.openapi.util.text.StringUtil;
 import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 
@@ -45,6 +55,7 @@ public class WinstoneConfiguration extends ModuleBasedConfiguration<JavaRunConfi
     public String CONTEXT_NAME = "";
     public String HTTP_PORT = "8080";
     public String AJP13_PORT = "-1";
+    public String CONTROL_PORT = "-1";
     public boolean OPEN_WEB_BROWSER;
     public boolean USE_JASPER;
     public boolean USE_JNDI;
@@ -59,6 +70,34 @@ public class WinstoneConfiguration extends ModuleBasedConfiguration<JavaRunConfi
     public boolean ALTERNATIVE_JRE_PATH_ENABLED;
     public boolean USE_TOOLS_JAR;
     public String TOOLS_JAR = "";
+    public boolean FAST_STARTUP;
+    public boolean USE_STANDBY_JVM;
+    public String STANDBY_JVM_COUNT = "1";
+    public String READINESS_PATH = "";
+    /** any answer but a server error by default, a webapp whose root is 403 or 404 is up all the same */
+    public String READINESS_STATUS = "2xx,3xx,4xx";
+    public String SHARED_HOST = "";
+    /** deduplicates the commonLib jars, see {@link WinstoneClasspathIndex}; the name is kept for stored configurations */
+    public boolean INDEXED_CLASSPATH;
+    public boolean PRECOMPILE_JSP;
+    public boolean ACCESS_LOG;
+    public boolean REQUEST_TIMING;
+    public String PERFORMANCE_PROFILE = "";
+    public boolean JMX_MONITOR;
+    // empty for Winstone's defaults; 0.9.10 reads --handlerCountMax into the idle limit, the pool stays at 300 there
+    public String HANDLER_COUNT_STARTUP = "";
+    public String HANDLER_COUNT_MAX = "";
+    public String HANDLER_COUNT_MAX_IDLE = "";
+    public boolean USE_CLUSTER;
+    public String CLUSTER_NODE_COUNT = "2";
+    public String CLUSTER_BASE_PORT = "";
+    public String CLUSTER_BALANCING = "";
+    public boolean CAPTURE_OUTPUT;
+    public boolean WAR_CACHE;
+    public String WARMUP_SCRIPT = "";
+    public String WARMUP_CONCURRENCY = "1";
+    public String WARMUP_ITERATIONS = "10";
+    public boolean SESSION_SNAPSHOT;
     public static final String WINSTONE_RUN_CLASS = "winstone.Launcher";
 
 
@@ -67,7 +106,7 @@ public class WinstoneConfiguration extends ModuleBasedConfiguration<JavaRunConfi
     }
 
     public Collection<Module> getValidModules() {
-        return JavaRunConfigurationModule.getModulesForClass(getProject(), WINSTONE_RUN_CLASS);
+        return WinstoneValidation.getInstance(getProject()).getValidModules();
     }
 
     protected ModuleBasedConfiguration createInstance() {
@@ -96,6 +135,201 @@ public class WinstoneConfiguration extends ModuleBasedConfiguration<JavaRunConfi
             throw new RuntimeConfigurationException(ourBundle.getString("error.working.dir"));
         if ("".equals(WINSTONE_JAR))
             throw new RuntimeConfigurationException(ourBundle.getString("error.winstone.jar"));
+        if (USE_STANDBY_JVM && getStandbyJvmCount() < 1)
+            throw new RuntimeConfigurationException(ourBundle.getString("error.standby.count"));
+        for (String count : new String[]{HANDLER_COUNT_STARTUP, HANDLER_COUNT_MAX, HANDLER_COUNT_MAX_IDLE}) {
+            if (!"".equals(count) && parsePositive(count) < 1)
+                throw new RuntimeConfigurationException(ourBundle.getString("error.handler.count"));
+        }
+        if (USE_CLUSTER) {
+            if (getClusterNodeCount() < 2)
+                throw new RuntimeConfigurationException(ourBundle.getString("error.cluster.nodes"));
+            int httpPort = parsePositive(HTTP_PORT);
+            int base = getClusterBasePort();
+            if (httpPort < 1 || base < 1 || httpPort >= base && httpPort < base + 2 * getClusterNodeCount())
+                throw new RuntimeConfigurationException(ourBundle.getString("error.cluster.ports"));
+            if (isSharedHost())
+                throw new RuntimeConfigurationException(ourBundle.getString("error.cluster.shared.host"));
+        }
+        if (hasWarmup() && (getWarmupConcurrency() < 1 || getWarmupIterations() < 1))
+            throw new RuntimeConfigurationException(ourBundle.getString("error.warmup.count"));
+        if (isSharedHost()) checkSharedHost();
+        WinstoneValidation.Problem problem = WinstoneValidation.getInstance(getProject()).getProblem(this);
+        if (problem != null) {
+            if (problem.warning) throw new RuntimeConfigurationWarning(problem.message);
+            throw new RuntimeConfigurationException(problem.message);
+        }
+    }
+
+    /**
+     * A shared host is started with the HTTP port, JRE, VM parameters and agents of the configuration that happens to
+     * start it first, so all configurations of a shared host must agree on them. The readiness probe, the browser and
+     * the warmup use the HTTP port of the configuration, too.
+     */
+    private void checkSharedHost() throws RuntimeConfigurationException {
+        for (RunConfiguration other : RunManager.getInstance(getProject()).getConfigurations(getType())) {
+            if (other == this || !(other instanceof WinstoneConfiguration)) continue;
+            WinstoneConfiguration winstone = (WinstoneConfiguration) other;
+            if (!winstone.SHARED_HOST.trim().equals(SHARED_HOST.trim())) continue;
+            if (!winstone.HTTP_PORT.trim().equals(HTTP_PORT.trim())) {
+                throw new RuntimeConfigurationException(MessageFormat.format(ourBundle.getString("error.shared.host.port"),
+                                                                             SHARED_HOST.trim(), winstone.getName(),
+                                                                             winstone.HTTP_PORT));
+            }
+            List<String> differences = getJvmDifferences(winstone);
+            if (!differences.isEmpty()) {
+                throw new RuntimeConfigurationException(MessageFormat.format(ourBundle.getString("error.shared.host.jvm"),
+                                                                             SHARED_HOST.trim(), winstone.getName(),
+                                                                             StringUtil.join(differences, ", ")));
+            }
+        }
+    }
+
+    /**
+     * @return the labels of the settings of the launched JVM that differ from the other configuration
+     */
+    private List<String> getJvmDifferences(WinstoneConfiguration other) {
+        List<String> differences = new ArrayList<String>();
+        if (!StringUtil.notNullize(VM_PARAMETERS).trim().equals(StringUtil.notNullize(other.VM_PARAMETERS).trim()))
+            differences.add(ourBundle.getString("setting.vm.parameters"));
+        if (ALTERNATIVE_JRE_PATH_ENABLED != other.ALTERNATIVE_JRE_PATH_ENABLED
+            || ALTERNATIVE_JRE_PATH_ENABLED && !Comparing.equal(ALTERNATIVE_JRE_PATH, other.ALTERNATIVE_JRE_PATH))
+            differences.add(ourBundle.getString("setting.jre"));
+        if (!Comparing.equal(PERFORMANCE_PROFILE, other.PERFORMANCE_PROFILE))
+            differences.add(getLabel("form.performance.profile"));
+        if (FAST_STARTUP != other.FAST_STARTUP) differences.add(getLabel("form.fast.startup"));
+        if (REQUEST_TIMING != other.REQUEST_TIMING) differences.add(getLabel("form.request.timing"));
+        if (SESSION_SNAPSHOT != other.SESSION_SNAPSHOT) differences.add(getLabel("form.session.snapshot"));
+        if (JMX_MONITOR != other.JMX_MONITOR) differences.add(getLabel("form.jmx.monitor"));
+        return differences;
+    }
+
+    /**
+     * @return the label of an option of the editor without its explanation in parentheses
+     */
+    private static String getLabel(String key) {
+        String label = ourBundle.getString(key);
+        for (String parenthesis : new String[] {" (", "\uff08"}) {
+            int index = label.indexOf(parenthesis);
+            if (index > 0) label = label.substring(0, index);
+        }
+        return label;
+    }
+
+    private static int parsePositive(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public void createAdditionalTabComponents(AdditionalTabComponentManager manager, ProcessHandler startedProcess) {
+        super.createAdditionalTabComponents(manager, startedProcess);
+        WinstoneJvmMonitor monitor = startedProcess.getUserData(WinstoneJvmMonitor.KEY);
+        if (monitor != null) manager.addAdditionalTabComponent(new WinstoneMonitorTab(monitor), "WinstoneMonitor");
+        WinstoneCluster cluster = startedProcess.getUserData(WinstoneCluster.KEY);
+        if (cluster != null) {
+            manager.addAdditionalTabComponent(new WinstoneClusterTab(cluster), "WinstoneCluster");
+            for (WinstoneCluster.Node node : cluster.getNodes()) {
+                if (node.getConsole() != null)
+                    manager.addAdditionalTabComponent(new WinstoneNodeConsoleTab(node), "WinstoneNode" + node.index);
+            }
+        }
+        WinstoneOutputCapture capture = startedProcess.getUserData(WinstoneOutputCapture.KEY);
+        if (capture != null) manager.addAdditionalTabComponent(new WinstoneCaptureTab(capture), "WinstoneCapture");
+    }
+
+    /**
+     * @return the path the readiness probe requests, including the context
+     */
+    public String getReadinessUrlPath() {
+        return getUrlPath(READINESS_PATH);
+    }
+
+    /**
+     * @return the path below the context, including the context
+     */
+    public String getUrlPath(String path) {
+        path = path.trim();
+        if (!path.startsWith("/")) path = "/" + path;
+        return "".equals(CONTEXT_NAME) ? path : "/" + CONTEXT_NAME + path;
+    }
+
+    public boolean hasWarmup() {
+        return WARMUP_SCRIPT.trim().length() > 0;
+    }
+
+    public boolean isWarCacheUsed() {
+        return USE_WEB_APPS && WAR_CACHE;
+    }
+
+    /**
+     * @return the directory Winstone deploys the webapps of the webappsDir mode from, the WAR cache if it is used
+     */
+    public File getWebappsDirectory() {
+        return isWarCacheUsed() ? WinstoneWarCache.getDirectory(this) : new File(WEBAPP_DIRECTORY);
+    }
+
+    /**
+     * @return the folder Winstone loads the common jars from, the deduplicated one if {@link #INDEXED_CLASSPATH} is on
+     */
+    public File getCommonLibDirectory() {
+        return INDEXED_CLASSPATH ? WinstoneClasspathIndex.getDirectory(this) : new File(COMMONLIB_DIRECTORY);
+    }
+
+    public boolean isSharedHost() {
+        return SHARED_HOST.trim().length() > 0;
+    }
+
+    /**
+     * @return the JDK Jasper compiles with, passed as --javaHome
+     */
+    public String getJspJavaHome() {
+        if (ALTERNATIVE_JRE_PATH_ENABLED) return ALTERNATIVE_JRE_PATH;
+        Sdk jdk = getConfigurationModule().getModule() != null ?
+                  ModuleRootManager.getInstance(getConfigurationModule().getModule()).getSdk() :
+                  ProjectRootManager.getInstance(getProject()).getProjectJdk();
+        return jdk.getHomePath();
+    }
+
+    public String getJspToolsJar() {
+        return USE_TOOLS_JAR ? TOOLS_JAR : getJspJavaHome() + "/lib/tools.jar";
+    }
+
+    public int getControlPort() {
+        try {
+            return Integer.parseInt(CONTROL_PORT.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getStandbyJvmCount() {
+        try {
+            return Integer.parseInt(STANDBY_JVM_COUNT.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public int getWarmupConcurrency() {
+        return parsePositive(WARMUP_CONCURRENCY);
+    }
+
+    public int getWarmupIterations() {
+        return parsePositive(WARMUP_ITERATIONS);
+    }
+
+    public int getClusterNodeCount() {
+        return parsePositive(CLUSTER_NODE_COUNT);
+    }
+
+    /**
+     * @return the HTTP port of the first cluster node, by default the one after the HTTP port
+     */
+    public int getClusterBasePort() {
+        return "".equals(CLUSTER_BASE_PORT.trim()) ? parsePositive(HTTP_PORT) + 1 : parsePositive(CLUSTER_BASE_PORT);
     }
 
     public void readExternal(Element element) throws InvalidDataException {
@@ -164,26 +398,31 @@ public class WinstoneConfiguration extends ModuleBasedConfiguration<JavaRunConfi
     public String getProgramParameters() {
         StringBuilder sb = new StringBuilder();
         if (USE_WEB_ROOT) sb.append("--webroot=" + WEBAPP_DIRECTORY + " ");
-        if (USE_WEB_APPS) sb.append("--webappsDir=" + WEBAPP_DIRECTORY + " ");
+        if (USE_WEB_APPS) sb.append("--webappsDir=" + getWebappsDirectory().getPath() + " ");
         if (!"".equals(CONTEXT_NAME)) sb.append("--prefix=/" + CONTEXT_NAME + " ");
         if (!"".equals(HTTP_PORT)) sb.append("--httpPort=" + HTTP_PORT + " ");
         if (!"".equals(AJP13_PORT)) sb.append("--ajp13Port=" + AJP13_PORT + " ");
+        if (!"".equals(CONTROL_PORT)) sb.append("--controlPort=" + CONTROL_PORT + " ");
         if (USE_JASPER) {
-            sb.append("--useJasper=true");
-            Sdk jdk = getConfigurationModule().getModule() != null ?
-                      ModuleRootManager.getInstance(getConfigurationModule().getModule()).getSdk() :
-                      ProjectRootManager.getInstance(getProject()).getProjectJdk();
-            String JDK_HOME = ALTERNATIVE_JRE_PATH_ENABLED ? ALTERNATIVE_JRE_PATH : jdk.getHomePath();
-            sb.append("--javaHome=" + JDK_HOME + " ");
-            String TOOLS = USE_TOOLS_JAR ? TOOLS_JAR : JDK_HOME + "/lib/tools.jar";
-            sb.append("--toolsJar=" + TOOLS + " ");
+            sb.append("--useJasper=true ");
+            sb.append("--javaHome=" + getJspJavaHome() + " ");
+            sb.append("--toolsJar=" + getJspToolsJar() + " ");
+        }
+        sb.append("--useJNDI=" + USE_JNDI + " ");
+        sb.append("--useServletReloading=" + USE_SERVLET_RELOADING + " ");
+        sb.append("--directoryListings=" + USE_DIRECTORY_LISTS + " ");
+        sb.append("--debug=" + DEBUG_LEVEL + " ");
+        if (CAPTURE_OUTPUT) sb.append("--logThrowingThread=true ");
+        if (!"".equals(HANDLER_COUNT_STARTUP)) sb.append("--handlerCountStartup=" + HANDLER_COUNT_STARTUP + " ");
+        if (!"".equals(HANDLER_COUNT_MAX)) sb.append("--handlerCountMax=" + HANDLER_COUNT_MAX + " ");
+        if (!"".equals(HANDLER_COUNT_MAX_IDLE)) sb.append("--handlerCountMaxIdle=" + HANDLER_COUNT_MAX_IDLE + " ");
+        if (ACCESS_LOG) {
+            sb.append("--accessLoggerClassName=" + WinstoneAccessLogs.LOGGER_CLASS + " ");
+            sb.append("--simpleAccessLogger.format=common ");
+            sb.append("--simpleAccessLogger.file=" + new File(WinstoneAccessLogs.getLogDirectory(this), "###webapp###_access.log").getPath() + " ");
         }
-        sb.append("--useJNDI=" + USE_JNDI + "");
-        sb.append("--useServletReloading=" + USE_SERVLET_RELOADING + "");
-        sb.append("--directoryListings=" + USE_DIRECTORY_LISTS + "");
-        sb.append("--debug=" + DEBUG_LEVEL + "");
         if (!"".equals(WINSTONE_PROPERTIES_FILE)) sb.append("--config=" + WINSTONE_PROPERTIES_FILE + " ");
-        if (!"".equals(COMMONLIB_DIRECTORY)) sb.append("--commonLibFolder=" + new File(COMMONLIB_DIRECTORY).getPath() + " ");
+        if (!"".equals(COMMONLIB_DIRECTORY)) sb.append("--commonLibFolder=" + getCommonLibDirectory().getPath() + " ");
         return sb.toString();
     }
 
@@ -2,6 +2,7 @@ package com.googlecode.intellimars.winstone;
 
 import com.intellij.execution.ui.AlternativeJREPanel;
 import com.intellij.ide.BrowserUtil;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileChooser.FileChooserDescriptor;
 import com.intellij.openapi.options.ConfigurationException;
@@ -49,11 +50,48 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
     private JRadioButton useWebApps;
     private JRadioButton useWebRoot;
     private JTextField ajp13Port;
+    private JTextField controlPort;
     private JCheckBox useDirectoryLists;
+    private JCheckBox fastStartup;
+    private JCheckBox useStandbyJvm;
+    private JTextField standbyJvmCount;
+    private JTextField readinessPath;
+    private JTextField readinessStatus;
+    private JTextField sharedHost;
+    private JCheckBox indexedClasspath;
+    private JCheckBox precompileJsp;
+    private JCheckBox accessLog;
+    private JCheckBox requestTiming;
+    private JComboBox performanceProfile;
+    private JCheckBox jmxMonitor;
+    private JTextField handlerCountStartup;
+    private JTextField handlerCountMax;
+    private JTextField handlerCountMaxIdle;
+    private JCheckBox useCluster;
+    private JTextField clusterNodeCount;
+    private JTextField clusterBasePort;
+    private JComboBox clusterBalancing;
+    private JCheckBox captureOutput;
+    private JCheckBox warCache;
+    private JTextField warmupScript;
+    private JTextField warmupConcurrency;
+    private JTextField warmupIterations;
+    private JCheckBox sessionSnapshot;
+    private final WinstoneChangeSource.Listener validationListener = new WinstoneChangeSource.Listener() {
+        public void changed() {
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+                public void run() {
+                    // validates again, with the result of the background check
+                    fireEditorStateChanged();
+                }
+            });
+        }
+    };
 
 
     public WinstoneConfigurationEditor(Project _project) {
         project = _project;
+        WinstoneValidation.getInstance(project).addChangeListener(validationListener);
 
         webroot.addBrowseFolderListener("Winstone", ourBundle.getString("select.webapp.dir"),
                 project, new FileChooserDescriptor(false, true, false, false, false, false));
@@ -82,6 +120,25 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
         });
         toolsJar.addBrowseFolderListener("Winstone", ourBundle.getString("select.tools.jar"), project,
                 new FileChooserDescriptor(true, false, true, true, false, false));
+        useStandbyJvm.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent event) {
+                standbyJvmCount.setEnabled(useStandbyJvm.isSelected());
+            }
+        });
+
+        for (WinstonePerformanceProfile profile : WinstonePerformanceProfile.values()) performanceProfile.addItem(profile);
+        useCluster.addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent event) {
+                updateClusterFields();
+            }
+        });
+        for (WinstoneBalancer.Strategy strategy : WinstoneBalancer.Strategy.values()) clusterBalancing.addItem(strategy);
+    }
+
+    private void updateClusterFields() {
+        clusterNodeCount.setEnabled(useCluster.isSelected());
+        clusterBasePort.setEnabled(useCluster.isSelected());
+        clusterBalancing.setEnabled(useCluster.isSelected());
     }
 
 
@@ -95,6 +152,7 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
         openWebBrowser.setSelected(config.OPEN_WEB_BROWSER);
         httpPort.setText(config.HTTP_PORT);
         ajp13Port.setText(config.AJP13_PORT);
+        controlPort.setText(config.CONTROL_PORT);
         useJasper.setSelected(config.USE_JASPER);
         useJNDI.setSelected(config.USE_JNDI);
         useServletReload.setSelected(config.USE_SERVLET_RELOADING);
@@ -107,6 +165,33 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
         alternateJDK.init(config.ALTERNATIVE_JRE_PATH, config.ALTERNATIVE_JRE_PATH_ENABLED);
         useToolsJar.setSelected(config.USE_TOOLS_JAR);
         toolsJar.setText(config.TOOLS_JAR);
+        fastStartup.setSelected(config.FAST_STARTUP);
+        useStandbyJvm.setSelected(config.USE_STANDBY_JVM);
+        standbyJvmCount.setText(config.STANDBY_JVM_COUNT);
+        standbyJvmCount.setEnabled(config.USE_STANDBY_JVM);
+        readinessPath.setText(config.READINESS_PATH);
+        readinessStatus.setText(config.READINESS_STATUS);
+        sharedHost.setText(config.SHARED_HOST);
+        indexedClasspath.setSelected(config.INDEXED_CLASSPATH);
+        precompileJsp.setSelected(config.PRECOMPILE_JSP);
+        accessLog.setSelected(config.ACCESS_LOG);
+        requestTiming.setSelected(config.REQUEST_TIMING);
+        performanceProfile.setSelectedItem(WinstonePerformanceProfile.get(config.PERFORMANCE_PROFILE));
+        jmxMonitor.setSelected(config.JMX_MONITOR);
+        handlerCountStartup.setText(config.HANDLER_COUNT_STARTUP);
+        handlerCountMax.setText(config.HANDLER_COUNT_MAX);
+        handlerCountMaxIdle.setText(config.HANDLER_COUNT_MAX_IDLE);
+        useCluster.setSelected(config.USE_CLUSTER);
+        clusterNodeCount.setText(config.CLUSTER_NODE_COUNT);
+        clusterBasePort.setText(config.CLUSTER_BASE_PORT);
+        clusterBalancing.setSelectedItem(WinstoneBalancer.Strategy.get(config.CLUSTER_BALANCING));
+        captureOutput.setSelected(config.CAPTURE_OUTPUT);
+        warCache.setSelected(config.WAR_CACHE);
+        warmupScript.setText(config.WARMUP_SCRIPT);
+        warmupConcurrency.setText(config.WARMUP_CONCURRENCY);
+        warmupIterations.setText(config.WARMUP_ITERATIONS);
+        sessionSnapshot.setSelected(config.SESSION_SNAPSHOT);
+        updateClusterFields();
     }
 
     protected void applyEditorTo(WinstoneConfiguration config) throws ConfigurationException {
@@ -118,6 +203,7 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
         config.OPEN_WEB_BROWSER = openWebBrowser.isSelected();
         config.HTTP_PORT = httpPort.getText();
         config.AJP13_PORT = ajp13Port.getText();
+        config.CONTROL_PORT = controlPort.getText();
         config.USE_JASPER = useJasper.isSelected();
         config.USE_JNDI = useJNDI.isSelected();
         config.USE_SERVLET_RELOADING = useServletReload.isSelected();
@@ -131,6 +217,31 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
         config.ALTERNATIVE_JRE_PATH_ENABLED = alternateJDK.isPathEnabled();
         config.USE_TOOLS_JAR = useToolsJar.isSelected();
         config.TOOLS_JAR = toolsJar.getText();
+        config.FAST_STARTUP = fastStartup.isSelected();
+        config.USE_STANDBY_JVM = useStandbyJvm.isSelected();
+        config.STANDBY_JVM_COUNT = standbyJvmCount.getText();
+        config.READINESS_PATH = readinessPath.getText();
+        config.READINESS_STATUS = readinessStatus.getText();
+        config.SHARED_HOST = sharedHost.getText().trim();
+        config.INDEXED_CLASSPATH = indexedClasspath.isSelected();
+        config.PRECOMPILE_JSP = precompileJsp.isSelected();
+        config.ACCESS_LOG = accessLog.isSelected();
+        config.REQUEST_TIMING = requestTiming.isSelected();
+        config.PERFORMANCE_PROFILE = ((WinstonePerformanceProfile) performanceProfile.getSelectedItem()).getStoredName();
+        config.JMX_MONITOR = jmxMonitor.isSelected();
+        config.HANDLER_COUNT_STARTUP = handlerCountStartup.getText().trim();
+        config.HANDLER_COUNT_MAX = handlerCountMax.getText().trim();
+        config.HANDLER_COUNT_MAX_IDLE = handlerCountMaxIdle.getText().trim();
+        config.USE_CLUSTER = useCluster.isSelected();
+        config.CLUSTER_NODE_COUNT = clusterNodeCount.getText().trim();
+        config.CLUSTER_BASE_PORT = clusterBasePort.getText().trim();
+        config.CLUSTER_BALANCING = ((WinstoneBalancer.Strategy) clusterBalancing.getSelectedItem()).name();
+        config.CAPTURE_OUTPUT = captureOutput.isSelected();
+        config.WAR_CACHE = warCache.isSelected();
+        config.WARMUP_SCRIPT = warmupScript.getText().trim();
+        config.WARMUP_CONCURRENCY = warmupConcurrency.getText().trim();
+        config.WARMUP_ITERATIONS = warmupIterations.getText().trim();
+        config.SESSION_SNAPSHOT = sessionSnapshot.isSelected();
     }
 
     @NotNull
@@ -139,6 +250,7 @@ public class WinstoneConfigurationEditor extends SettingsEditor<WinstoneConfigur
     }
 
     protected void disposeEditor() {
+        WinstoneValidation.getInstance(project).removeChangeListener(validationListener);
     }
 
     private void createUIComponents() {
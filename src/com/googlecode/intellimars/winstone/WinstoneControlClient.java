@@ -0,0 +1,63 @@
+package com.googlecode.intellimars.winstone;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Talks to the control port of a running Winstone (<code>--controlPort</code>).
+ * The protocol is the one of winstone.Launcher.handleControlRequest in Winstone 0.9.10.
+ */
+public class WinstoneControlClient {
+    private static final byte SHUTDOWN_TYPE = '0';
+    private static final byte RELOAD_TYPE = '4';
+    private static final String DEFAULT_HOST = "default";
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private final int port;
+
+
+    public WinstoneControlClient(int _port) {
+        port = _port;
+    }
+
+    /**
+     * Destroys and re-initializes the webapp of the given prefix ("" for the root webapp).
+     */
+    public void reload(String prefix) throws IOException {
+        Socket socket = connect();
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(RELOAD_TYPE);
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeUTF(DEFAULT_HOST);
+            objects.writeUTF(prefix);
+            objects.flush();
+            // the launcher closes the connection once the webapp is reloaded
+            socket.getInputStream().read();
+        } finally {
+            socket.close();
+        }
+    }
+
+    public void shutdown() throws IOException {
+        Socket socket = connect();
+        try {
+            socket.getOutputStream().write(SHUTDOWN_TYPE);
+            socket.getOutputStream().flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), CONNECT_TIMEOUT);
+        socket.setSoTimeout(READ_TIMEOUT);
+        return socket;
+    }
+}
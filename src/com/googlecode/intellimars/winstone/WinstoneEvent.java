@@ -0,0 +1,61 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessHandler;
+
+/**
+ * Something that happened in a launched Winstone process, as recognized from its output.
+ */
+public class WinstoneEvent {
+    public enum Type {
+        HTTP_LISTENER_STARTED,
+        AJP13_LISTENER_STARTED,
+        WEBAPP_DEPLOYED,
+        SERVER_STARTED,
+        STARTUP_FAILED,
+        /** The webapp answered the readiness probe; the detail is the latency in milliseconds. */
+        READY,
+        NOT_READY
+    }
+
+    private final Type type;
+    private final WinstoneConfiguration configuration;
+    private final ProcessHandler processHandler;
+    private final String detail;
+    private final long timestamp;
+
+
+    public WinstoneEvent(Type _type, WinstoneConfiguration _configuration, ProcessHandler _processHandler, String _detail) {
+        type = _type;
+        configuration = _configuration;
+        processHandler = _processHandler;
+        detail = _detail;
+        timestamp = System.currentTimeMillis();
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public WinstoneConfiguration getConfiguration() {
+        return configuration;
+    }
+
+    public ProcessHandler getProcessHandler() {
+        return processHandler;
+    }
+
+    /**
+     * The remainder of the output line after the marker, e.g. the port of a started listener.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String toString() {
+        return type + ": " + detail;
+    }
+}
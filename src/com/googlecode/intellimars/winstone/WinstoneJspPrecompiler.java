@@ -0,0 +1,390 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneJspCompiler;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.ParametersList;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles the JSPs of the webapp(s) before the launch, so that Jasper finds them compiled on the first request.
+ * <p/>
+ * Each JSP is hashed together with the files it includes statically (include directives, followed transitively).
+ * Only JSPs whose hash changed are compiled, in one JVM of the configured --javaHome with a thread per core (see
+ * {@link WinstoneJspCompiler}). The classes are cached per JSP under the plugin system directory and staged into
+ * the directory Jasper compiles into, <code>${java.io.tmpdir}/winstone.tmp/default/&lt;webapp name&gt;</code>, with
+ * the time stamp of their JSP, which is what Jasper compares to decide that a JSP is up to date.
+ */
+public class WinstoneJspPrecompiler {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final Pattern INCLUDE =
+            Pattern.compile("(?:<%@\\s*include|<jsp:directive\\.include)\\s[^>]*?file\\s*=\\s*[\"']([^\"']+)[\"']");
+    private static final String HASHES = "hashes.properties";
+    private static final String TMP_DIR_OPTION = "-Djava.io.tmpdir=";
+    private static final String HOST_NAME = "default";
+    private static final long COMPILE_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    public static class Result {
+        public int jsps;
+        public int compiled;
+        public int webapps;
+        public final List<String> failed = new ArrayList<String>();
+        public boolean canceled;
+        public long millis;
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Precompiled JSPs: ").append(compiled).append(" of ").append(jsps).append(" compiled");
+            if (webapps > 1) sb.append(" in ").append(webapps).append(" webapps");
+            sb.append(", ").append(jsps - compiled - failed.size()).append(" up to date, ");
+            sb.append(millis).append(" ms");
+            if (canceled) sb.append("; canceled, the rest compiles on first request");
+            if (!failed.isEmpty()) sb.append("; failed (compiled on first request): ").append(failed);
+            return sb.toString();
+        }
+    }
+
+    private final WinstoneConfiguration config;
+    private final File dir = new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "jsp");
+
+
+    public WinstoneJspPrecompiler(WinstoneConfiguration _config) {
+        config = _config;
+    }
+
+    public Result precompile(@Nullable ProgressIndicator indicator) throws ExecutionException, IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        File scratchRoot = new File(new File(getTmpDirectory(), "winstone.tmp"), HOST_NAME);
+        String classPath = getCompilerClassPath();
+        synchronized (WinstoneJspPrecompiler.class) {
+            for (Map.Entry<String, File> webapp : getWebapps().entrySet()) {
+                if (indicator != null) indicator.setText("Precompiling JSPs of " + webapp.getValue().getName());
+                result.webapps++;
+                precompile(webapp.getValue(), new File(scratchRoot, webapp.getKey()), classPath, result, indicator);
+            }
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        LOGGER.info("WinstoneJspPrecompiler: " + result);
+        return result;
+    }
+
+    /**
+     * @return whether the VM parameters set java.io.tmpdir themselves; if not, the launch has to pass the one the
+     *         classes were staged in
+     */
+    public boolean isTmpDirectoryConfigured() {
+        return getConfiguredTmpDirectory() != null;
+    }
+
+    public String getTmpDirectory() {
+        String configured = getConfiguredTmpDirectory();
+        return configured != null ? configured : System.getProperty("java.io.tmpdir");
+    }
+
+    public static String getTmpDirectoryOption(String tmpDirectory) {
+        return TMP_DIR_OPTION + tmpDirectory;
+    }
+
+    @Nullable
+    private String getConfiguredTmpDirectory() {
+        for (String option : ParametersList.parse(config.VM_PARAMETERS)) {
+            if (option.startsWith(TMP_DIR_OPTION)) return option.substring(TMP_DIR_OPTION.length());
+        }
+        return null;
+    }
+
+    /**
+     * @return webapp directories by the name Winstone gives their context, which names the Jasper scratch directory
+     */
+    private Map<String, File> getWebapps() {
+        Map<String, File> webapps = new LinkedHashMap<String, File>();
+        File webappDirectory = new File(config.WEBAPP_DIRECTORY);
+        if (config.USE_WEB_APPS) {
+            File[] files = config.getWebappsDirectory().listFiles();
+            if (files == null) return webapps;
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory()) webapps.put(file.getName(), file);
+            }
+        } else if (config.isSharedHost()) {
+            webapps.put("".equals(config.CONTEXT_NAME) ? "ROOT" : config.CONTEXT_NAME, webappDirectory);
+        } else {
+            webapps.put("webapp", webappDirectory);
+        }
+        return webapps;
+    }
+
+    private void precompile(File webapp, File scratch, String classPath, Result result,
+                            @Nullable ProgressIndicator indicator) throws ExecutionException, IOException {
+        String key = webapp.getAbsolutePath() + "\n" + config.getJspJavaHome() + "\n" + classPath;
+        File cache = new File(dir, WinstoneDigest.sha1(key).substring(0, 16));
+        cache.mkdirs();
+        Properties hashes = loadHashes(cache);
+
+        List<String> jsps = new ArrayList<String>();
+        collectJsps(webapp, "", jsps);
+        result.jsps += jsps.size();
+        Map<String, String> stale = new LinkedHashMap<String, String>();
+        Map<String, String> hashOf = new LinkedHashMap<String, String>();
+        for (String uri : jsps) {
+            String hash = hash(webapp, uri);
+            hashOf.put(uri, hash);
+            if (!hash.equals(hashes.getProperty(uri)) || !getClassesDirectory(cache, uri).isDirectory())
+                stale.put(uri, hash);
+        }
+        for (String uri : new ArrayList<String>(hashes.stringPropertyNames())) {
+            if (hashOf.containsKey(uri)) continue;
+            hashes.remove(uri);
+            FileUtil.delete(getClassesDirectory(cache, uri));
+        }
+
+        if (!stale.isEmpty()) {
+            for (String uri : stale.keySet()) {
+                hashes.remove(uri);
+                FileUtil.delete(getClassesDirectory(cache, uri));
+            }
+            saveHashes(cache, hashes);
+            Set<String> compiled = compile(webapp, cache, stale.keySet(), classPath, result, indicator);
+            for (String uri : compiled) hashes.setProperty(uri, stale.get(uri));
+            result.compiled += compiled.size();
+            saveHashes(cache, hashes);
+        }
+
+        for (String uri : jsps) {
+            File classes = getClassesDirectory(cache, uri);
+            if (hashes.containsKey(uri) && classes.isDirectory())
+                stage(classes, scratch, new File(webapp, uri).lastModified());
+        }
+    }
+
+    private static void collectJsps(File directory, String path, List<String> jsps) {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        Arrays.sort(files);
+        for (File file : files) {
+            String uri = path + "/" + file.getName();
+            if (file.isDirectory()) {
+                // tag files are compiled along with the JSPs using them
+                if (!uri.equals("/WEB-INF/tags") && !uri.equals("/META-INF")) collectJsps(file, uri, jsps);
+            } else if (isJsp(file.getName())) {
+                jsps.add(uri);
+            }
+        }
+    }
+
+    static boolean isJsp(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".jsp") || lower.endsWith(".jspx");
+    }
+
+    /**
+     * Digest of the JSP and everything it includes statically, in include order.
+     */
+    private static String hash(File webapp, String uri) throws IOException {
+        MessageDigest digest = WinstoneDigest.create();
+        hash(webapp, uri, digest, new HashSet<String>());
+        return WinstoneDigest.toHex(digest.digest());
+    }
+
+    private static void hash(File webapp, String uri, MessageDigest digest, Set<String> visited) throws IOException {
+        if (!visited.add(uri)) return;
+        digest.update(uri.getBytes("UTF-8"));
+        File file = new File(webapp, uri);
+        if (!file.isFile()) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] content = FileUtil.loadFileBytes(file);
+        digest.update(content);
+        for (String include : findIncludes(new String(content, "ISO-8859-1"))) {
+            hash(webapp, resolve(uri, include), digest, visited);
+        }
+    }
+
+    static List<String> findIncludes(String content) {
+        List<String> includes = new ArrayList<String>();
+        Matcher matcher = INCLUDE.matcher(content);
+        while (matcher.find()) includes.add(matcher.group(1));
+        return includes;
+    }
+
+    /**
+     * Resolves an include path like Jasper: absolute to the webapp root, otherwise to the including file.
+     */
+    static String resolve(String uri, String include) {
+        if (include.startsWith("/")) return include;
+        List<String> segments = new ArrayList<String>(Arrays.asList(uri.substring(1, uri.lastIndexOf('/') + 1).split("/")));
+        if (segments.size() == 1 && "".equals(segments.get(0))) segments.clear();
+        for (String segment : include.split("/")) {
+            if ("..".equals(segment)) {
+                if (!segments.isEmpty()) segments.remove(segments.size() - 1);
+            } else if (!".".equals(segment) && !"".equals(segment)) {
+                segments.add(segment);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String segment : segments) sb.append('/').append(segment);
+        return sb.toString();
+    }
+
+    private static File getClassesDirectory(File cache, String uri) {
+        return new File(new File(cache, "classes"), WinstoneDigest.sha1(uri).substring(0, 16));
+    }
+
+    /**
+     * @return the JSPs that compiled
+     */
+    private Set<String> compile(File webapp, File cache, Set<String> uris, String classPath, final Result result,
+                                @Nullable final ProgressIndicator indicator) throws ExecutionException, IOException {
+        File list = new File(cache, "compile.list");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(list), "UTF-8");
+        try {
+            for (String uri : uris) writer.write(uri + "\t" + getClassesDirectory(cache, uri).getAbsolutePath() + "\n");
+        } finally {
+            writer.close();
+        }
+
+        GeneralCommandLine commandLine = new GeneralCommandLine();
+        commandLine.setExePath(getJavaExecutable());
+        commandLine.addParameter("-cp");
+        commandLine.addParameter(classPath);
+        commandLine.addParameter(WinstoneJspCompiler.class.getName());
+        commandLine.addParameter(String.valueOf(Runtime.getRuntime().availableProcessors()));
+        commandLine.addParameter(webapp.getAbsolutePath());
+        commandLine.addParameter(list.getAbsolutePath());
+
+        final Set<String> compiled = new HashSet<String>();
+        final int total = uris.size();
+        final CapturingProcessHandler handler = new CapturingProcessHandler(commandLine.createProcess());
+        handler.addProcessListener(new ProcessAdapter() {
+            private int done;
+
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                String[] line = event.getText().trim().split("\t", 4);
+                if (line.length < 3 || !WinstoneJspCompiler.RESULT.equals(line[0])) return;
+                synchronized (compiled) {
+                    if ("OK".equals(line[1])) {
+                        compiled.add(line[2]);
+                    } else {
+                        result.failed.add(line[2] + (line.length > 3 ? " (" + line[3] + ")" : ""));
+                    }
+                    done++;
+                }
+                if (indicator == null) return;
+                indicator.setFraction((double) done / total);
+                indicator.setText2(line[2]);
+                if (indicator.isCanceled()) {
+                    result.canceled = true;
+                    handler.destroyProcess();
+                }
+            }
+        });
+        ProcessOutput output = handler.runProcess((int) COMPILE_TIMEOUT);
+        if (output.isTimeout()) result.canceled = true;
+        if (output.getExitCode() != 0 && !result.canceled && compiled.isEmpty())
+            throw new ExecutionException("JspC failed: " + output.getStderr());
+        synchronized (compiled) {
+            return new HashSet<String>(compiled);
+        }
+    }
+
+    private String getJavaExecutable() {
+        return config.getJspJavaHome() + File.separator + "bin" + File.separator + (SystemInfo.isWindows ? "java.exe" : "java");
+    }
+
+    /**
+     * JspC comes with the Jasper jars of the commonLib folder; javac with the tools.jar Winstone is given.
+     */
+    private String getCompilerClassPath() throws IOException {
+        List<String> paths = new ArrayList<String>();
+        paths.add(WinstoneRuntimeJar.get("winstone-ce-jspc", WinstoneJspCompiler.class).getPath());
+        paths.add(new File(config.WINSTONE_JAR).getPath());
+        File toolsJar = new File(config.getJspToolsJar());
+        if (toolsJar.isFile()) paths.add(toolsJar.getPath());
+        File[] files = new File(config.COMMONLIB_DIRECTORY).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                if (file.isFile() && (name.endsWith(".jar") || name.endsWith(".zip"))) paths.add(file.getPath());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            if (sb.length() > 0) sb.append(File.pathSeparator);
+            sb.append(path);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies the classes of one JSP into the Jasper scratch directory, dated like the JSP.
+     */
+    private static void stage(File from, File to, long jspLastModified) throws IOException {
+        File[] files = from.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            File target = new File(to, file.getName());
+            if (file.isDirectory()) {
+                stage(file, target, jspLastModified);
+            } else if (!target.isFile() || target.length() != file.length() || target.lastModified() != jspLastModified) {
+                target.getParentFile().mkdirs();
+                FileUtil.copy(file, target);
+                target.setLastModified(jspLastModified);
+            }
+        }
+    }
+
+    private static Properties loadHashes(File cache) throws IOException {
+        Properties hashes = new Properties();
+        File file = new File(cache, HASHES);
+        if (!file.isFile()) return hashes;
+        InputStream in = new FileInputStream(file);
+        try {
+            hashes.load(in);
+        } finally {
+            in.close();
+        }
+        return hashes;
+    }
+
+    private static void saveHashes(File cache, Properties hashes) throws IOException {
+        OutputStream out = new FileOutputStream(new File(cache, HASHES));
+        try {
+            hashes.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+}
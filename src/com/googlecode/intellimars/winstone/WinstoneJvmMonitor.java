@@ -0,0 +1,281 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples a launched Winstone JVM over the JMX connector that {@link #getVmOptions(int)} enables: heap, garbage
+ * collections and threads, and from the threads the state of Winstone's request handler pool. While the process runs
+ * it takes a sample every {@link #SAMPLE_INTERVAL} ms, and counts the warnings Winstone prints when the pool is out of
+ * handlers, which also catches exhaustion between two samples.
+ * <p/>
+ * Winstone's ObjectPool has no management interface, so the pool is read from the thread dump: handler threads are
+ * named <code>RequestHandlerThread[#n]</code> and wait on themselves while idle. A listener thread sleeping in
+ * <code>ObjectPool.handleRequest</code> holds a connection but found no free handler for it, which is what pool
+ * exhaustion looks like.
+ */
+public class WinstoneJvmMonitor extends WinstoneChangeSource {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    public static final Key<WinstoneJvmMonitor> KEY = Key.create("WinstoneJvmMonitor");
+    private static final long SAMPLE_INTERVAL = 2000;
+    private static final int MAX_SAMPLES = 150;
+    private static final int STACK_DEPTH = 4;
+    private static final String HANDLER_THREAD = "RequestHandlerThread";
+    private static final String POOL_CLASS = "winstone.ObjectPool";
+    private static final String RETRY_MESSAGE = "Request handler pool limit exceeded";
+    private static final String DROP_MESSAGE = "no more request handlers available";
+
+    public static class Sample {
+        public final long time = System.currentTimeMillis();
+        public long heapUsed;
+        public long heapCommitted;
+        public long heapMax;
+        public long gcCount;
+        public long gcMillis;
+        public long gcCountDelta;
+        public long gcMillisDelta;
+        public int threads;
+        public int runnable;
+        public int blocked;
+        public int waiting;
+        public int busyHandlers;
+        public int idleHandlers;
+        public int waitingForHandler;
+
+        public boolean isPoolExhausted() {
+            return waitingForHandler > 0;
+        }
+    }
+
+    private final int port;
+    private final LinkedList<Sample> samples = new LinkedList<Sample>();
+    private JMXConnector connector;
+    private MemoryMXBean memory;
+    private ThreadMXBean threads;
+    private List<GarbageCollectorMXBean> collectors;
+    private int exhaustedSamples;
+    private int retries;
+    private int droppedRequests;
+    private String error;
+
+
+    public WinstoneJvmMonitor(int _port) {
+        port = _port;
+    }
+
+    /**
+     * @return the options that open a JMX connector without authentication on the loopback interface
+     */
+    public static List<String> getVmOptions(int port) {
+        List<String> options = new ArrayList<String>();
+        options.add("-Dcom.sun.management.jmxremote.port=" + port);
+        options.add("-Dcom.sun.management.jmxremote.rmi.port=" + port);
+        options.add("-Dcom.sun.management.jmxremote.host=127.0.0.1");
+        options.add("-Dcom.sun.management.jmxremote.local.only=true");
+        options.add("-Dcom.sun.management.jmxremote.authenticate=false");
+        options.add("-Dcom.sun.management.jmxremote.ssl=false");
+        options.add("-Djava.rmi.server.hostname=127.0.0.1");
+        return options;
+    }
+
+    /**
+     * Samples the process until it terminates, and makes the monitor available to the console through {@link #KEY}.
+     */
+    public void attachTo(ProcessHandler processHandler) {
+        processHandler.putUserData(KEY, this);
+        final ScheduledFuture<?> sampler = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                poll();
+            }
+        }, SAMPLE_INTERVAL, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+        processHandler.addProcessListener(new ProcessAdapter() {
+            public void onTextAvailable(ProcessEvent event, Key outputType) {
+                String text = event.getText();
+                if (text.contains(RETRY_MESSAGE)) {
+                    synchronized (WinstoneJvmMonitor.this) {
+                        retries++;
+                    }
+                } else if (text.contains(DROP_MESSAGE)) {
+                    synchronized (WinstoneJvmMonitor.this) {
+                        droppedRequests++;
+                    }
+                }
+            }
+
+            public void processTerminated(ProcessEvent event) {
+                sampler.cancel(false);
+                close();
+                fireChanged();
+            }
+        });
+    }
+
+    private void poll() {
+        try {
+            sample();
+            setError(null);
+        } catch (IOException e) {
+            // expected until the JVM has opened its connector
+            LOGGER.debug("WinstoneJvmMonitor: no sample", e);
+            setError(e.getMessage());
+        }
+        fireChanged();
+    }
+
+    private synchronized void setError(String _error) {
+        error = _error;
+    }
+
+    /**
+     * Takes a sample, connecting first if needed.
+     *
+     * @throws IOException while the JVM does not accept connections (yet), or after it went away
+     */
+    public synchronized Sample sample() throws IOException {
+        try {
+            if (connector == null) connect();
+            Sample sample = new Sample();
+            MemoryUsage heap = memory.getHeapMemoryUsage();
+            sample.heapUsed = heap.getUsed();
+            sample.heapCommitted = heap.getCommitted();
+            sample.heapMax = heap.getMax();
+            for (GarbageCollectorMXBean collector : collectors) {
+                sample.gcCount += Math.max(0, collector.getCollectionCount());
+                sample.gcMillis += Math.max(0, collector.getCollectionTime());
+            }
+            Sample previous = samples.isEmpty() ? null : samples.getLast();
+            sample.gcCountDelta = previous != null ? sample.gcCount - previous.gcCount : sample.gcCount;
+            sample.gcMillisDelta = previous != null ? sample.gcMillis - previous.gcMillis : sample.gcMillis;
+            for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), STACK_DEPTH)) {
+                if (info != null) addThread(sample, info);
+            }
+            if (sample.isPoolExhausted()) exhaustedSamples++;
+            samples.add(sample);
+            if (samples.size() > MAX_SAMPLES) samples.removeFirst();
+            return sample;
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            // proxies report a lost connection as UndeclaredThrowableException
+            close();
+            throw new IOException(e.toString());
+        }
+    }
+
+    private void connect() throws IOException {
+        JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi");
+        connector = JMXConnectorFactory.connect(url);
+        MBeanServerConnection connection = connector.getMBeanServerConnection();
+        memory = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.MEMORY_MXBEAN_NAME,
+                                                          MemoryMXBean.class);
+        threads = ManagementFactory.newPlatformMXBeanProxy(connection, ManagementFactory.THREAD_MXBEAN_NAME,
+                                                           ThreadMXBean.class);
+        collectors = new ArrayList<GarbageCollectorMXBean>();
+        ObjectName pattern;
+        try {
+            pattern = new ObjectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        for (ObjectName name : connection.queryNames(pattern, null)) {
+            collectors.add(ManagementFactory.newPlatformMXBeanProxy(connection, name.getCanonicalName(),
+                                                                    GarbageCollectorMXBean.class));
+        }
+    }
+
+    static void addThread(Sample sample, ThreadInfo info) {
+        sample.threads++;
+        switch (info.getThreadState()) {
+            case RUNNABLE:
+                sample.runnable++;
+                break;
+            case BLOCKED:
+                sample.blocked++;
+                break;
+            case WAITING:
+            case TIMED_WAITING:
+                sample.waiting++;
+                break;
+            default:
+        }
+        if (info.getThreadName().startsWith(HANDLER_THREAD)) {
+            String lock = info.getLockName();
+            if (lock != null && lock.startsWith("winstone.RequestHandlerThread@")) {
+                sample.idleHandlers++;
+            } else {
+                sample.busyHandlers++;
+            }
+            return;
+        }
+        for (StackTraceElement element : info.getStackTrace()) {
+            if (POOL_CLASS.equals(element.getClassName()) && "handleRequest".equals(element.getMethodName())) {
+                if (info.getThreadState() == Thread.State.TIMED_WAITING) sample.waitingForHandler++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the samples of the last five minutes, oldest first
+     */
+    public synchronized List<Sample> getSamples() {
+        return new ArrayList<Sample>(samples);
+    }
+
+    public synchronized int getExhaustedSamples() {
+        return exhaustedSamples;
+    }
+
+    /**
+     * @return how often a request waited for a handler, from the output
+     */
+    public synchronized int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return how many connections were closed for want of a handler, from the output
+     */
+    public synchronized int getDroppedRequests() {
+        return droppedRequests;
+    }
+
+    /**
+     * @return why the last sample failed, null if it succeeded
+     */
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized void close() {
+        if (connector == null) return;
+        try {
+            connector.close();
+        } catch (IOException ignored) {
+        }
+        connector = null;
+    }
+}
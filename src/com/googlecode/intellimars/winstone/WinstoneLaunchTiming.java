@@ -0,0 +1,103 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.util.Key;
+import com.intellij.util.messages.MessageBusConnection;
+
+/**
+ * Collects the phase timings of a single Winstone launch and hands them to {@link WinstoneTimingHistory}
+ * once the webapp answered the readiness probe (or the launch failed).
+ * <p/>
+ * All times are milliseconds since the run profile state was created, -1 when the phase was not reached.
+ */
+public class WinstoneLaunchTiming extends ProcessAdapter implements WinstoneListener {
+    public enum Phase {
+        JAVA_PARAMETERS,
+        PROCESS_SPAWN,
+        FIRST_OUTPUT,
+        WEBAPP_DEPLOYED,
+        LISTENER_STARTED,
+        READY
+    }
+
+    private final WinstoneConfiguration config;
+    private final long start = System.nanoTime();
+    private final long[] marks = new long[Phase.values().length];
+    private ProcessHandler processHandler;
+    private MessageBusConnection connection;
+    private String classDataSharing = WinstoneCdsArchive.MODE_OFF;
+    private boolean completed;
+
+
+    public WinstoneLaunchTiming(WinstoneConfiguration _config) {
+        config = _config;
+        for (int i = 0; i < marks.length; i++) marks[i] = -1;
+    }
+
+    public synchronized void mark(Phase phase) {
+        if (marks[phase.ordinal()] < 0)
+            marks[phase.ordinal()] = (System.nanoTime() - start) / 1000000L;
+    }
+
+    public synchronized long get(Phase phase) {
+        return marks[phase.ordinal()];
+    }
+
+    public synchronized void setClassDataSharing(String mode) {
+        classDataSharing = mode;
+    }
+
+    public void attachTo(ProcessHandler _processHandler) {
+        processHandler = _processHandler;
+        processHandler.addProcessListener(this);
+        connection = config.getProject().getMessageBus().connect();
+        connection.subscribe(WinstoneListener.TOPIC, this);
+    }
+
+    public void onTextAvailable(ProcessEvent event, Key outputType) {
+        if (outputType != ProcessOutputTypes.SYSTEM) mark(Phase.FIRST_OUTPUT);
+    }
+
+    public void processTerminated(ProcessEvent event) {
+        complete(true);
+        connection.disconnect();
+    }
+
+    public void winstoneEvent(WinstoneEvent event) {
+        if (event.getProcessHandler() != processHandler) return;
+        switch (event.getType()) {
+            case WEBAPP_DEPLOYED:
+                mark(Phase.WEBAPP_DEPLOYED);
+                break;
+            case HTTP_LISTENER_STARTED:
+                mark(Phase.LISTENER_STARTED);
+                if (!WinstoneReadinessProbe.isApplicable(config)) complete(false);
+                break;
+            case READY:
+                mark(Phase.READY);
+                complete(false);
+                break;
+            case NOT_READY:
+                complete(get(Phase.LISTENER_STARTED) < 0);
+                break;
+            case STARTUP_FAILED:
+                complete(true);
+                break;
+        }
+    }
+
+    private void complete(boolean failed) {
+        WinstoneTimingRecord record;
+        synchronized (this) {
+            if (completed) return;
+            completed = true;
+            record = new WinstoneTimingRecord(config, marks, failed);
+            record.classDataSharing = classDataSharing;
+        }
+        if (!config.getProject().isDisposed())
+            WinstoneTimingHistory.getInstance(config.getProject()).add(record);
+    }
+}
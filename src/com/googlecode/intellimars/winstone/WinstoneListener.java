@@ -0,0 +1,14 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.util.messages.Topic;
+
+import java.util.EventListener;
+
+/**
+ * Subscribe on the project message bus to be notified about launched Winstone processes.
+ */
+public interface WinstoneListener extends EventListener {
+    Topic<WinstoneListener> TOPIC = Topic.create("Winstone events", WinstoneListener.class);
+
+    void winstoneEvent(WinstoneEvent event);
+}
@@ -0,0 +1,159 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.diagnostic.logging.AdditionalTabComponent;
+import com.intellij.openapi.actionSystem.ActionGroup;
+import com.intellij.openapi.application.ApplicationManager;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Run console tab with the samples of a {@link WinstoneJvmMonitor}: the latest one as a summary line and the samples
+ * of the last minutes, newest first, with the rows that saw an exhausted handler pool marked.
+ */
+public class WinstoneMonitorTab extends AdditionalTabComponent implements WinstoneChangeSource.Listener {
+    private static final String[] COLUMNS = {"Time", "Heap used", "Heap committed", "GCs", "GC time", "Threads",
+            "Runnable", "Blocked", "Waiting", "Busy handlers", "Idle handlers", "Waiting for handler"};
+    private static final long MB = 1024 * 1024;
+
+    private final WinstoneJvmMonitor monitor;
+    private final JLabel summary = new JLabel();
+    private final JLabel pool = new JLabel();
+    private final SampleTableModel model = new SampleTableModel();
+    private final JTable table = new JTable(model);
+
+
+    public WinstoneMonitorTab(WinstoneJvmMonitor _monitor) {
+        super(new BorderLayout());
+        monitor = _monitor;
+
+        JPanel north = new JPanel(new GridLayout(2, 1));
+        north.add(summary);
+        north.add(pool);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        monitor.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        monitor.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        List<WinstoneJvmMonitor.Sample> samples = monitor.getSamples();
+        Collections.reverse(samples);
+        model.setSamples(samples);
+        if (samples.isEmpty()) {
+            summary.setText(monitor.getError() != null ? "Connecting to the JVM..." : "Waiting for the first sample");
+        } else {
+            WinstoneJvmMonitor.Sample last = samples.get(0);
+            String text = String.format("Heap %d of %d MB (max %s), %d GCs taking %d ms, %d threads",
+                                        last.heapUsed / MB, last.heapCommitted / MB,
+                                        last.heapMax < 0 ? "n/a" : (last.heapMax / MB) + " MB", last.gcCount,
+                                        last.gcMillis, last.threads);
+            if (monitor.getError() != null) text += " - disconnected: " + monitor.getError();
+            summary.setText(text);
+        }
+        pool.setText(String.format("Handlers: %s; pool exhausted in %d samples, %d waits for a handler, %d requests dropped",
+                                   samples.isEmpty() ? "n/a" : samples.get(0).busyHandlers + " busy, " +
+                                                               samples.get(0).idleHandlers + " idle",
+                                   monitor.getExhaustedSamples(), monitor.getRetries(), monitor.getDroppedRequests()));
+        pool.setForeground(monitor.getDroppedRequests() > 0 ? Color.RED : summary.getForeground());
+    }
+
+    public String getTabTitle() {
+        return "Monitor";
+    }
+
+    public JComponent getPreferredFocusableComponent() {
+        return table;
+    }
+
+    public ActionGroup getToolbarActions() {
+        return null;
+    }
+
+    public JComponent getSearchComponent() {
+        return null;
+    }
+
+    public String getToolbarPlace() {
+        return null;
+    }
+
+    public JComponent getToolbarContextComponent() {
+        return null;
+    }
+
+    public boolean isContentBuiltIn() {
+        return false;
+    }
+
+    private static class SampleTableModel extends AbstractTableModel {
+        private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        private List<WinstoneJvmMonitor.Sample> samples = new ArrayList<WinstoneJvmMonitor.Sample>();
+
+        void setSamples(List<WinstoneJvmMonitor.Sample> _samples) {
+            samples = _samples;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return samples.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneJvmMonitor.Sample sample = samples.get(row);
+            switch (column) {
+                case 0:
+                    return timeFormat.format(new Date(sample.time));
+                case 1:
+                    return (sample.heapUsed / MB) + " MB";
+                case 2:
+                    return (sample.heapCommitted / MB) + " MB";
+                case 3:
+                    return sample.gcCountDelta;
+                case 4:
+                    return sample.gcMillisDelta + " ms";
+                case 5:
+                    return sample.threads;
+                case 6:
+                    return sample.runnable;
+                case 7:
+                    return sample.blocked;
+                case 8:
+                    return sample.waiting;
+                case 9:
+                    return sample.busyHandlers;
+                case 10:
+                    return sample.idleHandlers;
+                default:
+                    return sample.isPoolExhausted() ? sample.waitingForHandler + " (exhausted)" : "0";
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.diagnostic.logging.AdditionalTabComponent;
+import com.intellij.openapi.actionSystem.ActionGroup;
+import com.intellij.openapi.util.Disposer;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Run console tab with the output of a {@link WinstoneCluster} node other than the first.
+ */
+public class WinstoneNodeConsoleTab extends AdditionalTabComponent {
+    private final WinstoneCluster.Node node;
+
+
+    public WinstoneNodeConsoleTab(WinstoneCluster.Node _node) {
+        super(new BorderLayout());
+        node = _node;
+        add(_node.getConsole().getComponent(), BorderLayout.CENTER);
+    }
+
+    public void dispose() {
+        Disposer.dispose(node.getConsole());
+    }
+
+    public String getTabTitle() {
+        return node.getName() + " :" + node.httpPort;
+    }
+
+    public JComponent getPreferredFocusableComponent() {
+        return node.getConsole().getPreferredFocusableComponent();
+    }
+
+    public ActionGroup getToolbarActions() {
+        return null;
+    }
+
+    public JComponent getSearchComponent() {
+        return null;
+    }
+
+    public String getToolbarPlace() {
+        return null;
+    }
+
+    public JComponent getToolbarContextComponent() {
+        return null;
+    }
+
+    public boolean isContentBuiltIn() {
+        return false;
+    }
+}
@@ -0,0 +1,369 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the complete output of a launch for searching, without keeping the text on the heap: lines are appended to
+ * segments of {@link #SEGMENT_SIZE} bytes, the latest {@link #MEMORY_SEGMENTS} segments stay in memory and older ones
+ * are written to a file each and memory-mapped. Beyond {@link #MAX_SEGMENTS} segments the oldest are dropped.
+ * <p/>
+ * Per line, an index of a few bytes holds its length, level, thread and the second it arrived, so a search only
+ * looks at the text of the lines that pass the other criteria. As the lines arrive in time order, segments outside
+ * the searched time range are skipped as a whole.
+ */
+public class WinstoneOutputCapture {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    public static final Key<WinstoneOutputCapture> KEY = Key.create("WinstoneOutputCapture");
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int MEMORY_SEGMENTS = 8;
+    private static final int MAX_SEGMENTS = 512;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_LINE = 32 * 1024;
+    private static final int MAX_THREADS = Short.MAX_VALUE;
+    private static final String UTF8 = "UTF-8";
+
+    public enum Level {
+        SYSTEM, INFO, WARNING, ERROR
+    }
+
+    public static class Query {
+        public String text = "";
+        public Level minLevel = Level.SYSTEM;
+        /**
+         * null for any thread
+         */
+        public String thread;
+        /**
+         * milliseconds since the epoch, 0 for no limit
+         */
+        public long from;
+        public long to;
+        public int maxResults = 1000;
+    }
+
+    public static class Line {
+        public final int number;
+        public final long time;
+        public final Level level;
+        public final String thread;
+        public final String text;
+
+        Line(int _number, long _time, Level _level, String _thread, String _text) {
+            number = _number;
+            time = _time;
+            level = _level;
+            thread = _thread;
+            text = _text;
+        }
+    }
+
+    private static class Segment {
+        final int firstLine;
+        volatile byte[] bytes = new byte[SEGMENT_SIZE];
+        volatile ByteBuffer mapped;
+        File file;
+        int used;
+        int lines;
+
+        Segment(int _firstLine) {
+            firstLine = _firstLine;
+        }
+
+        ByteBuffer getData() {
+            // mapped is set before bytes is cleared
+            byte[] b = bytes;
+            return b != null ? ByteBuffer.wrap(b) : mapped.duplicate();
+        }
+    }
+
+    private static class Chunk {
+        final char[] lengths = new char[CHUNK_SIZE];
+        final int[] seconds = new int[CHUNK_SIZE];
+        final byte[] levels = new byte[CHUNK_SIZE];
+        final short[] threads = new short[CHUNK_SIZE];
+    }
+
+    private final File directory;
+    private final long startSecond = System.currentTimeMillis() / 1000;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private int chunkBase;
+    private int lineCount;
+    private int firstLine;
+    private long totalBytes;
+    private final List<String> threadNames = new ArrayList<String>(Collections.singletonList(""));
+    private final Map<String, Short> threadIds = new HashMap<String, Short>();
+    private volatile Level consoleLevel = Level.SYSTEM;
+
+
+    public WinstoneOutputCapture(File _directory) {
+        directory = _directory;
+    }
+
+    public static File getDirectory(WinstoneConfiguration config) {
+        String key = config.getProject().getName() + "/" + config.getName();
+        return new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "capture"),
+                        WinstoneDigest.sha1(key).substring(0, 12));
+    }
+
+    /**
+     * Empties the directory of the configuration; called before the launch.
+     */
+    public static void prepare(WinstoneConfiguration config) {
+        File dir = getDirectory(config);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) FileUtil.delete(file);
+        }
+        dir.mkdirs();
+    }
+
+    /**
+     * @return the lowest level the console shows, the capture keeps every line anyway
+     */
+    public Level getConsoleLevel() {
+        return consoleLevel;
+    }
+
+    public void setConsoleLevel(Level level) {
+        consoleLevel = level;
+    }
+
+    public synchronized void append(String line, Level level, String thread) {
+        byte[] bytes;
+        try {
+            bytes = line.getBytes(UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        int length = Math.min(bytes.length, MAX_LINE);
+        Segment current = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (current == null || current.used + length > SEGMENT_SIZE) current = addSegment();
+        System.arraycopy(bytes, 0, current.bytes, current.used, length);
+        current.used += length;
+        current.lines++;
+
+        int offset = lineCount - chunkBase;
+        if (offset / CHUNK_SIZE == chunks.size()) chunks.add(new Chunk());
+        Chunk chunk = chunks.get(offset / CHUNK_SIZE);
+        int i = offset % CHUNK_SIZE;
+        chunk.lengths[i] = (char) length;
+        chunk.seconds[i] = (int) (System.currentTimeMillis() / 1000 - startSecond);
+        chunk.levels[i] = (byte) level.ordinal();
+        chunk.threads[i] = getThreadId(thread);
+        lineCount++;
+        totalBytes += length;
+    }
+
+    private short getThreadId(String thread) {
+        if (thread == null) return 0;
+        Short id = threadIds.get(thread);
+        if (id != null) return id;
+        if (threadNames.size() >= MAX_THREADS) return 0;
+        id = (short) threadNames.size();
+        threadNames.add(thread);
+        threadIds.put(thread, id);
+        return id;
+    }
+
+    private Segment addSegment() {
+        Segment segment = new Segment(lineCount);
+        segments.add(segment);
+        int spill = segments.size() - 1 - MEMORY_SEGMENTS;
+        if (spill >= 0 && segments.get(spill).bytes != null) spill(segments.get(spill));
+        while (segments.size() > MAX_SEGMENTS) dropOldest();
+        return segment;
+    }
+
+    private void spill(Segment segment) {
+        File file = new File(directory, "segment-" + segment.firstLine + ".bin");
+        try {
+            RandomAccessFile out = new RandomAccessFile(file, "rw");
+            try {
+                FileChannel channel = out.getChannel();
+                channel.write(ByteBuffer.wrap(segment.bytes, 0, segment.used));
+                // the mapping stays valid after the file is closed
+                segment.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, segment.used);
+            } finally {
+                out.close();
+            }
+            segment.file = file;
+            segment.bytes = null;
+        } catch (IOException e) {
+            LOGGER.info("WinstoneOutputCapture: could not spill to " + file + ", dropping the older output", e);
+            FileUtil.delete(file);
+            while (segments.get(0) != segment) dropOldest();
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        Segment segment = segments.remove(0);
+        release(segment);
+        firstLine = segments.isEmpty() ? lineCount : segments.get(0).firstLine;
+        while (!chunks.isEmpty() && chunkBase + CHUNK_SIZE <= firstLine) {
+            chunks.remove(0);
+            chunkBase += CHUNK_SIZE;
+        }
+    }
+
+    private static void release(Segment segment) {
+        // the memory and the mapping go with the segment, once no search uses it any more; on Linux the file can go
+        // right away
+        if (segment.file != null && !segment.file.delete()) segment.file.deleteOnExit();
+    }
+
+    /**
+     * @return the matching lines in order, the latest {@link Query#maxResults} of them
+     */
+    public List<Line> search(Query query) {
+        List<Segment> snapshot;
+        int[] lines;
+        List<Chunk> chunkSnapshot;
+        int base;
+        List<String> threads;
+        synchronized (this) {
+            snapshot = new ArrayList<Segment>(segments);
+            lines = new int[snapshot.size()];
+            for (int i = 0; i < lines.length; i++) lines[i] = snapshot.get(i).lines;
+            chunkSnapshot = new ArrayList<Chunk>(chunks);
+            base = chunkBase;
+            threads = new ArrayList<String>(threadNames);
+        }
+        int thread = query.thread == null ? -1 : threads.indexOf(query.thread);
+        if (query.thread != null && thread < 0) return new ArrayList<Line>();
+        int from = query.from > 0 ? (int) (query.from / 1000 - startSecond) : Integer.MIN_VALUE;
+        int to = query.to > 0 ? (int) (query.to / 1000 - startSecond) : Integer.MAX_VALUE;
+        byte[] pattern = toLowerAscii(query.text);
+
+        List<Line> result = new ArrayList<Line>();
+        for (int s = snapshot.size() - 1; s >= 0 && result.size() < query.maxResults; s--) {
+            Segment segment = snapshot.get(s);
+            int count = lines[s];
+            if (count == 0) continue;
+            if (seconds(chunkSnapshot, base, segment.firstLine) > to) continue;
+            if (seconds(chunkSnapshot, base, segment.firstLine + count - 1) < from) break;
+            int[] positions = new int[count + 1];
+            for (int i = 0; i < count; i++) positions[i + 1] = positions[i] + length(chunkSnapshot, base, segment.firstLine + i);
+            ByteBuffer data = segment.getData();
+            for (int i = count - 1; i >= 0 && result.size() < query.maxResults; i--) {
+                int line = segment.firstLine + i;
+                Chunk chunk = chunkSnapshot.get((line - base) / CHUNK_SIZE);
+                int c = (line - base) % CHUNK_SIZE;
+                if (chunk.levels[c] < query.minLevel.ordinal()) continue;
+                if (thread >= 0 && chunk.threads[c] != thread) continue;
+                if (chunk.seconds[c] < from || chunk.seconds[c] > to) continue;
+                if (pattern.length > 0 && !contains(data, positions[i], positions[i + 1], pattern)) continue;
+                result.add(new Line(line + 1, (startSecond + chunk.seconds[c]) * 1000, Level.values()[chunk.levels[c]],
+                                    threads.get(chunk.threads[c]), decode(data, positions[i], positions[i + 1])));
+            }
+        }
+        Collections.reverse(result);
+        return result;
+    }
+
+    private static int seconds(List<Chunk> chunks, int base, int line) {
+        return chunks.get((line - base) / CHUNK_SIZE).seconds[(line - base) % CHUNK_SIZE];
+    }
+
+    private static int length(List<Chunk> chunks, int base, int line) {
+        return chunks.get((line - base) / CHUNK_SIZE).lengths[(line - base) % CHUNK_SIZE];
+    }
+
+    private static byte[] toLowerAscii(String text) {
+        try {
+            byte[] bytes = text.getBytes(UTF8);
+            for (int i = 0; i < bytes.length; i++) bytes[i] = lower(bytes[i]);
+            return bytes;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte lower(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean contains(ByteBuffer data, int start, int end, byte[] pattern) {
+        int last = end - pattern.length;
+        for (int i = start; i <= last; i++) {
+            int j = 0;
+            while (j < pattern.length && lower(data.get(i + j)) == pattern[j]) j++;
+            if (j == pattern.length) return true;
+        }
+        return false;
+    }
+
+    private static String decode(ByteBuffer data, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = data.get(start + i);
+        try {
+            return new String(bytes, UTF8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the thread names seen so far, in order of appearance
+     */
+    public synchronized List<String> getThreads() {
+        return new ArrayList<String>(threadNames.subList(1, threadNames.size()));
+    }
+
+    public synchronized int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return the lines that were dropped to stay within {@link #MAX_SEGMENTS}
+     */
+    public synchronized int getDroppedLines() {
+        return firstLine;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getMemoryBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            if (segment.bytes != null) bytes += SEGMENT_SIZE;
+        }
+        return bytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            if (segment.file != null) bytes += segment.used;
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases the memory and deletes the spilled segments.
+     */
+    public synchronized void close() {
+        for (Segment segment : segments) release(segment);
+        segments.clear();
+        chunks.clear();
+        firstLine = lineCount;
+        chunkBase = lineCount - lineCount % CHUNK_SIZE;
+    }
+}
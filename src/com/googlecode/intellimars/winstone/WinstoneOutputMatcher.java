@@ -0,0 +1,84 @@
+package com.googlecode.intellimars.winstone;
+
+/**
+ * Streaming multi-marker matcher for the Winstone console output.
+ * <p/>
+ * Each marker keeps its own KMP state, so a marker split over two process chunks is still found.
+ * Once a marker is matched, the rest of the line (e.g. the port number) is captured and handed to the
+ * {@link Callback}. Besides that capture no objects are allocated while scanning.
+ */
+public class WinstoneOutputMatcher {
+    private static final int MAX_CAPTURE = 256;
+
+    public interface Callback {
+        void matched(int markerIndex, String rest);
+    }
+
+    private final char[][] markers;
+    private final int[][] failures;
+    private final int[] states;
+    private final StringBuilder capture = new StringBuilder();
+    private int capturing = -1;
+
+
+    public WinstoneOutputMatcher(String... _markers) {
+        markers = new char[_markers.length][];
+        failures = new int[_markers.length][];
+        states = new int[_markers.length];
+        for (int i = 0; i < _markers.length; i++) {
+            markers[i] = _markers[i].toCharArray();
+            failures[i] = buildFailureTable(markers[i]);
+        }
+    }
+
+    public void feed(CharSequence text, Callback callback) {
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            if (capturing >= 0) {
+                if (c == '\n' || c == '\r') {
+                    endCapture(callback);
+                } else if (capture.length() < MAX_CAPTURE) {
+                    capture.append(c);
+                }
+                continue;
+            }
+            for (int m = 0; m < markers.length; m++) {
+                char[] marker = markers[m];
+                int state = states[m];
+                while (state > 0 && marker[state] != c) state = failures[m][state - 1];
+                if (marker[state] == c) state++;
+                if (state == marker.length) {
+                    capturing = m;
+                    capture.setLength(0);
+                    break;
+                }
+                states[m] = state;
+            }
+        }
+    }
+
+    /**
+     * Flushes a pending capture when the process ends without a trailing line separator.
+     */
+    public void flush(Callback callback) {
+        if (capturing >= 0) endCapture(callback);
+    }
+
+    private void endCapture(Callback callback) {
+        int matched = capturing;
+        capturing = -1;
+        for (int m = 0; m < states.length; m++) states[m] = 0;
+        callback.matched(matched, capture.toString().trim());
+    }
+
+    private static int[] buildFailureTable(char[] marker) {
+        int[] table = new int[marker.length];
+        int k = 0;
+        for (int i = 1; i < marker.length; i++) {
+            while (k > 0 && marker[k] != marker[i]) k = table[k - 1];
+            if (marker[k] == marker[i]) k++;
+            table[i] = k;
+        }
+        return table;
+    }
+}
@@ -0,0 +1,73 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+
+/**
+ * Scans the Winstone output for well known log messages and publishes them as {@link WinstoneEvent}s.
+ */
+public class WinstoneOutputWatcher extends ProcessAdapter implements WinstoneOutputMatcher.Callback {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+
+    // Winstone 0.9.10 LocalStrings.properties
+    private static final String[] MARKERS = {
+            "HTTP Listener started: port=",
+            "AJP13 Listener started: port=",
+            "webapps: prefixes - ",
+            "running: controlPort=",
+            "Container startup failed",
+            "Error during listener startup",
+            "Error during context startup for webapp ",
+            "Error initializing web application: prefix ",
+    };
+    private static final WinstoneEvent.Type[] TYPES = {
+            WinstoneEvent.Type.HTTP_LISTENER_STARTED,
+            WinstoneEvent.Type.AJP13_LISTENER_STARTED,
+            WinstoneEvent.Type.WEBAPP_DEPLOYED,
+            WinstoneEvent.Type.SERVER_STARTED,
+            WinstoneEvent.Type.STARTUP_FAILED,
+            WinstoneEvent.Type.STARTUP_FAILED,
+            WinstoneEvent.Type.STARTUP_FAILED,
+            WinstoneEvent.Type.STARTUP_FAILED,
+    };
+
+    private final WinstoneConfiguration config;
+    private final ProcessHandler processHandler;
+    // stdout and stderr arrive interleaved, so each stream keeps its own matching state
+    private final WinstoneOutputMatcher stdout = new WinstoneOutputMatcher(MARKERS);
+    private final WinstoneOutputMatcher stderr = new WinstoneOutputMatcher(MARKERS);
+
+
+    public WinstoneOutputWatcher(WinstoneConfiguration _config, ProcessHandler _processHandler) {
+        config = _config;
+        processHandler = _processHandler;
+    }
+
+    public void onTextAvailable(ProcessEvent event, Key outputType) {
+        if (outputType == ProcessOutputTypes.SYSTEM) return;
+        WinstoneOutputMatcher matcher = outputType == ProcessOutputTypes.STDERR ? stderr : stdout;
+        synchronized (matcher) {
+            matcher.feed(event.getText(), this);
+        }
+    }
+
+    public void processTerminated(ProcessEvent event) {
+        synchronized (stdout) {
+            stdout.flush(this);
+        }
+        synchronized (stderr) {
+            stderr.flush(this);
+        }
+    }
+
+    public void matched(int markerIndex, String rest) {
+        WinstoneEvent event = new WinstoneEvent(TYPES[markerIndex], config, processHandler, rest);
+        LOGGER.info("WinstoneOutputWatcher: " + event);
+        if (config.getProject().isDisposed()) return;
+        config.getProject().getMessageBus().syncPublisher(WinstoneListener.TOPIC).winstoneEvent(event);
+    }
+}
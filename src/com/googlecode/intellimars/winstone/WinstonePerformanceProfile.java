@@ -0,0 +1,132 @@
+package com.googlecode.intellimars.winstone;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Named sets of heap, GC, JIT and metaspace options, chosen per run configuration instead of copying flags into the
+ * VM parameters. The options depend on the feature version of the JDK (tiered compilation from 7, metaspace from 8,
+ * ZGC from 15); an option the VM parameters already set, or a collector when the VM parameters select one, is left
+ * to the VM parameters.
+ */
+public enum WinstonePerformanceProfile {
+    NONE("None (VM parameters only)"),
+    FAST_STARTUP("Fast startup"),
+    LOW_LATENCY("Low latency"),
+    THROUGHPUT("Throughput"),
+    SMALL_FOOTPRINT("Small footprint");
+
+    private final String displayName;
+
+
+    WinstonePerformanceProfile(String _displayName) {
+        displayName = _displayName;
+    }
+
+    /**
+     * @param name as stored in {@link WinstoneConfiguration#PERFORMANCE_PROFILE}, empty for {@link #NONE}
+     */
+    public static WinstonePerformanceProfile get(String name) {
+        for (WinstonePerformanceProfile profile : values()) {
+            if (profile.name().equals(name)) return profile;
+        }
+        return NONE;
+    }
+
+    public String getStoredName() {
+        return this == NONE ? "" : name();
+    }
+
+    public String toString() {
+        return displayName;
+    }
+
+    /**
+     * @param jdkVersion feature version, 0 if unknown (taken as 8)
+     */
+    public List<String> getVmOptions(int jdkVersion) {
+        int v = jdkVersion > 0 ? jdkVersion : 8;
+        List<String> options = new ArrayList<String>();
+        switch (this) {
+            case FAST_STARTUP:
+                options.add(v >= 7 ? "-XX:TieredStopAtLevel=1" : "-client");
+                options.add("-XX:+UseSerialGC");
+                options.add("-Xshare:auto");
+                if (v < 13) options.add("-Xverify:none");
+                break;
+            case LOW_LATENCY:
+                if (v >= 15) {
+                    options.add("-XX:+UseZGC");
+                } else if (v >= 7) {
+                    options.add("-XX:+UseG1GC");
+                    options.add("-XX:MaxGCPauseMillis=20");
+                } else {
+                    options.add("-XX:+UseConcMarkSweepGC");
+                }
+                options.add("-Xms512m");
+                options.add("-Xmx512m");
+                options.add("-XX:+AlwaysPreTouch");
+                options.add(v >= 8 ? "-XX:MetaspaceSize=128m" : "-XX:PermSize=128m");
+                break;
+            case THROUGHPUT:
+                options.add("-XX:+UseParallelGC");
+                options.add("-Xms1g");
+                options.add("-Xmx1g");
+                if (v == 7) options.add("-XX:+TieredCompilation");
+                options.add("-XX:ReservedCodeCacheSize=256m");
+                options.add(v >= 8 ? "-XX:MetaspaceSize=256m" : "-XX:PermSize=256m");
+                break;
+            case SMALL_FOOTPRINT:
+                options.add("-XX:+UseSerialGC");
+                options.add("-Xms16m");
+                options.add("-Xmx128m");
+                options.add("-Xss256k");
+                options.add("-XX:MinHeapFreeRatio=10");
+                options.add("-XX:MaxHeapFreeRatio=20");
+                options.add(v >= 7 ? "-XX:TieredStopAtLevel=1" : "-client");
+                options.add("-XX:ReservedCodeCacheSize=32m");
+                options.add(v >= 8 ? "-XX:MaxMetaspaceSize=128m" : "-XX:MaxPermSize=128m");
+                break;
+            default:
+        }
+        return options;
+    }
+
+    /**
+     * @param vmParameters the options given by the user
+     * @return the options of the profile that the user did not set already
+     */
+    public List<String> getVmOptions(int jdkVersion, List<String> vmParameters) {
+        Set<String> given = new HashSet<String>();
+        for (String parameter : vmParameters) given.add(getOptionKey(parameter));
+        List<String> result = new ArrayList<String>();
+        for (String option : getVmOptions(jdkVersion)) {
+            if (!given.contains(getOptionKey(option))) result.add(option);
+        }
+        return result;
+    }
+
+    /**
+     * @return what the option sets: "-Xss" for "-Xss256k", "heap" for -Xms and -Xmx (a profile's initial heap may
+     *         not exceed the user's maximum), "MetaspaceSize" for "-XX:MaxMetaspaceSize=128m", "GC" for any
+     *         "-XX:+Use...GC"
+     */
+    static String getOptionKey(String option) {
+        if (option.startsWith("-Xms") || option.startsWith("-Xmx")) return "heap";
+        if (option.startsWith("-Xss") || option.startsWith("-Xmn")) return option.substring(0, 4);
+        if (option.startsWith("-Xshare:")) return "-Xshare:";
+        if (option.startsWith("-Xverify:")) return "-Xverify:";
+        if (option.equals("-client") || option.equals("-server")) return "-server";
+        if (!option.startsWith("-XX:")) return option;
+        String name = option.substring(4);
+        if (name.startsWith("+") || name.startsWith("-")) name = name.substring(1);
+        int eq = name.indexOf('=');
+        if (eq >= 0) name = name.substring(0, eq);
+        if (name.startsWith("Use") && name.endsWith("GC")) return "GC";
+        if (name.endsWith("MetaspaceSize")) return "MetaspaceSize";
+        if (name.endsWith("PermSize")) return "PermSize";
+        return name;
+    }
+}
@@ -0,0 +1,56 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.Executor;
+import com.intellij.openapi.util.IconLoader;
+import com.intellij.openapi.wm.ToolWindowId;
+
+import javax.swing.*;
+
+/**
+ * "Profile Startup" next to Run and Debug: launches a Winstone configuration with Java Flight Recorder and reports
+ * the hot spots of the startup, see {@link WinstoneStartupProfiler}.
+ */
+public class WinstoneProfileExecutor extends Executor {
+    public static final String EXECUTOR_ID = "WinstoneProfileStartup";
+    private static final Icon ICON = IconLoader.getIcon("/com/googlecode/intellimars/winstone/small-icon.gif");
+
+    public String getToolWindowId() {
+        return ToolWindowId.RUN;
+    }
+
+    public Icon getToolWindowIcon() {
+        return ICON;
+    }
+
+    public Icon getIcon() {
+        return ICON;
+    }
+
+    public Icon getDisabledIcon() {
+        return IconLoader.getDisabledIcon(ICON);
+    }
+
+    public String getDescription() {
+        return "Run the selected Winstone configuration and profile its startup";
+    }
+
+    public String getActionName() {
+        return "Profile Startup";
+    }
+
+    public String getId() {
+        return EXECUTOR_ID;
+    }
+
+    public String getContextActionId() {
+        return "WinstoneProfileStartupContext";
+    }
+
+    public String getStartActionText() {
+        return "Profile Startup";
+    }
+
+    public String getHelpId() {
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows one {@link WinstoneProfileReport}: the hot spots of a category, either per responsible frame or summed up
+ * per package.
+ */
+public class WinstoneProfilePanel extends JPanel implements Disposable, WinstoneChangeSource.Listener {
+    private static final String[] COLUMNS = {"Group", "Package", "Where", "Value", "Share", "Detail"};
+
+    private final WinstoneProfileResults results;
+    private final JComboBox reports = new JComboBox();
+    private final JComboBox categories = new JComboBox(WinstoneProfileReport.Category.values());
+    private final JCheckBox byPackage = new JCheckBox("By package");
+    private final JLabel summary = new JLabel();
+    private final ProfileTableModel model = new ProfileTableModel();
+
+
+    public WinstoneProfilePanel(Project project) {
+        super(new BorderLayout());
+        results = WinstoneProfileResults.getInstance(project);
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(new JLabel("Profile"));
+        north.add(reports);
+        north.add(categories);
+        north.add(byPackage);
+        north.add(summary);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+
+        ActionListener refreshTable = new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshTable();
+            }
+        };
+        reports.addActionListener(refreshTable);
+        categories.addActionListener(refreshTable);
+        byPackage.addActionListener(refreshTable);
+        results.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        results.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        reports.removeAllItems();
+        List<WinstoneProfileReport> all = results.getReports();
+        for (int i = all.size() - 1; i >= 0; i--) reports.addItem(new ReportItem(all.get(i)));
+        refreshTable();
+    }
+
+    private void refreshTable() {
+        ReportItem item = (ReportItem) reports.getSelectedItem();
+        WinstoneProfileReport.Category category = (WinstoneProfileReport.Category) categories.getSelectedItem();
+        if (item == null || category == null) {
+            model.setEntries(new ArrayList<WinstoneProfileReport.Entry>(), 0);
+            summary.setText("");
+            return;
+        }
+        WinstoneProfileReport report = item.report;
+        boolean packages = byPackage.isSelected() || category == WinstoneProfileReport.Category.CLASS_LOADING;
+        model.setEntries(packages ? report.getPackages(category) : report.getEntries(category), report.getTotal(category));
+        summary.setText(report.getTotal(category) + " " + category.getUnit() + "  " + report.describeGroups(category));
+    }
+
+    private static class ReportItem {
+        private final WinstoneProfileReport report;
+
+        ReportItem(WinstoneProfileReport _report) {
+            report = _report;
+        }
+
+        public String toString() {
+            String text = report.getConfiguration() + " " + DateFormat.getTimeInstance().format(new Date(report.getTimestamp()));
+            return report.getWindowMillis() >= 0 ? text + " (" + report.getWindowMillis() + " ms)" : text;
+        }
+    }
+
+    private static class ProfileTableModel extends AbstractTableModel {
+        private List<WinstoneProfileReport.Entry> entries = new ArrayList<WinstoneProfileReport.Entry>();
+        private long total;
+
+        void setEntries(List<WinstoneProfileReport.Entry> _entries, long _total) {
+            entries = _entries;
+            total = _total;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneProfileReport.Entry entry = entries.get(row);
+            switch (column) {
+                case 0:
+                    return entry.group;
+                case 1:
+                    return entry.packageName;
+                case 2:
+                    return entry.location;
+                case 3:
+                    return entry.value;
+                case 4:
+                    return total == 0 ? "" : String.format("%.1f%%", entry.value * 100.0 / total);
+                default:
+                    return entry.detail;
+            }
+        }
+    }
+}
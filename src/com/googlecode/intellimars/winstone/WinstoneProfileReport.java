@@ -0,0 +1,254 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneJfrSummary;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hot spots of one profiled Winstone startup, built from the output of {@link WinstoneJfrSummary} and the class
+ * loading log. Every entry is attributed to the code responsible for it (the top-most frame outside of the JDK)
+ * and grouped by Winstone, webapp and JDK packages.
+ */
+public class WinstoneProfileReport {
+    public static final String GROUP_WINSTONE = "Winstone";
+    public static final String GROUP_WEBAPP = "Webapp";
+    public static final String GROUP_JDK = "JDK";
+
+    public enum Category {
+        CPU("CPU samples", "samples"),
+        ALLOCATION("Allocations", "bytes"),
+        CLASS_LOADING("Class loading", "classes"),
+        LOCK_CONTENTION("Lock contention", "ms blocked");
+
+        private final String displayName;
+        private final String unit;
+
+        Category(String _displayName, String _unit) {
+            displayName = _displayName;
+            unit = _unit;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        public String toString() {
+            return displayName;
+        }
+    }
+
+    public static class Entry {
+        public final Category category;
+        public final String group;
+        public final String packageName;
+        public final String location;
+        public final String detail;
+        public long value;
+
+        /**
+         * @param _location the responsible frame, "package.Class.method"
+         */
+        Entry(Category _category, String _location, String _detail, long _value) {
+            category = _category;
+            location = _location;
+            detail = _detail;
+            value = _value;
+            String className = classOf(_location);
+            group = groupOf(className);
+            packageName = packageOf(className);
+        }
+
+        Entry(Category _category, String _group, String _packageName) {
+            category = _category;
+            group = _group;
+            packageName = _packageName;
+            location = _packageName;
+            detail = "";
+        }
+    }
+
+    private final String configuration;
+    private final long timestamp = System.currentTimeMillis();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private long windowMillis = -1;
+
+
+    public WinstoneProfileReport(String _configuration) {
+        configuration = _configuration;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getWindowMillis() {
+        return windowMillis;
+    }
+
+    public void setWindowMillis(long _windowMillis) {
+        windowMillis = _windowMillis;
+    }
+
+    /**
+     * @param line a line printed by {@link WinstoneJfrSummary}
+     */
+    public void addSummaryLine(String line) {
+        String[] fields = line.split("\t");
+        try {
+            if (fields[0].equals("CPU") && fields.length >= 4) {
+                entries.add(new Entry(Category.CPU, fields[2], fields[1], Long.parseLong(fields[3])));
+            } else if (fields[0].equals("ALLOC") && fields.length >= 4) {
+                entries.add(new Entry(Category.ALLOCATION, fields[2], fields[1], Long.parseLong(fields[3])));
+            } else if (fields[0].equals("LOCK") && fields.length >= 5) {
+                entries.add(new Entry(Category.LOCK_CONTENTION, fields[2], fields[1],
+                                      Long.parseLong(fields[4]) / 1000000L));
+            }
+        } catch (NumberFormatException ignored) {
+        }
+    }
+
+    /**
+     * @param classNames the classes loaded during the startup, in the order of the log
+     */
+    public void addLoadedClasses(List<String> classNames) {
+        Map<String, Entry> byPackage = new LinkedHashMap<String, Entry>();
+        for (String className : classNames) {
+            String packageName = packageOf(className);
+            Entry entry = byPackage.get(packageName);
+            if (entry == null) {
+                entry = new Entry(Category.CLASS_LOADING, groupOf(className), packageName);
+                byPackage.put(packageName, entry);
+            }
+            entry.value++;
+        }
+        entries.addAll(byPackage.values());
+    }
+
+    /**
+     * @param line a line of <code>-Xlog:class+load</code>, e.g. "[0.013s][info][class,load] java.lang.Object source: jrt:/java.base"
+     * @return the loaded class, null for other lines
+     */
+    static String parseClassLoadLine(String line) {
+        if (!line.contains("[class,load]")) return null;
+        int start = line.lastIndexOf("] ");
+        if (start < 0) return null;
+        int end = line.indexOf(' ', start + 2);
+        return end < 0 ? line.substring(start + 2).trim() : line.substring(start + 2, end);
+    }
+
+    public long getTotal(Category category) {
+        long total = 0;
+        for (Entry entry : entries) {
+            if (entry.category == category) total += entry.value;
+        }
+        return total;
+    }
+
+    /**
+     * @return the entries of the category, largest first
+     */
+    public List<Entry> getEntries(Category category) {
+        List<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries) {
+            if (entry.category == category) result.add(entry);
+        }
+        sort(result);
+        return result;
+    }
+
+    /**
+     * @return the entries of the category summed up per group and package, largest first
+     */
+    public List<Entry> getPackages(Category category) {
+        Map<String, Entry> packages = new LinkedHashMap<String, Entry>();
+        for (Entry entry : entries) {
+            if (entry.category != category) continue;
+            String key = entry.group + " " + entry.packageName;
+            Entry sum = packages.get(key);
+            if (sum == null) {
+                sum = new Entry(category, entry.group, entry.packageName);
+                packages.put(key, sum);
+            }
+            sum.value += entry.value;
+        }
+        List<Entry> result = new ArrayList<Entry>(packages.values());
+        sort(result);
+        return result;
+    }
+
+    /**
+     * @return the share of each group in the category, e.g. "Winstone 40%, Webapp 35%, JDK 25%"
+     */
+    public String describeGroups(Category category) {
+        long total = getTotal(category);
+        if (total == 0) return "";
+        StringBuilder sb = new StringBuilder();
+        for (String group : new String[]{GROUP_WINSTONE, GROUP_WEBAPP, GROUP_JDK}) {
+            long sum = 0;
+            for (Entry entry : entries) {
+                if (entry.category == category && entry.group.equals(group)) sum += entry.value;
+            }
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(group).append(' ').append(sum * 100 / total).append('%');
+        }
+        return sb.toString();
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Startup profile of ").append(configuration);
+        if (windowMillis >= 0) sb.append(" (first ").append(windowMillis).append(" ms)");
+        sb.append('\n');
+        for (Category category : Category.values()) {
+            long total = getTotal(category);
+            sb.append(category).append(": ").append(total).append(' ').append(category.getUnit());
+            if (total > 0) sb.append(" - ").append(describeGroups(category));
+            sb.append('\n');
+            List<Entry> top = category == Category.CLASS_LOADING ? getPackages(category) : getEntries(category);
+            for (int i = 0; i < Math.min(5, top.size()); i++) {
+                Entry entry = top.get(i);
+                sb.append("  ").append(entry.value).append("  [").append(entry.group).append("] ").append(entry.location);
+                if (entry.detail.length() > 0 && !entry.detail.equals(entry.location))
+                    sb.append("  (").append(entry.detail).append(')');
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sort(List<Entry> entries) {
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry o1, Entry o2) {
+                return o1.value > o2.value ? -1 : o1.value < o2.value ? 1 : 0;
+            }
+        });
+    }
+
+    static String groupOf(String className) {
+        if (className.startsWith("winstone.")) return GROUP_WINSTONE;
+        if (className.length() == 0 || WinstoneJfrSummary.isJdk(className)) return GROUP_JDK;
+        return GROUP_WEBAPP;
+    }
+
+    /**
+     * @param frame "package.Class.method"
+     */
+    static String classOf(String frame) {
+        int dot = frame.lastIndexOf('.');
+        return dot < 0 ? frame : frame.substring(0, dot);
+    }
+
+    static String packageOf(String className) {
+        int dot = className.lastIndexOf('.');
+        return dot < 0 ? "(default)" : className.substring(0, dot);
+    }
+}
@@ -0,0 +1,36 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The startup profiles of this session; the recordings themselves stay on disk.
+ */
+public class WinstoneProfileResults extends WinstoneChangeSource {
+    private static final int MAX_REPORTS = 10;
+
+    private final List<WinstoneProfileReport> reports = new ArrayList<WinstoneProfileReport>();
+
+
+    public static WinstoneProfileResults getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneProfileResults.class);
+    }
+
+    public void add(WinstoneProfileReport report) {
+        synchronized (this) {
+            reports.add(report);
+            if (reports.size() > MAX_REPORTS) reports.remove(0);
+        }
+        fireChanged();
+    }
+
+    /**
+     * @return the reports, oldest first
+     */
+    public synchronized List<WinstoneProfileReport> getReports() {
+        return new ArrayList<WinstoneProfileReport>(reports);
+    }
+}
@@ -0,0 +1,20 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.configurations.RunProfile;
+import com.intellij.execution.runners.DefaultProgramRunner;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Runs Winstone configurations with the {@link WinstoneProfileExecutor}; the profiling itself is set up by
+ * {@link WinstoneRunnableState}.
+ */
+public class WinstoneProfileRunner extends DefaultProgramRunner {
+    @NotNull
+    public String getRunnerId() {
+        return "WinstoneProfileRunner";
+    }
+
+    public boolean canRun(@NotNull String executorId, @NotNull RunProfile profile) {
+        return WinstoneProfileExecutor.EXECUTOR_ID.equals(executorId) && profile instanceof WinstoneConfiguration;
+    }
+}
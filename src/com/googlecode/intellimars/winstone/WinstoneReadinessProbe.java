@@ -0,0 +1,185 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the health URL of a launched webapp until it answers with the expected status, backing off exponentially
+ * between attempts. Publishes {@link WinstoneEvent.Type#READY} with the latency since the probe was started, or
+ * {@link WinstoneEvent.Type#NOT_READY} when it gives up.
+ * <p/>
+ * Uses one non-blocking channel per attempt and a single selector, so it never hangs on a half started listener.
+ */
+public class WinstoneReadinessProbe implements Runnable {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final long INITIAL_BACKOFF = 50;
+    private static final long MAX_BACKOFF = 2000;
+    private static final long ATTEMPT_TIMEOUT = 2000;
+    private static final long GIVE_UP_AFTER = TimeUnit.MINUTES.toMillis(5);
+    private static final int STATUS_LINE_LIMIT = 1024;
+
+    private final WinstoneConfiguration config;
+    private final ProcessHandler processHandler;
+    private final int port;
+    private final String path;
+    private final long start = System.nanoTime();
+
+
+    public WinstoneReadinessProbe(WinstoneConfiguration _config, ProcessHandler _processHandler) {
+        config = _config;
+        processHandler = _processHandler;
+        port = Integer.parseInt(_config.HTTP_PORT.trim());
+        path = _config.getReadinessUrlPath();
+    }
+
+    public static boolean isApplicable(WinstoneConfiguration config) {
+        try {
+            return Integer.parseInt(config.HTTP_PORT.trim()) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public void start() {
+        ApplicationManager.getApplication().executeOnPooledThread(this);
+    }
+
+    public void run() {
+        long backoff = INITIAL_BACKOFF;
+        int attempts = 0;
+        int lastStatus = -1;
+        Selector selector = null;
+        try {
+            selector = Selector.open();
+            while (!processHandler.isProcessTerminating() && !processHandler.isProcessTerminated()) {
+                attempts++;
+                int status = probe(selector, port, path);
+                if (status > 0) lastStatus = status;
+                if (status > 0 && matchesStatus(config.READINESS_STATUS, status)) {
+                    long latency = (System.nanoTime() - start) / 1000000L;
+                    LOGGER.info("WinstoneReadinessProbe: ready after " + latency + " ms, " + attempts + " attempts");
+                    publish(WinstoneEvent.Type.READY, String.valueOf(latency));
+                    return;
+                }
+                if ((System.nanoTime() - start) / 1000000L > GIVE_UP_AFTER) break;
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, MAX_BACKOFF);
+            }
+            if (!processHandler.isProcessTerminated()) {
+                String answer = lastStatus > 0 ? "status " + lastStatus + " instead of " + config.READINESS_STATUS
+                                               : "no answer";
+                publish(WinstoneEvent.Type.NOT_READY, answer + " from " + path + " after " + attempts + " attempts");
+            }
+        } catch (InterruptedException ignored) {
+        } catch (IOException e) {
+            LOGGER.info("WinstoneReadinessProbe", e);
+        } finally {
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the HTTP status of one attempt, -1 if the webapp did not answer
+     */
+    static int probe(Selector selector, int port, String path) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            boolean connected = channel.connect(new InetSocketAddress("127.0.0.1", port));
+            SelectionKey key = channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT);
+            ByteBuffer request = ByteBuffer.wrap(("GET " + path + " HTTP/1.0\r\nHost: localhost:" + port
+                                                  + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+            ByteBuffer response = ByteBuffer.allocate(STATUS_LINE_LIMIT);
+            long deadline = System.currentTimeMillis() + ATTEMPT_TIMEOUT;
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return -1;
+                selector.select(remaining);
+                selector.selectedKeys().clear();
+                if (key.isConnectable()) {
+                    if (!channel.finishConnect()) continue;
+                    key.interestOps(SelectionKey.OP_WRITE);
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) key.interestOps(SelectionKey.OP_READ);
+                } else if (key.isReadable()) {
+                    int read = channel.read(response);
+                    int status = parseStatus(response);
+                    if (status > 0) return status;
+                    if (read < 0 || !response.hasRemaining()) return -1;
+                }
+            }
+        } catch (IOException e) {
+            // connection refused while the listener is not up yet
+            return -1;
+        } finally {
+            channel.close();
+            selector.selectNow();
+        }
+    }
+
+    /**
+     * @return the status code once the status line ("HTTP/1.1 200 OK") is complete, -1 otherwise
+     */
+    static int parseStatus(ByteBuffer response) {
+        int end = response.position();
+        for (int i = 0; i < end; i++) {
+            if (response.get(i) != '\n') continue;
+            int space = -1;
+            for (int j = 0; j < i; j++) {
+                if (response.get(j) == ' ') {
+                    space = j;
+                    break;
+                }
+            }
+            if (space < 0 || space + 3 >= i) return -1;
+            int status = 0;
+            for (int j = space + 1; j <= space + 3; j++) {
+                byte b = response.get(j);
+                if (b < '0' || b > '9') return -1;
+                status = status * 10 + (b - '0');
+            }
+            return status;
+        }
+        return -1;
+    }
+
+    /**
+     * @param expected comma separated codes where 'x' matches any digit, e.g. "200" or "2xx,3xx"; empty matches any
+     */
+    static boolean matchesStatus(String expected, int status) {
+        if (expected == null || expected.trim().length() == 0) return true;
+        String actual = String.valueOf(status);
+        for (String code : expected.split(",")) {
+            code = code.trim();
+            if (code.length() != actual.length()) continue;
+            boolean matches = true;
+            for (int i = 0; i < code.length() && matches; i++) {
+                char c = Character.toLowerCase(code.charAt(i));
+                matches = c == 'x' || c == actual.charAt(i);
+            }
+            if (matches) return true;
+        }
+        return false;
+    }
+
+    private void publish(WinstoneEvent.Type type, String detail) {
+        if (config.getProject().isDisposed()) return;
+        config.getProject().getMessageBus().syncPublisher(WinstoneListener.TOPIC)
+                .winstoneEvent(new WinstoneEvent(type, config, processHandler, detail));
+    }
+}
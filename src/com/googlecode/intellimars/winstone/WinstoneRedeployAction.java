@@ -0,0 +1,61 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.IconLoader;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Console toolbar action that pushes the files changed since the last redeploy into the running webapp.
+ */
+public class WinstoneRedeployAction extends AnAction {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+
+    private final WinstoneChangeTracker tracker;
+    private final WinstoneRedeployer redeployer;
+    private final ProcessHandler processHandler;
+    private final ConsoleView console;
+    private volatile boolean running;
+
+
+    public WinstoneRedeployAction(WinstoneChangeTracker _tracker, WinstoneRedeployer _redeployer,
+                                  ProcessHandler _processHandler, ConsoleView _console) {
+        super("Redeploy changes", "Sync changed classes and resources into the running webapp",
+              IconLoader.getIcon("/actions/refresh.png"));
+        tracker = _tracker;
+        redeployer = _redeployer;
+        processHandler = _processHandler;
+        console = _console;
+    }
+
+    public void update(AnActionEvent e) {
+        e.getPresentation().setEnabled(!running && !processHandler.isProcessTerminated());
+    }
+
+    public void actionPerformed(AnActionEvent e) {
+        FileDocumentManager.getInstance().saveAllDocuments();
+        running = true;
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    List<String> changes = tracker.drain();
+                    WinstoneRedeployer.Result result = redeployer.redeploy(changes);
+                    console.print(result + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                } catch (IOException ex) {
+                    LOGGER.info("WinstoneRedeployAction", ex);
+                    console.print("Redeploy failed: " + ex.getMessage() + "\n", ConsoleViewContentType.ERROR_OUTPUT);
+                } finally {
+                    running = false;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,212 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Syncs changed files into the running webapp.
+ * <p/>
+ * Files of the module output count when the module compiles right into WEB-INF/classes of the webapp, or are copied
+ * there when the webapp is served from the WAR cache; the webapp directory of the user is never written to, the
+ * result hints at the module output path instead. Files of the webapp directory are served by Winstone from disk
+ * anyway. Only changed classes, jars in WEB-INF/lib or
+ * a changed web.xml make the webapp reload over the control port; static resources go live as they are.
+ */
+public class WinstoneRedeployer {
+    public static class Result {
+        public int copied;
+        public int deleted;
+        public int resources;
+        public final Set<String> reloaded = new LinkedHashSet<String>();
+        /** the nodes of a cluster that could not be reloaded, with the reason */
+        public final List<String> reloadFailed = new ArrayList<String>();
+        public boolean reloadSkipped;
+        /** the WEB-INF/classes directory the module does not compile into, if classes were skipped for it */
+        public File classesNotDeployed;
+        public long millis;
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Redeployed in ").append(millis).append(" ms: ");
+            sb.append(copied).append(" copied, ").append(deleted).append(" deleted, ");
+            sb.append(resources).append(" webapp resources live");
+            if (!reloaded.isEmpty()) sb.append(", reloaded ").append(reloaded);
+            if (!reloadFailed.isEmpty()) sb.append(", reload failed on ").append(reloadFailed);
+            if (reloadSkipped) sb.append(", classes changed but the control port is disabled - restart to pick them up");
+            if (classesNotDeployed != null)
+                sb.append(", module output skipped - set the module's output path to ").append(classesNotDeployed)
+                        .append(" to redeploy classes");
+            return sb.toString();
+        }
+    }
+
+    private final WinstoneConfiguration config;
+    private final File moduleOutput;
+    private final WinstoneWarCache warCache;
+    private WinstoneCluster cluster;
+
+
+    public WinstoneRedeployer(WinstoneConfiguration _config, @Nullable String moduleOutputPath) {
+        config = _config;
+        moduleOutput = moduleOutputPath == null ? null : new File(moduleOutputPath);
+        warCache = _config.isWarCacheUsed() ? new WinstoneWarCache(_config) : null;
+    }
+
+    /**
+     * @param _cluster the cluster whose running nodes reload the webapps, instead of the control port of the
+     *                 configuration
+     */
+    public void setCluster(WinstoneCluster _cluster) {
+        cluster = _cluster;
+    }
+
+    public Result redeploy(List<String> changedPaths) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        Set<String> reload = new LinkedHashSet<String>();
+        Set<File> cachedWebapps = new LinkedHashSet<File>();
+        File webappDirectory = new File(config.WEBAPP_DIRECTORY);
+
+        for (String path : changedPaths) {
+            File file = new File(path);
+            if (moduleOutput != null && FileUtil.isAncestor(moduleOutput, file, true)) {
+                File webapp = getModuleWebapp(config.getWebappsDirectory());
+                File classes = new File(webapp, "WEB-INF/classes");
+                String relative = "WEB-INF/classes/" + relativePath(moduleOutput, file);
+                if (!FileUtil.filesEqual(classes, moduleOutput)) {
+                    // only the WAR cache belongs to the plugin, the webapp directory is often under version control
+                    if (warCache == null) {
+                        result.classesNotDeployed = classes;
+                        continue;
+                    }
+                    if (!sync(file, new File(webapp, relative), result)) continue;
+                }
+                if (requiresReload(relative)) reload.add(getPrefix(webapp));
+            } else if (warCache != null && FileUtil.isAncestor(webappDirectory, file, true)) {
+                // Winstone serves the cache, the WAR or directory the file belongs to is synced into it below
+                String relative = relativePath(webappDirectory, file);
+                int slash = relative.indexOf('/');
+                cachedWebapps.add(new File(webappDirectory, slash < 0 ? relative : relative.substring(0, slash)));
+            } else if (FileUtil.isAncestor(webappDirectory, file, true)) {
+                File webapp = getWebappOf(webappDirectory, file);
+                if (webapp == null) continue;
+                if (requiresReload(relativePath(webapp, file))) {
+                    reload.add(getPrefix(webapp));
+                } else {
+                    result.resources++;
+                }
+            }
+        }
+
+        for (File webapp : cachedWebapps) {
+            WinstoneWarCache.Result cached = warCache.update(webapp);
+            result.copied += cached.written + cached.linked + cached.copied;
+            result.deleted += cached.deleted;
+            for (String path : cached.changed) {
+                if (requiresReload(path)) {
+                    reload.add(getPrefix(new File(config.getWebappsDirectory(), warCache.getWebappName(webapp))));
+                } else {
+                    result.resources++;
+                }
+            }
+        }
+
+        if (!reload.isEmpty()) {
+            if (config.USE_SERVLET_RELOADING) {
+                // winstone's ReloadingClassLoader notices the changed classes by itself
+            } else if (cluster == null && config.getControlPort() <= 0) {
+                result.reloadSkipped = true;
+            } else {
+                reload(reload, result);
+            }
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        return result;
+    }
+
+    /**
+     * Reloads on the control port of the configuration, or on every node of the cluster that is running now; a node
+     * that refuses is reported and the others are still reloaded.
+     */
+    private void reload(Set<String> prefixes, Result result) throws IOException {
+        List<Integer> ports = cluster != null ? cluster.getControlPorts() : Collections.singletonList(config.getControlPort());
+        IOException firstError = null;
+        boolean reloaded = false;
+        for (int controlPort : ports) {
+            WinstoneControlClient client = new WinstoneControlClient(controlPort);
+            try {
+                for (String prefix : prefixes) client.reload(prefix);
+                reloaded = true;
+            } catch (IOException e) {
+                if (firstError == null) firstError = e;
+                result.reloadFailed.add("control port " + controlPort + " (" + e.getMessage() + ")");
+            }
+        }
+        if (!reloaded && firstError != null) throw firstError;
+        if (reloaded) {
+            for (String prefix : prefixes) result.reloaded.add("".equals(prefix) ? "/" : prefix);
+        }
+    }
+
+    /**
+     * @return whether the target was touched
+     */
+    private static boolean sync(File source, File target, Result result) throws IOException {
+        if (!source.exists()) {
+            if (!target.exists()) return false;
+            FileUtil.delete(target);
+            result.deleted++;
+            return true;
+        }
+        if (source.isDirectory()) {
+            target.mkdirs();
+            return false;
+        }
+        if (target.isFile() && target.length() == source.length() && target.lastModified() >= source.lastModified())
+            return false;
+        target.getParentFile().mkdirs();
+        // the target may be linked to a file of the webapps directory by the WAR cache
+        WinstoneWarCache.replace(target);
+        FileUtil.copy(source, target);
+        result.copied++;
+        return true;
+    }
+
+    static boolean requiresReload(String relative) {
+        return (relative.startsWith("WEB-INF/classes/") && relative.endsWith(".class"))
+               || relative.startsWith("WEB-INF/lib/")
+               || relative.equals("WEB-INF/web.xml");
+    }
+
+    private File getModuleWebapp(File webappDirectory) {
+        if (!config.USE_WEB_APPS) return webappDirectory;
+        return new File(webappDirectory, "".equals(config.CONTEXT_NAME) ? "ROOT" : config.CONTEXT_NAME);
+    }
+
+    @Nullable
+    private File getWebappOf(File webappDirectory, File file) {
+        if (!config.USE_WEB_APPS) return webappDirectory;
+        String relative = relativePath(webappDirectory, file);
+        int slash = relative.indexOf('/');
+        return slash < 0 ? null : new File(webappDirectory, relative.substring(0, slash));
+    }
+
+    private String getPrefix(File webapp) {
+        if (config.USE_WEB_APPS)
+            return "ROOT".equalsIgnoreCase(webapp.getName()) ? "" : "/" + webapp.getName();
+        return "".equals(config.CONTEXT_NAME) ? "" : "/" + config.CONTEXT_NAME;
+    }
+
+    private static String relativePath(File ancestor, File file) {
+        String relative = FileUtil.getRelativePath(ancestor, file);
+        return relative == null ? "" : FileUtil.toSystemIndependentName(relative);
+    }
+}
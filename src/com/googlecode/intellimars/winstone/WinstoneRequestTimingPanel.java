@@ -0,0 +1,134 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the {@link WinstoneRequestTimings} of a running (or the last) launch: requests by path, filters and
+ * servlets with the time spent in them and, without the nested filters and servlets, in themselves.
+ */
+public class WinstoneRequestTimingPanel extends JPanel implements Disposable, WinstoneChangeSource.Listener {
+    private static final String[] COLUMNS = {"Kind", "Name", "Count", "Total", "Self", "Mean", "p50", "p99", "Max"};
+
+    private final WinstoneRequestTimings timings;
+    private final JComboBox launches = new JComboBox();
+    private final EntryTableModel model = new EntryTableModel();
+    private List<WinstoneRequestTimings.Launch> shown = new ArrayList<WinstoneRequestTimings.Launch>();
+
+
+    public WinstoneRequestTimingPanel(Project project) {
+        super(new BorderLayout());
+        timings = WinstoneRequestTimings.getInstance(project);
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(new JLabel("Configuration"));
+        north.add(launches);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+
+        launches.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshTable();
+            }
+        });
+        timings.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        timings.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        List<WinstoneRequestTimings.Launch> all = timings.getLaunches();
+        if (!all.equals(shown)) {
+            shown = all;
+            launches.removeAllItems();
+            for (WinstoneRequestTimings.Launch launch : all) launches.addItem(new LaunchItem(launch));
+        }
+        refreshTable();
+    }
+
+    private void refreshTable() {
+        LaunchItem item = (LaunchItem) launches.getSelectedItem();
+        model.setEntries(item != null ? item.launch.getEntries() : new ArrayList<WinstoneRequestTimings.Entry>());
+    }
+
+    private static String formatNanos(long nanos) {
+        return WinstoneBenchmarkRecord.formatMicros(nanos / 1000);
+    }
+
+    private static class LaunchItem {
+        private final WinstoneRequestTimings.Launch launch;
+
+        LaunchItem(WinstoneRequestTimings.Launch _launch) {
+            launch = _launch;
+        }
+
+        public String toString() {
+            return launch.getConfiguration();
+        }
+    }
+
+    private static class EntryTableModel extends AbstractTableModel {
+        private List<WinstoneRequestTimings.Entry> entries = new ArrayList<WinstoneRequestTimings.Entry>();
+
+        void setEntries(List<WinstoneRequestTimings.Entry> _entries) {
+            entries = _entries;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return entries.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            WinstoneRequestTimings.Entry entry = entries.get(row);
+            switch (column) {
+                case 0:
+                    return entry.getKind();
+                case 1:
+                    return entry.name;
+                case 2:
+                    return entry.count;
+                case 3:
+                    return formatNanos(entry.total);
+                case 4:
+                    return formatNanos(entry.self);
+                case 5:
+                    return entry.count == 0 ? "" : formatNanos(entry.total / entry.count);
+                case 6:
+                    return WinstoneBenchmarkRecord.formatMicros(entry.getMicrosAtPercentile(50));
+                case 7:
+                    return WinstoneBenchmarkRecord.formatMicros(entry.getMicrosAtPercentile(99));
+                default:
+                    return formatNanos(entry.max);
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneClassFile;
+import com.googlecode.intellimars.winstone.rt.WinstoneTimingAgent;
+import com.googlecode.intellimars.winstone.rt.WinstoneTimingTransformer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Request timings of the launches with the "Time requests" option, the latest launch of each configuration.
+ * <p/>
+ * The launched JVM runs {@link WinstoneTimingAgent}, which connects to a socket of this service and sends the
+ * cumulative timings of requests, filters and servlets once a second. The agent arguments only name the port and the
+ * configuration, so they are the same at every launch and do not keep standby JVMs from being used. A shared host
+ * reports the requests of all its webapps under the configuration that started it.
+ */
+public class WinstoneRequestTimings extends WinstoneChangeSource implements Disposable {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+
+    private final Map<String, Launch> launches = new LinkedHashMap<String, Launch>();
+    private ServerSocket serverSocket;
+
+
+    public static WinstoneRequestTimings getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneRequestTimings.class);
+    }
+
+    /**
+     * Timings of one method (a request path, a filter or a servlet), times in nanoseconds.
+     */
+    public static class Entry {
+        public final int kind;
+        public final String name;
+        public final long count;
+        public final long total;
+        public final long self;
+        public final long max;
+        private final long[] buckets;
+
+        Entry(int _kind, String _name, long _count, long _total, long _self, long _max, long[] _buckets) {
+            kind = _kind;
+            name = _name;
+            count = _count;
+            total = _total;
+            self = _self;
+            max = _max;
+            buckets = _buckets;
+        }
+
+        public String getKind() {
+            return WinstoneTimingAgent.KINDS[kind];
+        }
+
+        /**
+         * @return the upper limit in microseconds of the bucket the percentile falls into
+         */
+        public long getMicrosAtPercentile(double percentile) {
+            long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= countAtPercentile) return Math.min(WinstoneTimingAgent.bucketLimit(i), max / 1000);
+            }
+            return max / 1000;
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t");
+            String[] bucketFields = fields[7].split(",");
+            long[] buckets = new long[bucketFields.length];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = Long.parseLong(bucketFields[i]);
+            return new Entry(Integer.parseInt(fields[1]), fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4]),
+                             Long.parseLong(fields[5]), Long.parseLong(fields[6]), buckets);
+        }
+    }
+
+    /**
+     * The timings received from one launch.
+     */
+    public static class Launch {
+        private final String configuration;
+        private final long started = System.currentTimeMillis();
+        private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        Launch(String _configuration) {
+            configuration = _configuration;
+        }
+
+        public String getConfiguration() {
+            return configuration;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        synchronized void update(List<Entry> batch) {
+            for (Entry entry : batch) entries.put(entry.kind + "\t" + entry.name, entry);
+        }
+
+        /**
+         * @return the entries, most total time first
+         */
+        public synchronized List<Entry> getEntries() {
+            List<Entry> result = new ArrayList<Entry>(entries.values());
+            Collections.sort(result, new Comparator<Entry>() {
+                public int compare(Entry o1, Entry o2) {
+                    return o1.total > o2.total ? -1 : o1.total < o2.total ? 1 : o1.name.compareTo(o2.name);
+                }
+            });
+            return result;
+        }
+    }
+
+
+    /**
+     * @return the <code>-javaagent</code> option that makes the launched JVM report to this service
+     */
+    public String getAgentOption(WinstoneConfiguration config) throws IOException {
+        Map<String, String> manifest = new LinkedHashMap<String, String>();
+        manifest.put("Premain-Class", WinstoneTimingAgent.class.getName());
+        File jar = WinstoneRuntimeJar.get("winstone-ce-timing", manifest, WinstoneTimingAgent.class,
+                                          WinstoneTimingTransformer.class, WinstoneClassFile.class);
+        return "-javaagent:" + jar.getPath() + "=" + listen() + "," + getKey(config);
+    }
+
+    private static String getKey(WinstoneConfiguration config) {
+        return WinstoneDigest.sha1(config.getProject().getName() + "/" + config.getName()).substring(0, 12);
+    }
+
+    /**
+     * Starts collecting the timings of a new launch of the configuration.
+     */
+    public void start(WinstoneConfiguration config) {
+        synchronized (this) {
+            launches.remove(getKey(config));
+            launches.put(getKey(config), new Launch(config.getName()));
+        }
+        fireChanged();
+    }
+
+    private synchronized int listen() throws IOException {
+        if (serverSocket == null) {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            final ServerSocket server = serverSocket;
+            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                public void run() {
+                    accept(server);
+                }
+            });
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    private void accept(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                    public void run() {
+                        receive(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!server.isClosed()) LOGGER.info("WinstoneRequestTimings: accept failed", e);
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            String key = null;
+            List<Entry> batch = new ArrayList<Entry>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("H\t")) {
+                    key = line.substring(2);
+                } else if (line.startsWith("T\t")) {
+                    batch.add(Entry.parse(line));
+                } else if (line.equals("E")) {
+                    Launch launch;
+                    synchronized (this) {
+                        launch = launches.get(key);
+                    }
+                    if (launch != null) {
+                        launch.update(batch);
+                        fireChanged();
+                    }
+                    batch = new ArrayList<Entry>();
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.info("WinstoneRequestTimings: could not read the timings", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the launches, most recently started first
+     */
+    public synchronized List<Launch> getLaunches() {
+        List<Launch> result = new ArrayList<Launch>(launches.values());
+        Collections.reverse(result);
+        return result;
+    }
+
+    public synchronized void dispose() {
+        if (serverSocket == null) return;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        serverSocket = null;
+    }
+}
@@ -9,28 +9,51 @@ import com.intellij.execution.RunConfigurationExtension;
 import com.intellij.execution.configurations.JavaCommandLineState;
 import com.intellij.execution.configurations.JavaParameters;
 import com.intellij.execution.configurations.RunnerSettings;
+import com.intellij.execution.executors.DefaultRunExecutor;
 import com.intellij.execution.filters.TextConsoleBuilderFactory;
 import com.intellij.execution.process.OSProcessHandler;
 import com.intellij.execution.process.ProcessAdapter;
 import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessTerminatedListener;
 import com.intellij.execution.runners.ExecutionEnvironment;
 import com.intellij.execution.runners.ProgramRunner;
 import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.execution.util.JavaParametersUtil;
 import com.intellij.ide.BrowserUtil;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.extensions.Extensions;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Key;
+import com.intellij.openapi.roots.CompilerModuleExtension;
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.util.ArrayUtil;
+import com.intellij.util.messages.MessageBusConnection;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class WinstoneRunnableState extends JavaCommandLineState {
     private static final Logger LOGGER = Logger.getInstance("Winstone");
     private RunnerSettings runnerSettings;
     private WinstoneConfiguration config;
     private Project project;
+    private WinstoneLaunchTiming timing;
+    private boolean standbyAllowed;
+    private WinstoneStartupProfiler profiler;
+    private WinstoneClasspathIndex.Result classpathIndex;
+    private WinstoneWarCache.Result warCache;
+    private WinstoneJspPrecompiler.Result jspPrecompilation;
+    private WinstoneJvmMonitor jvmMonitor;
+    private WinstoneCluster cluster;
+    private final List<String> firstNodeOnlyOptions = new ArrayList<String>();
 
 
     public WinstoneRunnableState(ExecutionEnvironment env, WinstoneConfiguration _config) {
@@ -38,12 +61,62 @@ public class WinstoneRunnableState extends JavaCommandLineState {
         runnerSettings = env.getRunnerSettings();
         config = _config;
         project = _config.getProject();
+        timing = new WinstoneLaunchTiming(_config);
     }
 
     public ExecutionResult execute(Executor executor, ProgramRunner runner) throws ExecutionException {
         LOGGER.info("WinstoneRunnableState.execute");
+        // debugger and coverage runners patch the VM parameters per launch, a standby JVM would never match
+        standbyAllowed = DefaultRunExecutor.EXECUTOR_ID.equals(executor.getId());
+        if (WinstoneProfileExecutor.EXECUTOR_ID.equals(executor.getId())) profiler = new WinstoneStartupProfiler(config);
         final ConsoleView console = TextConsoleBuilderFactory.getInstance().createBuilder(project).getConsole();
-        ProcessHandler processHandler = startProcess();
+        if (config.ACCESS_LOG) WinstoneAccessLogs.prepare(config);
+        if (config.CAPTURE_OUTPUT) WinstoneOutputCapture.prepare(config);
+        if (config.USE_CLUSTER) {
+            // the debug and profiling agents of the nodes would compete for their ports and files
+            if (standbyAllowed) {
+                cluster = new WinstoneCluster(config);
+                cluster.startBalancer();
+            } else {
+                console.print("A cluster runs with the Run executor only, starting a single instance\n",
+                              ConsoleViewContentType.SYSTEM_OUTPUT);
+            }
+        }
+        // debugging and profiling need a JVM of their own, too
+        final boolean shared = config.isSharedHost() && standbyAllowed;
+        final ProcessHandler processHandler;
+        try {
+            processHandler = shared ? deployToSharedHost() : startProcess();
+        } catch (ExecutionException e) {
+            if (cluster != null) cluster.stop();
+            throw e;
+        }
+        if (cluster != null) cluster.start(processHandler, getJavaParameters(), firstNodeOnlyOptions);
+        final MessageBusConnection connection = project.getMessageBus().connect();
+        connection.subscribe(WinstoneListener.TOPIC, new WinstoneListener() {
+            public void winstoneEvent(WinstoneEvent event) {
+                if (event.getProcessHandler() != processHandler) return;
+                if (event.getType() == WinstoneEvent.Type.NOT_READY && config.OPEN_WEB_BROWSER) {
+                    console.print("Readiness probe gave up (" + event.getDetail() + "), the browser is not opened\n",
+                                  ConsoleViewContentType.ERROR_OUTPUT);
+                }
+                if (event.getType() != WinstoneEvent.Type.READY) return;
+                Runnable openBrowser = new Runnable() {
+                    public void run() {
+                        if (config.OPEN_WEB_BROWSER)
+                            BrowserUtil.launchBrowser("http://localhost:" + config.HTTP_PORT + "/" + config.CONTEXT_NAME);
+                    }
+                };
+                // the browser would be the first, cold request otherwise
+                if (config.hasWarmup()) {
+                    new WinstoneWarmup(config, processHandler).start(console, openBrowser);
+                } else {
+                    openBrowser.run();
+                }
+            }
+        });
+        final WinstoneChangeTracker tracker = new WinstoneChangeTracker(getModuleOutputPath(), config.WEBAPP_DIRECTORY);
+        tracker.start(project.getMessageBus().connect());
         processHandler.addProcessListener(new ProcessAdapter() {
             public void startNotified(ProcessEvent event) {
                 LOGGER.info("WinstoneRunnableState.startNotified");
@@ -52,22 +125,59 @@ public class WinstoneRunnableState extends JavaCommandLineState {
 
             public void processTerminated(ProcessEvent event) {
                 LOGGER.info("WinstoneRunnableState.processTerminated");
+                connection.disconnect();
+                tracker.stop();
             }
 
             public void processWillTerminate(ProcessEvent event, boolean willBeDestroyed) {
                 LOGGER.info("WinstoneRunnableState.processWillTerminate");
             }
-
-            public void onTextAvailable(ProcessEvent event, Key outputType) {
-                LOGGER.info("WinstoneRunnableState.onTextAvailable:");
-                if (config.OPEN_WEB_BROWSER && event.getText().contains("HTTP Listener started: port=")) {
-                    BrowserUtil.launchBrowser("http://localhost:" + config.HTTP_PORT + "/" + config.CONTEXT_NAME);
-                }
-                super.onTextAvailable(event, outputType);
-            }
         });
-        console.attachToProcess(processHandler);
-        return new DefaultExecutionResult(console, processHandler, createActions(console, processHandler));
+        timing.attachTo(processHandler);
+        if (config.ACCESS_LOG) WinstoneAccessLogs.getInstance(project).start(config, processHandler);
+        if (config.REQUEST_TIMING) WinstoneRequestTimings.getInstance(project).start(config);
+        // the shared host was not launched with this configuration's connector
+        if (jvmMonitor != null && !shared) jvmMonitor.attachTo(processHandler);
+        if (classpathIndex != null) console.print(classpathIndex + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+        if (warCache != null) console.print(warCache + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+        if (jspPrecompilation != null) {
+            console.print(jspPrecompilation + "\n", jspPrecompilation.failed.isEmpty() ?
+                                                     ConsoleViewContentType.SYSTEM_OUTPUT : ConsoleViewContentType.ERROR_OUTPUT);
+        }
+        if (profiler != null) {
+            if (profiler.isConfigured()) {
+                profiler.attachTo((OSProcessHandler) processHandler, console);
+            } else {
+                console.print("Startup profiling needs a JDK 11 or later, running without it\n",
+                              ConsoleViewContentType.ERROR_OUTPUT);
+            }
+        }
+        processHandler.addProcessListener(new WinstoneOutputWatcher(config, processHandler));
+        if (WinstoneReadinessProbe.isApplicable(config)) new WinstoneReadinessProbe(config, processHandler).start();
+        if (config.CAPTURE_OUTPUT) {
+            WinstoneOutputCapture capture = new WinstoneOutputCapture(WinstoneOutputCapture.getDirectory(config));
+            processHandler.putUserData(WinstoneOutputCapture.KEY, capture);
+            console.attachToProcess(new WinstoneCapturedConsole(processHandler, capture));
+        } else {
+            console.attachToProcess(processHandler);
+        }
+        WinstoneRedeployer redeployer = new WinstoneRedeployer(config, getModuleOutputPath());
+        if (cluster != null) redeployer.setCluster(cluster);
+        AnAction redeploy = new WinstoneRedeployAction(tracker, redeployer, processHandler, console);
+        AnAction benchmark = new WinstoneBenchmarkAction(config, processHandler, console);
+        AnAction autoTune = new WinstoneAutoTuneAction(config, getJavaParameters(), console);
+        AnAction[] actions = ArrayUtil.append(createActions(console, processHandler), redeploy);
+        actions = ArrayUtil.append(actions, benchmark);
+        return new DefaultExecutionResult(console, processHandler, ArrayUtil.append(actions, autoTune));
+    }
+
+    @Nullable
+    private String getModuleOutputPath() {
+        Module module = config.getConfigurationModule().getModule();
+        if (module == null) return null;
+        CompilerModuleExtension extension = CompilerModuleExtension.getInstance(module);
+        String url = extension != null ? extension.getCompilerOutputUrl() : null;
+        return url != null ? VfsUtil.urlToPath(url) : null;
     }
 
 
@@ -80,6 +190,69 @@ public class WinstoneRunnableState extends JavaCommandLineState {
         JavaParametersUtil.configureConfiguration(javaParameters, config);
         javaParameters.setMainClass(config.WINSTONE_RUN_CLASS);
         javaParameters.getClassPath().add(new File(config.WINSTONE_JAR).getPath());
+        WinstonePerformanceProfile performanceProfile = WinstonePerformanceProfile.get(config.PERFORMANCE_PROFILE);
+        if (performanceProfile != WinstonePerformanceProfile.NONE) {
+            int jdkVersion = javaParameters.getJdk() != null ?
+                             WinstoneCdsArchive.parseFeatureVersion(javaParameters.getJdk().getVersionString()) : 0;
+            List<String> vmParameters = javaParameters.getVMParametersList().getList();
+            javaParameters.getVMParametersList().addAll(performanceProfile.getVmOptions(jdkVersion, vmParameters));
+        }
+        if (config.INDEXED_CLASSPATH && !"".equals(config.COMMONLIB_DIRECTORY)) {
+            try {
+                classpathIndex = new WinstoneClasspathIndex(config).prepare();
+            } catch (IOException e) {
+                throw new ExecutionException("Could not deduplicate the commonLib jars: " + e.getMessage());
+            }
+        }
+        if (config.FAST_STARTUP && javaParameters.getJdk() != null) {
+            List<String> cdsOptions = new ArrayList<String>();
+            WinstoneCdsArchive archive =
+                    new WinstoneCdsArchive(config, javaParameters.getJdk(), javaParameters.getClassPath().getPathList());
+            timing.setClassDataSharing(archive.configure(cdsOptions));
+            javaParameters.getVMParametersList().addAll(cdsOptions);
+            // the nodes of a cluster would dump or create the same archive at once
+            firstNodeOnlyOptions.addAll(cdsOptions);
+        }
+        if (config.isWarCacheUsed()) {
+            try {
+                warCache = new WinstoneWarCache(config).prepare();
+            } catch (IOException e) {
+                throw new ExecutionException("Could not extract the WARs into the cache: " + e.getMessage());
+            }
+        }
+        if (config.USE_JASPER && config.PRECOMPILE_JSP) precompileJsps(javaParameters);
+        if (config.REQUEST_TIMING) {
+            try {
+                String agentOption = WinstoneRequestTimings.getInstance(project).getAgentOption(config);
+                javaParameters.getVMParametersList().add(agentOption);
+                firstNodeOnlyOptions.add(agentOption);
+            } catch (IOException e) {
+                throw new ExecutionException("Could not prepare the request timing agent: " + e.getMessage());
+            }
+        }
+        if (config.SESSION_SNAPSHOT) {
+            try {
+                String agentOption = WinstoneSessionSnapshots.getAgentOption(config);
+                javaParameters.getVMParametersList().add(agentOption);
+                // the nodes of a cluster would overwrite each other's snapshots
+                firstNodeOnlyOptions.add(agentOption);
+            } catch (IOException e) {
+                throw new ExecutionException("Could not prepare the session snapshot agent: " + e.getMessage());
+            }
+        }
+        if (config.JMX_MONITOR) {
+            try {
+                int port = WinstoneAutoTuner.findFreePort();
+                List<String> jmxOptions = WinstoneJvmMonitor.getVmOptions(port);
+                javaParameters.getVMParametersList().addAll(jmxOptions);
+                firstNodeOnlyOptions.addAll(jmxOptions);
+                jvmMonitor = new WinstoneJvmMonitor(port);
+            } catch (IOException e) {
+                throw new ExecutionException("Could not find a port for the JVM monitor: " + e.getMessage());
+            }
+        }
+        if (profiler != null) profiler.configure(javaParameters);
+        if (cluster != null) cluster.configureFirstNode(javaParameters);
 
         //  RunConfigurationExtension ɂ܂킷ƂŁCCoveragevOCLȂ
         // JobW擾ł悤ɂȂB
@@ -87,13 +260,71 @@ public class WinstoneRunnableState extends JavaCommandLineState {
             extension.updateJavaParameters(config, javaParameters, getRunnerSettings());
         }
 
+        timing.mark(WinstoneLaunchTiming.Phase.JAVA_PARAMETERS);
         return javaParameters;
     }
 
+    private void precompileJsps(JavaParameters javaParameters) throws ExecutionException {
+        final WinstoneJspPrecompiler precompiler = new WinstoneJspPrecompiler(config);
+        final Exception[] error = new Exception[1];
+        Runnable task = new Runnable() {
+            public void run() {
+                try {
+                    jspPrecompilation = precompiler.precompile(ProgressManager.getInstance().getProgressIndicator());
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        if (ApplicationManager.getApplication().isDispatchThread()) {
+            ProgressManager.getInstance().runProcessWithProgressSynchronously(task, "Precompiling JSPs", true, project);
+        } else {
+            task.run();
+        }
+        if (error[0] != null) throw new ExecutionException("Could not precompile the JSPs: " + error[0].getMessage());
+        // Jasper looks for the classes below java.io.tmpdir of the launched JVM
+        if (!precompiler.isTmpDirectoryConfigured()) {
+            javaParameters.getVMParametersList().add(
+                    WinstoneJspPrecompiler.getTmpDirectoryOption(precompiler.getTmpDirectory()));
+        }
+    }
+
     protected OSProcessHandler startProcess() throws ExecutionException {
-        OSProcessHandler osprocesshandler = super.startProcess();
+        OSProcessHandler osprocesshandler = null;
+        // a standby JVM has opened its JMX connector on another port
+        if (config.USE_STANDBY_JVM && standbyAllowed && !config.JMX_MONITOR) {
+            osprocesshandler = startStandbyProcess();
+        } else {
+            WinstoneStandbyPool.getInstance().invalidate(config);
+        }
+        if (osprocesshandler == null) osprocesshandler = super.startProcess();
+        timing.mark(WinstoneLaunchTiming.Phase.PROCESS_SPAWN);
         JavaRunConfigurationExtensionManager.getInstance().attachExtensionsToProcess(config, osprocesshandler, runnerSettings);
         return osprocesshandler;
     }
 
+    private ProcessHandler deployToSharedHost() throws ExecutionException {
+        WinstoneStandbyPool.getInstance().invalidate(config);
+        ProcessHandler processHandler = WinstoneSharedHosts.getInstance(project).deploy(config, getJavaParameters());
+        timing.mark(WinstoneLaunchTiming.Phase.PROCESS_SPAWN);
+        return processHandler;
+    }
+
+    private OSProcessHandler startStandbyProcess() throws ExecutionException {
+        JavaParameters javaParameters = getJavaParameters();
+        WinstoneStandbyPool.Standby standby =
+                WinstoneStandbyPool.getInstance().take(config, javaParameters, config.getStandbyJvmCount());
+        if (standby == null) return null;
+        try {
+            standby.handOver(javaParameters.getProgramParametersList().getList());
+        } catch (IOException e) {
+            LOGGER.info("WinstoneRunnableState: could not hand over to the standby JVM", e);
+            standby.destroy();
+            return null;
+        }
+        OSProcessHandler osprocesshandler = new OSProcessHandler(standby.getProcess(), standby.getCommandLine());
+        ProcessTerminatedListener.attach(osprocesshandler);
+        return osprocesshandler;
+    }
+
 }
@@ -7,6 +7,9 @@ import java.io.File;
 public class WinstoneRuntimeConfiguration {
     public final static String COMMONLIB_DIRECTORY;
     public final static String WINSTONE_JAR;
+    public final static String CDS_DIRECTORY;
+    public final static String RUNTIME_DIRECTORY;
+    public final static String PROFILE_DIRECTORY;
 
     static {
         File commonLib = new File(PathManager.getSystemPath(), "plugins");
@@ -16,6 +19,9 @@ public class WinstoneRuntimeConfiguration {
         commonLib = new File(commonLib, "commonLibs");
         commonLib.mkdir();
         COMMONLIB_DIRECTORY = commonLib.getAbsolutePath();
+        CDS_DIRECTORY = new File(commonLib.getParentFile(), "cds").getAbsolutePath();
+        RUNTIME_DIRECTORY = new File(commonLib.getParentFile(), "rt").getAbsolutePath();
+        PROFILE_DIRECTORY = new File(commonLib.getParentFile(), "profiles").getAbsolutePath();
 
         WINSTONE_JAR = PathManager.getPluginsPath() + File.separator + "winstone-ce"
                        + File.separator + "lib" + File.separator + "winstone-0.9.10.jar";
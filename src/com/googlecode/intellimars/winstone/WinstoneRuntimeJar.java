@@ -0,0 +1,143 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Packs classes of the plugin that run inside the launched Winstone JVM (package
+ * <code>com.googlecode.intellimars.winstone.rt</code>) into a small jar under the plugin system directory.
+ * The jar is named after a digest of its content, so it is only rewritten when the plugin changes.
+ * <p/>
+ * Each given class is packed with all class files compiled from its source file (<code>Outer$Inner</code>,
+ * <code>Outer$1</code>, ...), found next to the outer class file, since reflection does not list anonymous and local
+ * classes.
+ */
+public class WinstoneRuntimeJar {
+    private WinstoneRuntimeJar() {
+    }
+
+    public static File get(String name, Class<?>... classes) throws IOException {
+        return get(name, new LinkedHashMap<String, String>(), classes);
+    }
+
+    public static synchronized File get(String name, Map<String, String> manifestAttributes, Class<?>... classes)
+            throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (Class<?> aClass : classes) {
+            for (String entryName : listClassFiles(aClass))
+                entries.put(entryName, readResource(aClass, "/" + entryName));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> attribute : manifestAttributes.entrySet())
+            sb.append(attribute.getKey()).append('=').append(attribute.getValue()).append('\n');
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            sb.append(entry.getKey()).append('=').append(WinstoneDigest.sha1(entry.getValue())).append('\n');
+
+        File dir = new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY);
+        dir.mkdirs();
+        File jar = new File(dir, name + "-" + WinstoneDigest.sha1(sb.toString()).substring(0, 12) + ".jar");
+        if (jar.isFile()) return jar;
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        for (Map.Entry<String, String> attribute : manifestAttributes.entrySet())
+            manifest.getMainAttributes().putValue(attribute.getKey(), attribute.getValue());
+        File tmp = new File(dir, jar.getName() + ".tmp");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp), manifest);
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        FileUtil.rename(tmp, jar);
+        return jar;
+    }
+
+    /**
+     * @return the entry names of the outer class of the given class and of all classes nested in it, in a stable order
+     */
+    static List<String> listClassFiles(Class<?> aClass) throws IOException {
+        while (aClass.getEnclosingClass() != null) aClass = aClass.getEnclosingClass();
+        String entryName = aClass.getName().replace('.', '/') + ".class";
+        URL url = aClass.getResource("/" + entryName);
+        if (url == null) throw new IOException("Class file not found: /" + entryName);
+        String packagePath = entryName.substring(0, entryName.lastIndexOf('/') + 1);
+        String prefix = entryName.substring(packagePath.length(), entryName.length() - ".class".length()) + "$";
+
+        List<String> nested = new ArrayList<String>();
+        if ("file".equals(url.getProtocol())) {
+            File[] files;
+            try {
+                files = new File(url.toURI()).getParentFile().listFiles();
+            } catch (URISyntaxException e) {
+                throw new IOException("Cannot list the classes next to " + url);
+            }
+            if (files == null) throw new IOException("Cannot list the classes next to " + url);
+            for (File file : files) {
+                if (isNested(file.getName(), prefix)) nested.add(packagePath + file.getName());
+            }
+        } else if ("jar".equals(url.getProtocol())) {
+            JarURLConnection connection = (JarURLConnection) url.openConnection();
+            connection.setUseCaches(false);
+            JarFile jarFile = connection.getJarFile();
+            try {
+                for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements(); ) {
+                    String name = e.nextElement().getName();
+                    if (name.startsWith(packagePath) && name.indexOf('/', packagePath.length()) < 0
+                        && isNested(name.substring(packagePath.length()), prefix)) nested.add(name);
+                }
+            } finally {
+                jarFile.close();
+            }
+        } else {
+            throw new IOException("Cannot list the classes next to " + url);
+        }
+        Collections.sort(nested);
+
+        List<String> result = new ArrayList<String>();
+        result.add(entryName);
+        result.addAll(nested);
+        return result;
+    }
+
+    private static boolean isNested(String fileName, String prefix) {
+        return fileName.startsWith(prefix) && fileName.endsWith(".class");
+    }
+
+    private static byte[] readResource(Class<?> aClass, String resource) throws IOException {
+        InputStream in = aClass.getResourceAsStream(resource);
+        if (in == null) throw new IOException("Class file not found: " + resource);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneClassFile;
+import com.googlecode.intellimars.winstone.rt.WinstoneSessionAgent;
+import com.googlecode.intellimars.winstone.rt.WinstoneSessionTransformer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The session snapshots of the launches with the "Keep the sessions" option: {@link WinstoneSessionAgent} writes the
+ * live sessions of every webapp into a directory of the plugin system directory per configuration when Winstone
+ * shuts down gracefully, and restores them at the next start before the listeners accept connections. The agent
+ * prints the size of a snapshot and how long the restore took to the console.
+ * <p/>
+ * Stopping the process sends SIGTERM on Unix, which runs Winstone's shutdown hook; on Windows the process is
+ * killed, and only a shutdown through the control port saves the sessions.
+ */
+public class WinstoneSessionSnapshots {
+    private WinstoneSessionSnapshots() {
+    }
+
+    public static File getDirectory(WinstoneConfiguration config) {
+        String key = config.getProject().getName() + "/" + config.getName();
+        return new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "sessions"),
+                        WinstoneDigest.sha1(key).substring(0, 12));
+    }
+
+    /**
+     * @return the -javaagent option that loads the agent with the snapshot directory of the configuration
+     */
+    public static String getAgentOption(WinstoneConfiguration config) throws IOException {
+        Map<String, String> manifest = new LinkedHashMap<String, String>();
+        manifest.put("Premain-Class", WinstoneSessionAgent.class.getName());
+        File jar = WinstoneRuntimeJar.get("winstone-ce-sessions", manifest, WinstoneSessionAgent.class,
+                                          WinstoneSessionTransformer.class, WinstoneClassFile.class);
+        File dir = getDirectory(config);
+        dir.mkdirs();
+        return "-javaagent:" + jar.getPath() + "=" + dir.getPath();
+    }
+}
@@ -0,0 +1,351 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneSharedHostMain;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.CommandLineBuilder;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared hosts of a project: Winstone JVMs that the webapps of all run configurations with the same
+ * {@link WinstoneConfiguration#SHARED_HOST} are deployed into, each under its own prefix.
+ * <p/>
+ * The first configuration that starts launches the host with its JVM settings and ports; every configuration gets
+ * a {@link Context} process handler whose start deploys and whose stop undeploys only its webapps. The host stops
+ * with its last context. The output of the host is shown in the consoles of all its contexts.
+ */
+public class WinstoneSharedHosts implements Disposable {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final long READY_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+    private static final String[] HOST_OWNED_OPTIONS = {"--webroot=", "--webappsDir=", "--warfile=", "--prefix="};
+
+    private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+
+    public static WinstoneSharedHosts getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneSharedHosts.class);
+    }
+
+    /**
+     * @param javaParameters the parameters the configuration would be launched with on its own
+     */
+    public ProcessHandler deploy(WinstoneConfiguration config, JavaParameters javaParameters) throws ExecutionException {
+        String name = config.SHARED_HOST.trim();
+        Host host;
+        boolean started = false;
+        synchronized (this) {
+            host = hosts.get(name);
+            if (host == null || host.processHandler.isProcessTerminating() || host.processHandler.isProcessTerminated()) {
+                host = startHost(name, config, javaParameters);
+                hosts.put(name, host);
+                started = true;
+            }
+        }
+        Context context = new Context(host, config);
+        host.contexts.add(context);
+        if (started) host.processHandler.startNotify();
+        return context;
+    }
+
+    private Host startHost(String name, WinstoneConfiguration config, JavaParameters javaParameters)
+            throws ExecutionException {
+        File webappsDir = new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "shared-hosts"),
+                                   WinstoneDigest.sha1(config.getProject().getName() + "/" + name).substring(0, 12));
+        webappsDir.mkdirs();
+
+        JavaParameters hostParameters = new JavaParameters();
+        hostParameters.setJdk(javaParameters.getJdk());
+        hostParameters.setWorkingDirectory(javaParameters.getWorkingDirectory());
+        hostParameters.setEnv(javaParameters.getEnv());
+        hostParameters.setPassParentEnvs(javaParameters.isPassParentEnvs());
+        hostParameters.setCharset(javaParameters.getCharset());
+        hostParameters.getVMParametersList().addAll(javaParameters.getVMParametersList().getList());
+        hostParameters.getClassPath().addAll(javaParameters.getClassPath().getPathList());
+        try {
+            hostParameters.getClassPath().add(WinstoneRuntimeJar.get("winstone-ce-shared-host", WinstoneSharedHostMain.class));
+        } catch (IOException e) {
+            throw new ExecutionException(e.getMessage());
+        }
+        hostParameters.setMainClass(WinstoneSharedHostMain.class.getName());
+        for (String parameter : javaParameters.getProgramParametersList().getList()) {
+            if (!isHostOwned(parameter)) hostParameters.getProgramParametersList().add(parameter);
+        }
+        hostParameters.getProgramParametersList().add("--webappsDir=" + webappsDir.getPath());
+
+        GeneralCommandLine commandLine = CommandLineBuilder.createFromJavaParameters(hostParameters);
+        Host host = new Host(name, config.HTTP_PORT.trim(),
+                             new OSProcessHandler(commandLine.createProcess(), commandLine.getCommandLineString()));
+        LOGGER.info("WinstoneSharedHosts: started shared host " + name);
+        return host;
+    }
+
+    static boolean isHostOwned(String parameter) {
+        for (String option : HOST_OWNED_OPTIONS) {
+            if (parameter.startsWith(option)) return true;
+        }
+        return false;
+    }
+
+    private synchronized void release(Host host, Context context) {
+        host.contexts.remove(context);
+        if (host.contexts.isEmpty()) {
+            LOGGER.info("WinstoneSharedHosts: last webapp of shared host " + host.name + " stopped");
+            if (hosts.get(host.name) == host) hosts.remove(host.name);
+            host.processHandler.destroyProcess();
+        }
+    }
+
+    public synchronized void dispose() {
+        for (Host host : hosts.values()) host.processHandler.destroyProcess();
+        hosts.clear();
+    }
+
+    private class Host extends ProcessAdapter {
+        private final String name;
+        private final String httpPort;
+        private final OSProcessHandler processHandler;
+        private final List<Context> contexts = new CopyOnWriteArrayList<Context>();
+        private final CountDownLatch ready = new CountDownLatch(1);
+        private volatile int commandPort = -1;
+
+        Host(String _name, String _httpPort, OSProcessHandler _processHandler) {
+            name = _name;
+            httpPort = _httpPort;
+            processHandler = _processHandler;
+            processHandler.addProcessListener(this);
+        }
+
+        public void onTextAvailable(ProcessEvent event, Key outputType) {
+            String text = event.getText();
+            if (commandPort < 0 && outputType == ProcessOutputTypes.STDOUT
+                && text.startsWith(WinstoneSharedHostMain.READY)) {
+                commandPort = Integer.parseInt(text.substring(WinstoneSharedHostMain.READY.length()).trim());
+                ready.countDown();
+                return;
+            }
+            for (Context context : contexts) context.forward(text, outputType);
+        }
+
+        public void processTerminated(ProcessEvent event) {
+            ready.countDown();
+            for (Context context : contexts) context.hostTerminated(event.getExitCode());
+            synchronized (WinstoneSharedHosts.this) {
+                if (hosts.get(name) == this) hosts.remove(name);
+            }
+        }
+
+        /**
+         * @return the fields of the OK answer
+         */
+        String[] send(String... command) throws IOException {
+            try {
+                if (!ready.await(READY_TIMEOUT, TimeUnit.MILLISECONDS))
+                    throw new IOException("Shared host " + name + " was not ready in time");
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            if (commandPort < 0) throw new IOException("Shared host " + name + " did not start");
+            Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), commandPort);
+            try {
+                StringBuilder line = new StringBuilder();
+                for (String field : command) line.append(line.length() > 0 ? "\t" : "").append(field);
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                out.write(line.append('\n').toString());
+                out.flush();
+                String answer = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")).readLine();
+                if (answer == null) throw new IOException("Shared host " + name + " closed the connection");
+                String[] fields = answer.split("\t");
+                if (!fields[0].equals("OK")) throw new IOException(answer.substring(answer.indexOf('\t') + 1));
+                return fields;
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * The webapps of one run configuration in a shared host.
+     */
+    public class Context extends ProcessHandler {
+        private final Host host;
+        private final WinstoneConfiguration config;
+        private final List<Object[]> pending = new ArrayList<Object[]>();
+        private boolean started;
+
+        Context(Host _host, WinstoneConfiguration _config) {
+            host = _host;
+            config = _config;
+        }
+
+        public void startNotify() {
+            super.startNotify();
+            synchronized (this) {
+                started = true;
+                for (Object[] text : pending) notifyTextAvailable((String) text[0], (Key) text[1]);
+                pending.clear();
+            }
+            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                public void run() {
+                    deployWebapps();
+                }
+            });
+        }
+
+        synchronized void forward(String text, Key outputType) {
+            if (started) {
+                notifyTextAvailable(text, outputType);
+            } else {
+                pending.add(new Object[]{text, outputType});
+            }
+        }
+
+        void hostTerminated(int exitCode) {
+            if (!isProcessTerminated()) notifyProcessTerminated(exitCode);
+        }
+
+        private void deployWebapps() {
+            // the readiness probe, the browser and the warmup would wait on a port nothing listens on
+            if (!host.httpPort.equals(config.HTTP_PORT.trim())) {
+                notifyTextAvailable("Shared host " + host.name + " listens on HTTP port " + host.httpPort + ", not on "
+                                    + config.HTTP_PORT + ", set the same HTTP port for all its configurations\n",
+                                    ProcessOutputTypes.STDERR);
+                stop(1);
+                return;
+            }
+            try {
+                for (Map.Entry<String, File> webapp : getWebapps().entrySet()) {
+                    String prefix = webapp.getKey();
+                    String[] answer = host.send("DEPLOY", prefix, webapp.getValue().getPath(),
+                                                "".equals(prefix) ? "ROOT" : prefix.substring(1));
+                    notifyTextAvailable(describeDeploy(prefix, answer) + "\n", ProcessOutputTypes.SYSTEM);
+                }
+            } catch (IOException e) {
+                LOGGER.info("WinstoneSharedHosts: deploy failed", e);
+                notifyTextAvailable("Deploy into shared host " + host.name + " failed: " + e.getMessage() + "\n",
+                                    ProcessOutputTypes.STDERR);
+                stop(1);
+            }
+        }
+
+        /**
+         * @param answer OK, millis, heap bytes added, baseline heap, baseline non-heap, contexts
+         */
+        private String describeDeploy(String prefix, String[] answer) {
+            long millis = Long.parseLong(answer[1]);
+            long heapAdded = Long.parseLong(answer[2]);
+            long baseline = Long.parseLong(answer[3]) + Long.parseLong(answer[4]);
+            int contexts = Integer.parseInt(answer[5]);
+            StringBuilder sb = new StringBuilder();
+            sb.append("Deployed ").append("".equals(prefix) ? "/" : prefix).append(" into shared host ")
+                    .append(host.name).append(" in ").append(millis).append(" ms");
+            long standalone = getStandaloneTimeToReady();
+            if (standalone >= 0) sb.append(" (a separate JVM needed ").append(standalone).append(" ms until ready)");
+            sb.append(", ").append(megabytes(heapAdded)).append(" heap. ");
+            sb.append(contexts).append(contexts == 1 ? " webapp runs" : " webapps run").append(" in one JVM");
+            if (contexts > 1) {
+                sb.append(", saving about ").append(megabytes(baseline * (contexts - 1)))
+                        .append(" of Winstone, commonLib and JVM memory against separate JVMs (")
+                        .append(megabytes(baseline)).append(" each, not counting native JVM overhead)");
+            }
+            return sb.toString();
+        }
+
+        private long getStandaloneTimeToReady() {
+            List<WinstoneTimingRecord> records = WinstoneTimingHistory.getInstance(config.getProject()).getRecords(config.getName());
+            for (int i = records.size() - 1; i >= 0; i--) {
+                WinstoneTimingRecord record = records.get(i);
+                if (!record.failed && "".equals(record.sharedHost) && WinstoneTimingPanel.timeToReady(record) >= 0)
+                    return WinstoneTimingPanel.timeToReady(record);
+            }
+            return -1;
+        }
+
+        /**
+         * @return prefix to webapp directory; the subdirectories for the webappsDir mode
+         */
+        private Map<String, File> getWebapps() {
+            Map<String, File> webapps = new LinkedHashMap<String, File>();
+            File directory = new File(config.WEBAPP_DIRECTORY);
+            if (!config.USE_WEB_APPS) {
+                webapps.put("".equals(config.CONTEXT_NAME) ? "" : "/" + config.CONTEXT_NAME, directory);
+                return webapps;
+            }
+            File[] children = config.getWebappsDirectory().listFiles();
+            if (children == null) return webapps;
+            for (File child : children) {
+                if (!child.isDirectory()) continue;
+                webapps.put("ROOT".equalsIgnoreCase(child.getName()) ? "" : "/" + child.getName(), child);
+            }
+            return webapps;
+        }
+
+        private void undeployWebapps() {
+            for (String prefix : getWebapps().keySet()) {
+                try {
+                    host.send("UNDEPLOY", prefix);
+                } catch (IOException e) {
+                    LOGGER.info("WinstoneSharedHosts: undeploy of " + prefix + " failed", e);
+                }
+            }
+        }
+
+        private void stop(int exitCode) {
+            release(host, this);
+            if (!isProcessTerminated()) notifyProcessTerminated(exitCode);
+        }
+
+        protected void destroyProcessImpl() {
+            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                public void run() {
+                    if (!host.processHandler.isProcessTerminated()) undeployWebapps();
+                    stop(0);
+                }
+            });
+        }
+
+        protected void detachProcessImpl() {
+            destroyProcessImpl();
+        }
+
+        public boolean detachIsDefault() {
+            return false;
+        }
+
+        public OutputStream getProcessInput() {
+            return null;
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,368 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneStandbyMain;
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.CommandLineBuilder;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps pre-spawned JVMs that already loaded the Winstone classes, so that a Run only has to hand over the
+ * program arguments.
+ * <p/>
+ * Pools are keyed by the project, the configuration name and everything of the JavaParameters but the program
+ * parameters, so a changed run configuration gets a new pool and its old one is destroyed. Idle standbys are
+ * reclaimed after {@link #IDLE_TIMEOUT} and the oldest ones are destroyed when the estimated memory of all standbys
+ * exceeds the budget (system property <code>winstone.standby.memoryBudgetMb</code>, 1024 MB by default).
+ */
+public class WinstoneStandbyPool implements Disposable {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(30);
+    private static final long READY_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+    private static final long BASE_MEMORY_MB = 48;
+    private static final long DEFAULT_HEAP_MB = 64;
+    private static final String[] PRELOAD_CLASSES = {
+            "winstone.HostGroup", "winstone.HostConfiguration", "winstone.WebAppConfiguration",
+            "winstone.WebXmlParser", "winstone.ObjectPool", "winstone.HttpListener", "winstone.RequestHandlerThread",
+            "winstone.WinstoneRequest", "winstone.WinstoneResponse", "winstone.classLoader.WebappClassLoader",
+    };
+
+    public static class Standby {
+        private final Process process;
+        private final String commandLine;
+        private final long memoryMb;
+        private final long since = System.currentTimeMillis();
+        private final ScheduledFuture<?> stderrDrainer;
+        private boolean drainStopped;
+
+        Standby(Process _process, String _commandLine, long _memoryMb) {
+            process = _process;
+            commandLine = _commandLine;
+            memoryMb = _memoryMb;
+            // a full stderr pipe would block the waiting JVM; the run's process handler reads it after the hand-over
+            stderrDrainer = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    drainStderr();
+                }
+            }, 0, 500, TimeUnit.MILLISECONDS);
+        }
+
+        public Process getProcess() {
+            return process;
+        }
+
+        public String getCommandLine() {
+            return commandLine;
+        }
+
+        /**
+         * Sends the program parameters, one per line in UTF-8 as {@link WinstoneStandbyMain} reads them.
+         *
+         * @throws IOException also when a parameter contains a line break, it cannot be handed over then
+         */
+        public void handOver(List<String> programParameters) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            sb.append(programParameters.size()).append('\n');
+            for (String parameter : programParameters) {
+                if (parameter.indexOf('\n') >= 0 || parameter.indexOf('\r') >= 0)
+                    throw new IOException("Program parameter with a line break: " + parameter);
+                sb.append(parameter).append('\n');
+            }
+            stopDraining();
+            OutputStream out = process.getOutputStream();
+            out.write(sb.toString().getBytes(WinstoneStandbyMain.CHARSET));
+            out.flush();
+        }
+
+        public void destroy() {
+            stopDraining();
+            process.destroy();
+        }
+
+        /**
+         * Stops the drainer; once this returns, nothing of the stderr is read here anymore.
+         */
+        private synchronized void stopDraining() {
+            drainStopped = true;
+            stderrDrainer.cancel(false);
+        }
+
+        private synchronized void drainStderr() {
+            if (drainStopped) return;
+            try {
+                InputStream err = process.getErrorStream();
+                int available = err.available();
+                if (available <= 0) return;
+                byte[] buffer = new byte[available];
+                int read = err.read(buffer);
+                if (read > 0) LOGGER.info("WinstoneStandbyPool: standby stderr: " + new String(buffer, 0, read).trim());
+            } catch (IOException e) {
+                stopDraining();
+            }
+        }
+
+        boolean isAlive() {
+            try {
+                process.exitValue();
+                return false;
+            } catch (IllegalThreadStateException e) {
+                return true;
+            }
+        }
+    }
+
+    private final Map<String, LinkedList<Standby>> pools = new HashMap<String, LinkedList<Standby>>();
+    private final Map<String, Integer> sizes = new HashMap<String, Integer>();
+    private final Map<String, String> keysByConfiguration = new HashMap<String, String>();
+    private final Set<String> refilling = new HashSet<String>();
+    private final ScheduledFuture<?> reclaimer;
+
+
+    public static WinstoneStandbyPool getInstance() {
+        return ServiceManager.getService(WinstoneStandbyPool.class);
+    }
+
+    public WinstoneStandbyPool() {
+        reclaimer = JobScheduler.getScheduler().scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                reclaimIdle();
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Takes a ready standby for the given parameters and starts warming up its replacement.
+     *
+     * @return null when no standby is ready yet, the caller launches the usual way then
+     */
+    public Standby take(WinstoneConfiguration config, JavaParameters params, int size) {
+        String key = getConfigurationKey(config) + '\n' + createKey(params);
+        Standby standby = null;
+        synchronized (this) {
+            String previous = keysByConfiguration.put(getConfigurationKey(config), key);
+            if (previous != null && !previous.equals(key)) destroyPool(previous);
+            sizes.put(key, Math.max(size, 1));
+            LinkedList<Standby> pool = pools.get(key);
+            while (pool != null && !pool.isEmpty() && standby == null) {
+                Standby candidate = pool.removeFirst();
+                if (candidate.isAlive()) standby = candidate;
+            }
+        }
+        refill(key, params);
+        return standby;
+    }
+
+    public synchronized void invalidate(WinstoneConfiguration config) {
+        String key = keysByConfiguration.remove(getConfigurationKey(config));
+        if (key != null) destroyPool(key);
+    }
+
+    private static String getConfigurationKey(WinstoneConfiguration config) {
+        return config.getProject().getName() + "/" + config.getName();
+    }
+
+    private void refill(final String key, final JavaParameters params) {
+        synchronized (this) {
+            if (!refilling.add(key)) return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    while (true) {
+                        synchronized (WinstoneStandbyPool.this) {
+                            Integer size = sizes.get(key);
+                            LinkedList<Standby> pool = pools.get(key);
+                            if (size == null || (pool != null && pool.size() >= size)) break;
+                        }
+                        Standby standby = spawn(params);
+                        synchronized (WinstoneStandbyPool.this) {
+                            if (!sizes.containsKey(key)) {
+                                standby.destroy();
+                                break;
+                            }
+                            LinkedList<Standby> pool = pools.get(key);
+                            if (pool == null) pools.put(key, pool = new LinkedList<Standby>());
+                            pool.add(standby);
+                            enforceBudget();
+                            if (!pool.contains(standby)) break;
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.info("WinstoneStandbyPool: could not spawn a standby JVM", e);
+                } finally {
+                    synchronized (WinstoneStandbyPool.this) {
+                        refilling.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private Standby spawn(JavaParameters params) throws ExecutionException, IOException {
+        JavaParameters standbyParams = new JavaParameters();
+        standbyParams.setJdk(params.getJdk());
+        standbyParams.setWorkingDirectory(params.getWorkingDirectory());
+        standbyParams.setEnv(params.getEnv());
+        standbyParams.setPassParentEnvs(params.isPassParentEnvs());
+        standbyParams.setCharset(params.getCharset());
+        standbyParams.getVMParametersList().addAll(params.getVMParametersList().getList());
+        standbyParams.getClassPath().addAll(params.getClassPath().getPathList());
+        standbyParams.getClassPath().add(WinstoneRuntimeJar.get("winstone-ce-standby", WinstoneStandbyMain.class));
+        standbyParams.setMainClass(WinstoneStandbyMain.class.getName());
+        standbyParams.getProgramParametersList().add(params.getMainClass());
+        standbyParams.getProgramParametersList().addAll(PRELOAD_CLASSES);
+
+        GeneralCommandLine commandLine = CommandLineBuilder.createFromJavaParameters(standbyParams);
+        String displayed = CommandLineBuilder.createFromJavaParameters(params).getCommandLineString();
+        Standby standby = new Standby(commandLine.createProcess(), displayed,
+                                      estimateMemory(params.getVMParametersList().getList()));
+        try {
+            awaitReady(standby);
+        } catch (IOException e) {
+            standby.destroy();
+            throw e;
+        }
+        return standby;
+    }
+
+    /**
+     * Reads the standby's stdout byte by byte up to the ready line, so that nothing after it is swallowed. Only the
+     * available bytes are read, so a silent JVM cannot block past {@link #READY_TIMEOUT}.
+     */
+    private static void awaitReady(Standby standby) throws IOException {
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        InputStream in = standby.getProcess().getInputStream();
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            while (in.available() > 0) {
+                int c = in.read();
+                if (c < 0) break;
+                if (c == '\n') {
+                    if (line.toString().trim().equals(WinstoneStandbyMain.READY)) return;
+                    line.setLength(0);
+                } else {
+                    line.append((char) c);
+                }
+            }
+            if (!standby.isAlive()) throw new IOException("Standby JVM exited before it was ready");
+            if (System.currentTimeMillis() >= deadline) throw new IOException("Standby JVM was not ready in time");
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the standby JVM");
+            }
+        }
+    }
+
+    static long estimateMemory(List<String> vmOptions) {
+        long heap = DEFAULT_HEAP_MB;
+        for (String option : vmOptions) {
+            if (option.startsWith("-Xms")) heap = parseSizeMb(option.substring(4), heap);
+        }
+        return BASE_MEMORY_MB + heap;
+    }
+
+    static long parseSizeMb(String size, long defaultValue) {
+        if (size.length() == 0) return defaultValue;
+        char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+        String digits = Character.isDigit(unit) ? size : size.substring(0, size.length() - 1);
+        try {
+            long value = Long.parseLong(digits);
+            switch (unit) {
+                case 'g':
+                    return value * 1024;
+                case 'm':
+                    return value;
+                case 'k':
+                    return value / 1024;
+                default:
+                    return value / (1024 * 1024);
+            }
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static long getMemoryBudgetMb() {
+        return Long.getLong("winstone.standby.memoryBudgetMb", 1024);
+    }
+
+    private synchronized void enforceBudget() {
+        long budget = getMemoryBudgetMb();
+        while (true) {
+            long total = 0;
+            Standby oldest = null;
+            LinkedList<Standby> oldestPool = null;
+            for (LinkedList<Standby> pool : pools.values()) {
+                for (Standby standby : pool) {
+                    total += standby.memoryMb;
+                    if (oldest == null || standby.since < oldest.since) {
+                        oldest = standby;
+                        oldestPool = pool;
+                    }
+                }
+            }
+            if (total <= budget || oldest == null) return;
+            LOGGER.info("WinstoneStandbyPool: memory budget of " + budget + " MB exceeded, destroying a standby JVM");
+            oldestPool.remove(oldest);
+            oldest.destroy();
+        }
+    }
+
+    private synchronized void reclaimIdle() {
+        long now = System.currentTimeMillis();
+        for (LinkedList<Standby> pool : pools.values()) {
+            for (Iterator<Standby> it = pool.iterator(); it.hasNext();) {
+                Standby standby = it.next();
+                if (!standby.isAlive() || now - standby.since > IDLE_TIMEOUT) {
+                    it.remove();
+                    standby.destroy();
+                }
+            }
+        }
+    }
+
+    private void destroyPool(String key) {
+        sizes.remove(key);
+        LinkedList<Standby> pool = pools.remove(key);
+        if (pool == null) return;
+        for (Standby standby : pool) standby.destroy();
+    }
+
+    static String createKey(JavaParameters params) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(params.getJdk() != null ? params.getJdk().getHomePath() : "").append('\n');
+        sb.append(params.getWorkingDirectory()).append('\n');
+        sb.append(params.getMainClass()).append('\n');
+        sb.append(params.getVMParametersList().getList()).append('\n');
+        sb.append(params.getClassPath().getPathList()).append('\n');
+        sb.append(params.getEnv()).append(params.isPassParentEnvs()).append('\n');
+        return sb.toString();
+    }
+
+    public synchronized void dispose() {
+        reclaimer.cancel(false);
+        for (String key : new ArrayList<String>(pools.keySet())) destroyPool(key);
+    }
+}
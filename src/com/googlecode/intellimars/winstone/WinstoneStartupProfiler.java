@@ -0,0 +1,226 @@
+package com.googlecode.intellimars.winstone;
+
+import com.googlecode.intellimars.winstone.rt.WinstoneJfrSummary;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.CommandLineBuilder;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.configurations.JavaParameters;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.projectRoots.Sdk;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.messages.MessageBusConnection;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records a Java Flight Recorder profile of a Winstone startup.
+ * <p/>
+ * The recording starts with the JVM and is stopped over <code>jcmd</code> as soon as the webapp is ready (or the
+ * startup failed), so it covers web.xml parsing, class loading and servlet init but not the idle server. Class
+ * loading is taken from <code>-Xlog:class+load</code> up to the same moment. When the process id of the JVM cannot
+ * be determined, the recording is dumped at the exit of the JVM instead and covers the whole run.
+ */
+public class WinstoneStartupProfiler extends ProcessAdapter implements WinstoneListener {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final String RECORDING = "winstone-startup";
+    private static final long TOOL_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    private final WinstoneConfiguration config;
+    private final long start = System.nanoTime();
+    private Sdk jdk;
+    private File recording;
+    private File classLoadLog;
+    private OSProcessHandler processHandler;
+    private ConsoleView console;
+    private MessageBusConnection connection;
+    private boolean stopped;
+    private long classLoadLogLength = -1;
+    private long windowMillis = -1;
+
+
+    public WinstoneStartupProfiler(WinstoneConfiguration _config) {
+        config = _config;
+    }
+
+    /**
+     * Adds the recording options to the VM parameters.
+     *
+     * @return false when the JDK has no Flight Recorder, the configuration is launched the usual way then
+     */
+    public boolean configure(JavaParameters javaParameters) {
+        jdk = javaParameters.getJdk();
+        int version = jdk != null ? WinstoneCdsArchive.parseFeatureVersion(jdk.getVersionString()) : 0;
+        if (version < 11) return false;
+        // the location hash tells apart projects of the same name, and copies of one project
+        String key = config.getProject().getLocationHash() + "/" + config.getName();
+        File dir = new File(WinstoneRuntimeConfiguration.PROFILE_DIRECTORY, WinstoneDigest.sha1(key).substring(0, 12));
+        dir.mkdirs();
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        recording = new File(dir, name + ".jfr");
+        classLoadLog = new File(dir, name + "-classload.log");
+        javaParameters.getVMParametersList().add("-XX:StartFlightRecording=name=" + RECORDING
+                                                 + ",settings=profile,dumponexit=true,filename=" + recording.getPath());
+        javaParameters.getVMParametersList().add("-Xlog:class+load=info:file=\"" + classLoadLog.getPath() + "\"");
+        return true;
+    }
+
+    public boolean isConfigured() {
+        return recording != null;
+    }
+
+    public void attachTo(OSProcessHandler _processHandler, ConsoleView _console) {
+        processHandler = _processHandler;
+        console = _console;
+        processHandler.addProcessListener(this);
+        connection = config.getProject().getMessageBus().connect();
+        connection.subscribe(WinstoneListener.TOPIC, this);
+    }
+
+    public void winstoneEvent(WinstoneEvent event) {
+        if (event.getProcessHandler() != processHandler) return;
+        switch (event.getType()) {
+            case SERVER_STARTED:
+                if (!WinstoneReadinessProbe.isApplicable(config)) stopInBackground();
+                break;
+            case READY:
+            case NOT_READY:
+            case STARTUP_FAILED:
+                stopInBackground();
+                break;
+        }
+    }
+
+    public void processTerminated(ProcessEvent event) {
+        connection.disconnect();
+        // dumponexit has written the recording if it was not stopped before
+        stopInBackground();
+    }
+
+    private void stopInBackground() {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            windowMillis = (System.nanoTime() - start) / 1000000L;
+            classLoadLogLength = classLoadLog.length();
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    if (!processHandler.isProcessTerminated()) stopRecording();
+                    WinstoneProfileReport report = summarize();
+                    if (config.getProject().isDisposed()) return;
+                    WinstoneProfileResults.getInstance(config.getProject()).add(report);
+                    console.print(report.toString(), ConsoleViewContentType.SYSTEM_OUTPUT);
+                    console.print("The full profile is in the Startup Profile tab of the Winstone tool window, the recording in "
+                                  + recording.getPath() + "\n", ConsoleViewContentType.SYSTEM_OUTPUT);
+                } catch (Exception e) {
+                    LOGGER.info("WinstoneStartupProfiler", e);
+                    console.print("Startup profile failed: " + e.getMessage() + "\n", ConsoleViewContentType.ERROR_OUTPUT);
+                }
+            }
+        });
+    }
+
+    private void stopRecording() throws ExecutionException {
+        int pid = getProcessId(processHandler.getProcess());
+        if (pid < 0) {
+            console.print("Startup profile: the process id is unknown, the recording is written when Winstone stops\n",
+                          ConsoleViewContentType.SYSTEM_OUTPUT);
+            windowMillis = -1;
+            classLoadLogLength = -1;
+            waitForExit();
+            return;
+        }
+        GeneralCommandLine commandLine = new GeneralCommandLine();
+        commandLine.setExePath(getJdkTool("jcmd"));
+        commandLine.addParameters(String.valueOf(pid), "JFR.stop", "name=" + RECORDING, "filename=" + recording.getPath());
+        ProcessOutput output = new CapturingProcessHandler(commandLine.createProcess()).runProcess((int) TOOL_TIMEOUT);
+        if (output.getExitCode() != 0 || !recording.isFile())
+            throw new ExecutionException("jcmd JFR.stop failed: " + output.getStdout() + output.getStderr());
+    }
+
+    private void waitForExit() {
+        while (!processHandler.isProcessTerminated()) {
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private WinstoneProfileReport summarize() throws ExecutionException, IOException {
+        JavaParameters summaryParameters = new JavaParameters();
+        summaryParameters.setJdk(jdk);
+        summaryParameters.getClassPath().add(WinstoneRuntimeJar.get("winstone-ce-jfr", WinstoneJfrSummary.class));
+        summaryParameters.setMainClass(WinstoneJfrSummary.class.getName());
+        summaryParameters.getProgramParametersList().add(recording.getPath());
+        GeneralCommandLine commandLine = CommandLineBuilder.createFromJavaParameters(summaryParameters);
+        ProcessOutput output = new CapturingProcessHandler(commandLine.createProcess()).runProcess((int) TOOL_TIMEOUT);
+        if (output.getExitCode() != 0)
+            throw new ExecutionException("could not read " + recording.getPath() + ": " + output.getStderr());
+
+        WinstoneProfileReport report = new WinstoneProfileReport(config.getName());
+        report.setWindowMillis(windowMillis);
+        for (String line : output.getStdoutLines()) report.addSummaryLine(line);
+        report.addLoadedClasses(readLoadedClasses());
+        return report;
+    }
+
+    private List<String> readLoadedClasses() throws IOException {
+        List<String> result = new ArrayList<String>();
+        if (!classLoadLog.isFile()) return result;
+        long limit = classLoadLogLength >= 0 ? classLoadLogLength : Long.MAX_VALUE;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(classLoadLog), "UTF-8"));
+        try {
+            long read = 0;
+            String line;
+            while ((line = reader.readLine()) != null && (read += line.length() + 1) <= limit) {
+                String className = WinstoneProfileReport.parseClassLoadLine(line);
+                if (className != null) result.add(className);
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private String getJdkTool(String name) {
+        return jdk.getHomePath() + File.separator + "bin" + File.separator + name + (SystemInfo.isWindows ? ".exe" : "");
+    }
+
+    /**
+     * @return the id of the process, -1 if neither Process.pid() (Java 9) nor the field of UNIXProcess is there
+     */
+    static int getProcessId(Process process) {
+        try {
+            return ((Number) Process.class.getMethod("pid").invoke(process)).intValue();
+        } catch (Exception ignored) {
+        }
+        try {
+            Field field = process.getClass().getDeclaredField("pid");
+            field.setAccessible(true);
+            return field.getInt(process);
+        } catch (Exception ignored) {
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,82 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.xmlb.annotations.AbstractCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Launch timings of the Winstone run configurations of a project, kept in the workspace file.
+ */
+@State(name = "WinstoneTimingHistory", storages = {@Storage(id = "other", file = "$WORKSPACE_FILE$")})
+public class WinstoneTimingHistory extends WinstoneChangeSource
+        implements PersistentStateComponent<WinstoneTimingHistory.HistoryState> {
+    private static final int MAX_RECORDS_PER_CONFIGURATION = 30;
+
+    public static class HistoryState {
+        @AbstractCollection(surroundWithTag = false)
+        public List<WinstoneTimingRecord> records = new ArrayList<WinstoneTimingRecord>();
+    }
+
+    private HistoryState state = new HistoryState();
+
+
+    public static WinstoneTimingHistory getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneTimingHistory.class);
+    }
+
+    public void add(WinstoneTimingRecord record) {
+        synchronized (this) {
+            state.records.add(record);
+            int count = 0;
+            for (int i = state.records.size() - 1; i >= 0; i--) {
+                if (state.records.get(i).configuration.equals(record.configuration)
+                    && ++count > MAX_RECORDS_PER_CONFIGURATION) {
+                    state.records.remove(i);
+                }
+            }
+        }
+        fireChanged();
+    }
+
+    /**
+     * @return the records of the given run configuration, oldest first
+     */
+    public synchronized List<WinstoneTimingRecord> getRecords(String configuration) {
+        List<WinstoneTimingRecord> result = new ArrayList<WinstoneTimingRecord>();
+        for (WinstoneTimingRecord record : state.records) {
+            if (record.configuration.equals(configuration)) result.add(record);
+        }
+        return result;
+    }
+
+    public synchronized List<String> getConfigurations() {
+        List<String> result = new ArrayList<String>();
+        for (WinstoneTimingRecord record : state.records) {
+            if (!result.contains(record.configuration)) result.add(record.configuration);
+        }
+        return result;
+    }
+
+    public void clear(String configuration) {
+        synchronized (this) {
+            for (int i = state.records.size() - 1; i >= 0; i--) {
+                if (state.records.get(i).configuration.equals(configuration)) state.records.remove(i);
+            }
+        }
+        fireChanged();
+    }
+
+    public synchronized HistoryState getState() {
+        return state;
+    }
+
+    public synchronized void loadState(HistoryState _state) {
+        state = _state;
+    }
+}
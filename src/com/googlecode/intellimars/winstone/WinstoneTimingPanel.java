@@ -0,0 +1,199 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows the {@link WinstoneTimingHistory} of one run configuration, newest launch first.
+ * The trend column compares the time until the webapp was ready with the mean of the previous launches.
+ */
+public class WinstoneTimingPanel extends JPanel implements Disposable, WinstoneChangeSource.Listener {
+    private static final int TREND_WINDOW = 5;
+    private static final String[] COLUMNS = {
+            "Started", "Java parameters", "Spawn", "First output", "Deployed", "Listener", "Ready", "Trend", "CDS", "Settings"
+    };
+
+    private final WinstoneTimingHistory history;
+    private final JComboBox configurations = new JComboBox();
+    private final JLabel summary = new JLabel();
+    private final TimingTableModel model = new TimingTableModel();
+
+
+    public WinstoneTimingPanel(Project project) {
+        super(new BorderLayout());
+        history = WinstoneTimingHistory.getInstance(project);
+
+        JPanel north = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        north.add(new JLabel("Configuration"));
+        north.add(configurations);
+        JButton clear = new JButton("Clear");
+        north.add(clear);
+        north.add(summary);
+        add(north, BorderLayout.NORTH);
+        add(new JScrollPane(new JTable(model)), BorderLayout.CENTER);
+
+        configurations.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refreshTable();
+            }
+        });
+        clear.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                String selected = (String) configurations.getSelectedItem();
+                if (selected != null) history.clear(selected);
+            }
+        });
+        history.addChangeListener(this);
+        refresh();
+    }
+
+    public void changed() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        });
+    }
+
+    public void dispose() {
+        history.removeChangeListener(this);
+    }
+
+    private void refresh() {
+        Object selected = configurations.getSelectedItem();
+        configurations.removeAllItems();
+        for (String name : history.getConfigurations()) configurations.addItem(name);
+        if (selected != null) configurations.setSelectedItem(selected);
+        refreshTable();
+    }
+
+    private void refreshTable() {
+        String selected = (String) configurations.getSelectedItem();
+        List<WinstoneTimingRecord> records = selected == null ?
+                                             new ArrayList<WinstoneTimingRecord>() : history.getRecords(selected);
+        model.setRecords(records);
+        long recent = meanTimeToReady(records, records.size() - TREND_WINDOW, records.size());
+        long before = meanTimeToReady(records, records.size() - 2 * TREND_WINDOW, records.size() - TREND_WINDOW);
+        StringBuilder sb = new StringBuilder();
+        if (recent >= 0) {
+            sb.append("Mean time to ready: ").append(recent).append(" ms");
+            if (before >= 0)
+                sb.append(" (").append(signed(recent - before)).append(" ms against the ").append(TREND_WINDOW)
+                        .append(" launches before)");
+        }
+        long shared = meanTimeToReady(filter(records, WinstoneCdsArchive.MODE_SHARED), 0, Integer.MAX_VALUE);
+        long notShared = meanTimeToReady(filter(records, WinstoneCdsArchive.MODE_OFF), 0, Integer.MAX_VALUE);
+        if (shared >= 0 && notShared >= 0) {
+            sb.append("  /  with CDS archive: ").append(shared).append(" ms, without: ").append(notShared).append(" ms");
+        }
+        summary.setText(sb.toString());
+    }
+
+    private static List<WinstoneTimingRecord> filter(List<WinstoneTimingRecord> records, String classDataSharing) {
+        List<WinstoneTimingRecord> result = new ArrayList<WinstoneTimingRecord>();
+        for (WinstoneTimingRecord record : records) {
+            if (classDataSharing.equals(record.classDataSharing)) result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * @return the mean time to ready of the successful launches in [from, to), -1 if there are none
+     */
+    static long meanTimeToReady(List<WinstoneTimingRecord> records, int from, int to) {
+        long sum = 0;
+        int count = 0;
+        for (int i = Math.max(0, from); i < Math.min(to, records.size()); i++) {
+            WinstoneTimingRecord record = records.get(i);
+            if (record.failed || timeToReady(record) < 0) continue;
+            sum += timeToReady(record);
+            count++;
+        }
+        return count == 0 ? -1 : sum / count;
+    }
+
+    /**
+     * Launches without an answer of the readiness probe count until the HTTP listener was up.
+     */
+    static long timeToReady(WinstoneTimingRecord record) {
+        return record.ready >= 0 ? record.ready : record.listenerStarted;
+    }
+
+    private static String signed(long value) {
+        return value > 0 ? "+" + value : String.valueOf(value);
+    }
+
+    private static String millis(long value) {
+        return value < 0 ? "-" : value + " ms";
+    }
+
+    private static class TimingTableModel extends AbstractTableModel {
+        private List<WinstoneTimingRecord> records = new ArrayList<WinstoneTimingRecord>();
+
+        void setRecords(List<WinstoneTimingRecord> _records) {
+            records = _records;
+            fireTableDataChanged();
+        }
+
+        public int getRowCount() {
+            return records.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            int index = records.size() - 1 - row;
+            WinstoneTimingRecord record = records.get(index);
+            switch (column) {
+                case 0:
+                    return DateFormat.getDateTimeInstance().format(new Date(record.timestamp));
+                case 1:
+                    return millis(record.javaParameters);
+                case 2:
+                    return millis(record.processSpawn);
+                case 3:
+                    return millis(record.firstOutput);
+                case 4:
+                    return millis(record.webappDeployed);
+                case 5:
+                    return record.failed ? "failed" : millis(record.listenerStarted);
+                case 6:
+                    return millis(record.ready);
+                case 7:
+                    return trend(index);
+                case 8:
+                    return record.classDataSharing;
+                default:
+                    return record.settings;
+            }
+        }
+
+        private String trend(int index) {
+            WinstoneTimingRecord record = records.get(index);
+            if (record.failed || timeToReady(record) < 0) return "";
+            long mean = meanTimeToReady(records, index - TREND_WINDOW, index);
+            if (mean < 0) return "";
+            String trend = signed(timeToReady(record) - mean) + " ms";
+            if (index > 0 && !records.get(index - 1).settings.equals(record.settings))
+                trend += " (settings changed)";
+            return trend;
+        }
+    }
+}
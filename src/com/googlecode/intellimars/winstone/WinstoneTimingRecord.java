@@ -0,0 +1,51 @@
+package com.googlecode.intellimars.winstone;
+
+/**
+ * One launch in the {@link WinstoneTimingHistory}. Public fields are serialized into the workspace file.
+ */
+public class WinstoneTimingRecord {
+    public String configuration = "";
+    public long timestamp;
+    public long javaParameters = -1;
+    public long processSpawn = -1;
+    public long firstOutput = -1;
+    public long webappDeployed = -1;
+    public long listenerStarted = -1;
+    public long ready = -1;
+    public boolean failed;
+    public String classDataSharing = WinstoneCdsArchive.MODE_OFF;
+    public String settings = "";
+    public String sharedHost = "";
+
+
+    public WinstoneTimingRecord() {
+    }
+
+    public WinstoneTimingRecord(WinstoneConfiguration config, long[] marks, boolean _failed) {
+        configuration = config.getName();
+        timestamp = System.currentTimeMillis();
+        javaParameters = marks[WinstoneLaunchTiming.Phase.JAVA_PARAMETERS.ordinal()];
+        processSpawn = marks[WinstoneLaunchTiming.Phase.PROCESS_SPAWN.ordinal()];
+        firstOutput = marks[WinstoneLaunchTiming.Phase.FIRST_OUTPUT.ordinal()];
+        webappDeployed = marks[WinstoneLaunchTiming.Phase.WEBAPP_DEPLOYED.ordinal()];
+        listenerStarted = marks[WinstoneLaunchTiming.Phase.LISTENER_STARTED.ordinal()];
+        ready = marks[WinstoneLaunchTiming.Phase.READY.ordinal()];
+        failed = _failed;
+        settings = describeSettings(config);
+        sharedHost = config.SHARED_HOST.trim();
+    }
+
+    /**
+     * The settings that typically change the startup time, so that a slower run can be traced back to them.
+     */
+    static String describeSettings(WinstoneConfiguration config) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("commonLib=").append(config.COMMONLIB_DIRECTORY);
+        if (config.INDEXED_CLASSPATH) sb.append(" (deduplicated)");
+        sb.append(" vm=").append(config.VM_PARAMETERS);
+        sb.append(" jasper=").append(config.USE_JASPER);
+        if (config.USE_JASPER && config.PRECOMPILE_JSP) sb.append(" (precompiled)");
+        if (config.isSharedHost()) sb.append(" sharedHost=").append(config.SHARED_HOST.trim());
+        return sb.toString();
+    }
+}
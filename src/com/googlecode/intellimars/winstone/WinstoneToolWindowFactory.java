@@ -0,0 +1,40 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+
+public class WinstoneToolWindowFactory implements ToolWindowFactory {
+    public static final String ID = "Winstone";
+
+    public void createToolWindowContent(Project project, ToolWindow toolWindow) {
+        ContentFactory contentFactory = ContentFactory.SERVICE.getInstance();
+
+        WinstoneTimingPanel timingPanel = new WinstoneTimingPanel(project);
+        Content timings = contentFactory.createContent(timingPanel, "Launch Timings", false);
+        timings.setDisposer(timingPanel);
+        toolWindow.getContentManager().addContent(timings);
+
+        WinstoneBenchmarkPanel benchmarkPanel = new WinstoneBenchmarkPanel(project);
+        Content benchmarks = contentFactory.createContent(benchmarkPanel, "Benchmarks", false);
+        benchmarks.setDisposer(benchmarkPanel);
+        toolWindow.getContentManager().addContent(benchmarks);
+
+        WinstoneProfilePanel profilePanel = new WinstoneProfilePanel(project);
+        Content profiles = contentFactory.createContent(profilePanel, "Startup Profile", false);
+        profiles.setDisposer(profilePanel);
+        toolWindow.getContentManager().addContent(profiles);
+
+        WinstoneAccessLogPanel accessLogPanel = new WinstoneAccessLogPanel(project);
+        Content requests = contentFactory.createContent(accessLogPanel, "Requests", false);
+        requests.setDisposer(accessLogPanel);
+        toolWindow.getContentManager().addContent(requests);
+
+        WinstoneRequestTimingPanel requestTimingPanel = new WinstoneRequestTimingPanel(project);
+        Content servletTimings = contentFactory.createContent(requestTimingPanel, "Servlet Timings", false);
+        servletTimings.setDisposer(requestTimingPanel);
+        toolWindow.getContentManager().addContent(servletTimings);
+    }
+}
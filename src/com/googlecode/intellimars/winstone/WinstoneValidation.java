@@ -0,0 +1,207 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.ProjectTopics;
+import com.intellij.execution.configurations.JavaRunConfigurationModule;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.module.Module;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ModuleRootEvent;
+import com.intellij.openapi.roots.ModuleRootListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.text.MessageFormat;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+/**
+ * The expensive parts of {@link WinstoneConfiguration#checkConfiguration()}, which the run configuration dialog calls
+ * on the event dispatch thread after every edit.
+ * <p/>
+ * The modules with Winstone on their classpath are looked up once and again only after the project roots changed.
+ * Whether the HTTP and AJP13 ports are free and winstone.jar and the commonLib jars can be read is checked on a
+ * pooled thread; {@link #getProblem} answers from the result for the same inputs and checks again in the background
+ * once it is {@link #RECHECK_INTERVAL} ms old, reopening only the jars whose size or date changed.
+ */
+public class WinstoneValidation extends WinstoneChangeSource implements Disposable {
+    private static ResourceBundle ourBundle = ResourceBundle.getBundle("com.googlecode.intellimars.winstone.message");
+    private static final long RECHECK_INTERVAL = 5000;
+    private static final int MAX_RESULTS = 32;
+
+    public static class Problem {
+        public final String message;
+        // a busy port may be this configuration still running, the launch is up to the user
+        public final boolean warning;
+
+        Problem(String _message, boolean _warning) {
+            message = _message;
+            warning = _warning;
+        }
+    }
+
+    private static class Result {
+        final Problem problem;
+        final long checked;
+
+        Result(Problem _problem, long _checked) {
+            problem = _problem;
+            checked = _checked;
+        }
+    }
+
+    private final Project project;
+    private volatile Collection<Module> validModules;
+    private volatile int rootChanges;
+    private final Map<String, Result> results = new LinkedHashMap<String, Result>() {
+        protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+            return size() > MAX_RESULTS;
+        }
+    };
+    private final Set<String> pending = new HashSet<String>();
+    // path of a jar that could be read -> its size and date then
+    private final Map<String, String> readableJars = new HashMap<String, String>();
+
+
+    public static WinstoneValidation getInstance(Project project) {
+        return ServiceManager.getService(project, WinstoneValidation.class);
+    }
+
+    public WinstoneValidation(Project _project) {
+        project = _project;
+        _project.getMessageBus().connect(this).subscribe(ProjectTopics.PROJECT_ROOTS, new ModuleRootListener() {
+            public void beforeRootsChange(ModuleRootEvent event) {
+            }
+
+            public void rootsChanged(ModuleRootEvent event) {
+                rootChanges++;
+                validModules = null;
+            }
+        });
+    }
+
+    public Collection<Module> getValidModules() {
+        Collection<Module> modules = validModules;
+        if (modules == null) {
+            int changes = rootChanges;
+            modules = JavaRunConfigurationModule.getModulesForClass(project, WinstoneConfiguration.WINSTONE_RUN_CLASS);
+            // the roots changed while looking, the next call looks again
+            if (changes == rootChanges) validModules = modules;
+        }
+        return modules;
+    }
+
+    /**
+     * @return the problem the last check with the same inputs found, null if none or if they were not checked yet
+     */
+    public Problem getProblem(WinstoneConfiguration config) {
+        final String httpPort = config.HTTP_PORT.trim();
+        final String ajp13Port = config.AJP13_PORT.trim();
+        final String winstoneJar = config.WINSTONE_JAR;
+        final String commonLib = config.COMMONLIB_DIRECTORY;
+        final String key = httpPort + "|" + ajp13Port + "|" + winstoneJar + "|" + commonLib;
+        Result result;
+        synchronized (this) {
+            result = results.get(key);
+            if (result != null && System.currentTimeMillis() - result.checked < RECHECK_INTERVAL) return result.problem;
+            if (!pending.add(key)) return result == null ? null : result.problem;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                Problem problem = check(httpPort, ajp13Port, winstoneJar, commonLib);
+                Result previous;
+                synchronized (WinstoneValidation.this) {
+                    pending.remove(key);
+                    previous = results.put(key, new Result(problem, System.currentTimeMillis()));
+                }
+                if (previous == null || !same(previous.problem, problem)) fireChanged();
+            }
+        });
+        return result == null ? null : result.problem;
+    }
+
+    private Problem check(String httpPort, String ajp13Port, String winstoneJar, String commonLib) {
+        if (!"".equals(winstoneJar) && !isReadableJar(new File(winstoneJar)))
+            return new Problem(MessageFormat.format(ourBundle.getString("error.jar.unreadable"), winstoneJar), false);
+        if (!"".equals(commonLib)) {
+            File[] files = new File(commonLib).listFiles();
+            if (files == null)
+                return new Problem(MessageFormat.format(ourBundle.getString("error.commonlib.unreadable"), commonLib), false);
+            for (File file : files) {
+                String name = file.getName().toLowerCase();
+                if (!file.isFile() || !name.endsWith(".jar") && !name.endsWith(".zip")) continue;
+                if (!isReadableJar(file))
+                    return new Problem(MessageFormat.format(ourBundle.getString("error.jar.unreadable"), file.getPath()), false);
+            }
+        }
+        for (String port : new String[]{httpPort, ajp13Port}) {
+            if (!isFree(port))
+                return new Problem(MessageFormat.format(ourBundle.getString("error.port.in.use"), port), true);
+        }
+        return null;
+    }
+
+    private boolean isReadableJar(File file) {
+        String stamp = file.length() + "/" + file.lastModified();
+        synchronized (readableJars) {
+            if (stamp.equals(readableJars.get(file.getPath()))) return true;
+        }
+        try {
+            new JarFile(file).close();
+        } catch (IOException e) {
+            return false;
+        }
+        synchronized (readableJars) {
+            readableJars.put(file.getPath(), stamp);
+        }
+        return true;
+    }
+
+    /**
+     * @return false if something listens on the port; true for a free port and for anything that is not a port
+     */
+    private static boolean isFree(String port) {
+        int number;
+        try {
+            number = Integer.parseInt(port);
+        } catch (NumberFormatException e) {
+            return true;
+        }
+        if (number < 1 || number > 65535) return true;
+        ServerSocket socket = null;
+        try {
+            socket = new ServerSocket();
+            socket.bind(new InetSocketAddress(number));
+            return true;
+        } catch (BindException e) {
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static boolean same(Problem a, Problem b) {
+        return a == null ? b == null : b != null && a.message.equals(b.message);
+    }
+
+    public void dispose() {
+        removeChangeListeners();
+    }
+}
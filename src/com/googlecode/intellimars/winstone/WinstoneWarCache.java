@@ -0,0 +1,336 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Exploded copies of the webapps of a webappsDir configuration with the "WAR cache" option, which Winstone is pointed
+ * at instead of the webapps directory.
+ * <p/>
+ * Winstone 0.9.10 extracts a WAR of the webapps directory completely whenever it is newer than the extracted files,
+ * so every rebuilt WAR is inflated from scratch. The cache extracts each WAR into a persistent directory instead and
+ * keeps an index of the CRC and size of every entry (both from the central directory of the WAR, nothing is
+ * inflated to compare) and of the time stamp of the file it was extracted to: only new and changed entries are
+ * written, entries gone from the WAR are deleted. Exploded webapp directories are mirrored file by file as hard links,
+ * or copied with file channels where links are not possible, again only the files whose size or date changed.
+ * A directory next to a WAR of the same name is ignored, as Winstone does.
+ * <p/>
+ * A linked file shares its content with the file in the webapps directory, so files of the cache are never written
+ * in place: they are deleted first and written anew.
+ */
+public class WinstoneWarCache {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static Method toPath;
+    private static Method createLink;
+
+    public static class Result {
+        public int wars;
+        public int directories;
+        public int entries;
+        public int written;
+        public int linked;
+        public int copied;
+        public int deleted;
+        public long bytesWritten;
+        public long bytesSaved;
+        public long millis;
+        public final List<String> changed = new ArrayList<String>();
+
+        void add(Result other) {
+            wars += other.wars;
+            directories += other.directories;
+            entries += other.entries;
+            written += other.written;
+            linked += other.linked;
+            copied += other.copied;
+            deleted += other.deleted;
+            bytesWritten += other.bytesWritten;
+            bytesSaved += other.bytesSaved;
+            changed.addAll(other.changed);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("WAR cache: ").append(wars).append(" WARs, ").append(directories).append(" directories, ");
+            sb.append(written + linked + copied).append(" of ").append(entries).append(" files updated");
+            if (linked > 0 || copied > 0) sb.append(" (").append(linked).append(" linked, ").append(copied).append(" copied)");
+            if (deleted > 0) sb.append(", ").append(deleted).append(" deleted");
+            sb.append(String.format(", %.1f MB written, %.1f MB of unchanged files not rewritten in %d ms",
+                                    bytesWritten / 1048576.0, bytesSaved / 1048576.0, millis));
+            return sb.toString();
+        }
+    }
+
+    private final File source;
+    private final File webapps;
+    private final File indexes;
+
+
+    public WinstoneWarCache(WinstoneConfiguration config) {
+        source = new File(config.WEBAPP_DIRECTORY);
+        webapps = getDirectory(config);
+        indexes = new File(webapps.getParentFile(), "index");
+    }
+
+    /**
+     * @return the directory Winstone is given as --webappsDir
+     */
+    public static File getDirectory(WinstoneConfiguration config) {
+        String key = config.getProject().getName() + "/" + config.getName();
+        return new File(new File(new File(WinstoneRuntimeConfiguration.RUNTIME_DIRECTORY, "war-cache"),
+                                 WinstoneDigest.sha1(key).substring(0, 12)), "webapps");
+    }
+
+    /**
+     * Brings every webapp of the webapps directory up to date and removes the ones that are gone.
+     */
+    public Result prepare() throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        synchronized (WinstoneWarCache.class) {
+            webapps.mkdirs();
+            indexes.mkdirs();
+            Set<String> names = new HashSet<String>();
+            File[] files = source.listFiles();
+            if (files == null) throw new IOException("Cannot list " + source);
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = getWebappName(file);
+                if (name == null || !names.add(name)) continue;
+                result.add(update(file, name));
+            }
+            File[] cached = webapps.listFiles();
+            if (cached != null) {
+                for (File webapp : cached) {
+                    if (names.contains(webapp.getName())) continue;
+                    FileUtil.delete(webapp);
+                    FileUtil.delete(getIndexFile(webapp.getName()));
+                }
+            }
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        LOGGER.info("WinstoneWarCache: " + result);
+        return result;
+    }
+
+    /**
+     * Brings the webapp of a WAR or directory of the webapps directory up to date, for redeploys.
+     *
+     * @return what was done, with the paths of the changed files relative to the webapp
+     */
+    public Result update(File file) throws IOException {
+        long start = System.nanoTime();
+        Result result = new Result();
+        String name = getWebappName(file);
+        // a deleted webapp stays in the cache until the next launch
+        if (name != null && file.exists()) {
+            synchronized (WinstoneWarCache.class) {
+                result.add(update(file, name));
+            }
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        return result;
+    }
+
+    /**
+     * @return the webapp in the cache for a WAR or directory of the webapps directory, null for other files and
+     *         for a directory Winstone ignores because of a WAR with the same name
+     */
+    public String getWebappName(File file) {
+        String name = file.getName();
+        if (name.toLowerCase().endsWith(".war")) {
+            return file.isDirectory() ? null : name.substring(0, name.length() - ".war".length());
+        }
+        if (new File(file.getParentFile(), name + ".war").isFile()) return null;
+        return file.isDirectory() ? name : null;
+    }
+
+    private Result update(File file, String name) throws IOException {
+        File target = new File(webapps, name);
+        File indexFile = getIndexFile(name);
+        Properties index = new Properties();
+        if (indexFile.isFile() && target.isDirectory()) {
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                index.load(in);
+            } finally {
+                in.close();
+            }
+        } else if (target.exists()) {
+            // without the index nothing in there can be trusted
+            FileUtil.delete(target);
+        }
+        target.mkdirs();
+        Properties updated = new Properties();
+        Result result = new Result();
+        if (file.isDirectory()) {
+            result.directories++;
+            mirror(file, target, "", index, updated, result);
+        } else {
+            result.wars++;
+            extract(file, target, index, updated, result);
+        }
+        for (String path : index.stringPropertyNames()) {
+            if (updated.containsKey(path)) continue;
+            if (new File(target, path).delete()) {
+                result.deleted++;
+                result.changed.add(path);
+            }
+        }
+        File tmp = new File(indexes, name + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            updated.store(out, null);
+        } finally {
+            out.close();
+        }
+        FileUtil.delete(indexFile);
+        FileUtil.rename(tmp, indexFile);
+        return result;
+    }
+
+    private File getIndexFile(String name) {
+        return new File(indexes, name + ".properties");
+    }
+
+    /**
+     * Writes the entries whose CRC or size differ from the index, or whose file was touched since it was written.
+     */
+    private static void extract(File war, File target, Properties index, Properties updated, Result result)
+            throws IOException {
+        ZipFile zip = new ZipFile(war);
+        try {
+            for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+                ZipEntry entry = entries.nextElement();
+                String path = entry.getName();
+                if (path.startsWith("/") || path.contains("../")) continue;
+                File file = new File(target, path);
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                    continue;
+                }
+                result.entries++;
+                String content = Long.toHexString(entry.getCrc()) + "," + entry.getSize() + ",";
+                String stamp = index.getProperty(path);
+                if (stamp != null && stamp.equals(content + file.lastModified()) && file.length() == entry.getSize()) {
+                    updated.setProperty(path, stamp);
+                    result.bytesSaved += entry.getSize();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    result.bytesWritten += write(Channels.newChannel(in), file);
+                } finally {
+                    in.close();
+                }
+                if (entry.getTime() > 0) file.setLastModified(entry.getTime());
+                updated.setProperty(path, content + file.lastModified());
+                result.written++;
+                result.changed.add(path);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Links or copies the files whose size or date differ from the index.
+     */
+    private static void mirror(File dir, File target, String prefix, Properties index, Properties updated,
+                               Result result) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            String path = prefix + file.getName();
+            File copy = new File(target, file.getName());
+            if (file.isDirectory()) {
+                copy.mkdirs();
+                mirror(file, copy, path + "/", index, updated, result);
+                continue;
+            }
+            result.entries++;
+            String stamp = file.length() + "," + file.lastModified();
+            if (stamp.equals(index.getProperty(path)) && copy.length() == file.length()) {
+                updated.setProperty(path, stamp);
+                result.bytesSaved += file.length();
+                continue;
+            }
+            FileUtil.delete(copy);
+            if (link(file, copy)) {
+                result.linked++;
+            } else {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    result.bytesWritten += write(in.getChannel(), copy);
+                } finally {
+                    in.close();
+                }
+                copy.setLastModified(file.lastModified());
+                result.copied++;
+            }
+            updated.setProperty(path, stamp);
+            result.changed.add(path);
+        }
+    }
+
+    private static long write(ReadableByteChannel in, File file) throws IOException {
+        replace(file);
+        FileChannel out = new FileOutputStream(file).getChannel();
+        try {
+            long position = 0;
+            long transferred;
+            // a channel of a stream transfers up to its buffer at a time, a file channel all of it at once
+            while ((transferred = out.transferFrom(in, position, Long.MAX_VALUE - position)) > 0) {
+                position += transferred;
+            }
+            return position;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Deletes a file of the cache before it is written, so that writing it cannot change a file it is linked to.
+     */
+    static void replace(File file) throws IOException {
+        if (file.exists() && !file.delete()) throw new IOException("Cannot delete " + file);
+    }
+
+    /**
+     * @return whether a hard link could be made, which needs Java 7 (java.nio.file) and the same file system
+     */
+    static synchronized boolean link(File existing, File link) {
+        try {
+            if (toPath == null) {
+                Class<?> path = Class.forName("java.nio.file.Path");
+                toPath = File.class.getMethod("toPath");
+                createLink = Class.forName("java.nio.file.Files").getMethod("createLink", path, path);
+            }
+            createLink.invoke(null, toPath.invoke(link), toPath.invoke(existing));
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
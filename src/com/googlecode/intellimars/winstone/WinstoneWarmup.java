@@ -0,0 +1,288 @@
+package com.googlecode.intellimars.winstone;
+
+import com.intellij.execution.process.ProcessHandler;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the warmup script of a configuration once the webapp is ready: every iteration, each of the concurrent workers
+ * sends the requests of the script in order, and the next iteration starts when all workers are done. The report
+ * compares the mean latency of every request in the first iteration, against a cold JIT, servlets and JSPs, with
+ * the one in the last.
+ * <p/>
+ * A script is a list of requests separated by ';' or new lines, each an optional method and a path below the
+ * context or a full URL, and for other methods than GET an optional form body, e.g.
+ * <code>/index.jsp; POST /login user=demo&amp;password=demo; GET http://localhost:8080/other/</code>.
+ * Every worker keeps the cookies of its run of the script, so the requests after a login run in its session.
+ */
+public class WinstoneWarmup {
+    private static final Logger LOGGER = Logger.getInstance("Winstone");
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 60000;
+
+    public static class Request {
+        public final String method;
+        public final String url;
+        public final String body;
+
+        Request(String _method, String _url, String _body) {
+            method = _method;
+            url = _url;
+            body = _body;
+        }
+
+        public String toString() {
+            return method + " " + url;
+        }
+    }
+
+    public static class Result {
+        public final List<Request> requests;
+        public final int concurrency;
+        public int iterations;
+        // [iteration][request], summed over the workers
+        final long[][] nanos;
+        final int[][] failures;
+        public final List<String> errors = new ArrayList<String>();
+        public long millis;
+
+        Result(List<Request> _requests, int _concurrency, int _iterations) {
+            requests = _requests;
+            concurrency = _concurrency;
+            nanos = new long[_iterations][_requests.size()];
+            failures = new int[_iterations][_requests.size()];
+        }
+
+        /**
+         * @return the mean latency of a request in an iteration in milliseconds
+         */
+        public double getMillis(int iteration, int request) {
+            return nanos[iteration][request] / (double) concurrency / 1000000.0;
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Warmup: %d iterations of %d requests, %d concurrent, in %d ms\n",
+                                    iterations, requests.size(), concurrency, millis));
+            if (iterations == 0) return sb.toString();
+            int width = 0;
+            for (Request request : requests) width = Math.max(width, request.toString().length());
+            for (int i = 0; i < requests.size(); i++) {
+                double first = getMillis(0, i);
+                double last = getMillis(iterations - 1, i);
+                sb.append(String.format("  %-" + width + "s  first %8.1f ms  last %8.1f ms  %6.1fx",
+                                        requests.get(i), first, last, last > 0 ? first / last : 0));
+                int failed = 0;
+                for (int j = 0; j < iterations; j++) failed += failures[j][i];
+                if (failed > 0) sb.append("  ").append(failed).append(" failed");
+                sb.append('\n');
+            }
+            for (String error : errors) sb.append("  ").append(error).append('\n');
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The cookies a worker got during one run of the script, sent with its later requests. The attributes but
+     * Max-Age=0 are ignored, the script only talks to the launched Winstone.
+     */
+    static class Cookies {
+        private final Map<String, String> values = new LinkedHashMap<String, String>();
+
+        void addTo(URLConnection connection) {
+            if (values.isEmpty()) return;
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, String> cookie : values.entrySet()) {
+                if (sb.length() > 0) sb.append("; ");
+                sb.append(cookie.getKey()).append('=').append(cookie.getValue());
+            }
+            connection.setRequestProperty("Cookie", sb.toString());
+        }
+
+        void update(URLConnection connection) {
+            for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+                if (!"Set-Cookie".equalsIgnoreCase(header.getKey())) continue;
+                for (String setCookie : header.getValue()) update(setCookie);
+            }
+        }
+
+        void update(String setCookie) {
+            String[] attributes = setCookie.split(";");
+            int equals = attributes[0].indexOf('=');
+            if (equals <= 0) return;
+            String name = attributes[0].substring(0, equals).trim();
+            String value = attributes[0].substring(equals + 1).trim();
+            boolean expired = value.length() == 0;
+            for (int i = 1; i < attributes.length; i++) {
+                if (attributes[i].trim().equalsIgnoreCase("Max-Age=0")) expired = true;
+            }
+            if (expired) {
+                values.remove(name);
+            } else {
+                values.put(name, value);
+            }
+        }
+    }
+
+    private final List<Request> requests;
+    private final int concurrency;
+    private final int iterations;
+    private final ProcessHandler processHandler;
+
+
+    public WinstoneWarmup(WinstoneConfiguration config, ProcessHandler _processHandler) {
+        requests = parse(config.WARMUP_SCRIPT, "http://localhost:" + config.HTTP_PORT.trim(), config);
+        concurrency = Math.max(1, config.getWarmupConcurrency());
+        iterations = Math.max(1, config.getWarmupIterations());
+        processHandler = _processHandler;
+    }
+
+    static List<Request> parse(String script, String server, WinstoneConfiguration config) {
+        List<Request> result = new ArrayList<Request>();
+        for (String line : script.split("[;\\n]")) {
+            String[] parts = line.trim().split("\\s+", 3);
+            if (parts[0].length() == 0 || parts[0].startsWith("#")) continue;
+            int index = 0;
+            String method = "GET";
+            if (parts.length > 1 && parts[0].matches("[A-Z]+")) {
+                method = parts[0];
+                index = 1;
+            }
+            String path = parts[index];
+            String url = path.startsWith("http://") || path.startsWith("https://") ? path : server + config.getUrlPath(path);
+            String body = index + 1 < parts.length ? parts[index + 1] : null;
+            result.add(new Request(method, url, body));
+        }
+        return result;
+    }
+
+    /**
+     * Runs the script on a pooled thread, prints the report and then runs the given task, e.g. to open the browser.
+     */
+    public void start(final ConsoleView console, final Runnable then) {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    Result result = warmUp();
+                    LOGGER.info("WinstoneWarmup: " + result);
+                    console.print(result.toString(), ConsoleViewContentType.SYSTEM_OUTPUT);
+                } catch (InterruptedException ignored) {
+                    return;
+                }
+                if (!processHandler.isProcessTerminating() && !processHandler.isProcessTerminated()) then.run();
+            }
+        });
+    }
+
+    public Result warmUp() throws InterruptedException {
+        long start = System.nanoTime();
+        final Result result = new Result(requests, concurrency, iterations);
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (int i = 0; i < iterations; i++) {
+                if (processHandler.isProcessTerminating() || processHandler.isProcessTerminated()) break;
+                final int iteration = i;
+                List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+                for (int w = 0; w < concurrency; w++) {
+                    tasks.add(new Callable<Object>() {
+                        public Object call() {
+                            runScript(iteration, result);
+                            return null;
+                        }
+                    });
+                }
+                for (Future<Object> future : workers.invokeAll(tasks)) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        LOGGER.info("WinstoneWarmup", e.getCause());
+                    }
+                }
+                result.iterations++;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+        result.millis = (System.nanoTime() - start) / 1000000L;
+        return result;
+    }
+
+    private void runScript(int iteration, Result result) {
+        Cookies cookies = new Cookies();
+        for (int i = 0; i < requests.size(); i++) {
+            long start = System.nanoTime();
+            String error = send(requests.get(i), cookies);
+            long nanos = System.nanoTime() - start;
+            synchronized (result) {
+                result.nanos[iteration][i] += nanos;
+                if (error != null) {
+                    result.failures[iteration][i]++;
+                    if (!result.errors.contains(error)) result.errors.add(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return why the request failed, null if it got a response below 400
+     */
+    private static String send(Request request, Cookies cookies) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(request.url).openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setUseCaches(false);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestMethod(request.method);
+            cookies.addTo(connection);
+            if (request.body != null) {
+                byte[] body = request.body.getBytes("UTF-8");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                connection.setFixedLengthStreamingMode(body.length);
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+            int status = connection.getResponseCode();
+            cookies.update(connection);
+            // reading the body to the end keeps the connection alive for the next request
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            if (in != null) {
+                try {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+            return status >= 400 ? request + ": HTTP " + status : null;
+        } catch (IOException e) {
+            if (connection != null) connection.disconnect();
+            return request + ": " + e;
+        }
+    }
+}
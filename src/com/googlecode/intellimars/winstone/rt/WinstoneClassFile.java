@@ -0,0 +1,148 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What the transformers of the agents need to edit class files directly: copying members and attributes through and
+ * a constant pool that entries can be appended to.
+ */
+public class WinstoneClassFile {
+    private WinstoneClassFile() {
+    }
+
+    static void copyMember(DataInputStream in, DataOutputStream out) throws IOException {
+        out.writeShort(in.readUnsignedShort());
+        out.writeShort(in.readUnsignedShort());
+        out.writeShort(in.readUnsignedShort());
+        copyAttributes(in, out);
+    }
+
+    static void copyAttributes(DataInputStream in, DataOutputStream out) throws IOException {
+        int count = in.readUnsignedShort();
+        out.writeShort(count);
+        for (int i = 0; i < count; i++) {
+            out.writeShort(in.readUnsignedShort());
+            int length = in.readInt();
+            out.writeInt(length);
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * The constant pool of the class with the entries the added code needs appended.
+     */
+    static class ConstantPool {
+        private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(entries);
+        private final Map<Integer, String> utf8s = new HashMap<Integer, String>();
+        private final Map<Integer, Integer> classes = new HashMap<Integer, Integer>();
+        private final Map<String, Integer> added = new HashMap<String, Integer>();
+        private int count;
+
+        ConstantPool(DataInputStream in) throws IOException {
+            count = in.readUnsignedShort();
+            for (int i = 1; i < count; i++) {
+                int tag = in.readUnsignedByte();
+                out.writeByte(tag);
+                switch (tag) {
+                    case 1:
+                        String value = in.readUTF();
+                        out.writeUTF(value);
+                        utf8s.put(i, value);
+                        break;
+                    case 7:
+                        int nameIndex = in.readUnsignedShort();
+                        out.writeShort(nameIndex);
+                        classes.put(i, nameIndex);
+                        break;
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    case 15:
+                        out.writeByte(in.readUnsignedByte());
+                        out.writeShort(in.readUnsignedShort());
+                        break;
+                    case 5:
+                    case 6:
+                        out.writeLong(in.readLong());
+                        i++;
+                        break;
+                    case 3:
+                    case 4:
+                    case 9:
+                    case 10:
+                    case 11:
+                    case 12:
+                    case 17:
+                    case 18:
+                        out.writeInt(in.readInt());
+                        break;
+                    default:
+                        throw new IOException("unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        String getUtf8(int index) {
+            return utf8s.get(index);
+        }
+
+        String getClassName(int index) {
+            return utf8s.get(classes.get(index));
+        }
+
+        int utf8(String value) throws IOException {
+            for (Map.Entry<Integer, String> entry : utf8s.entrySet()) {
+                if (entry.getValue().equals(value)) return entry.getKey();
+            }
+            int index = add(1);
+            out.writeUTF(value);
+            utf8s.put(index, value);
+            return index;
+        }
+
+        int methodref(String owner, String name, String descriptor) throws IOException {
+            String key = owner + "." + name + descriptor;
+            Integer existing = added.get(key);
+            if (existing != null) return existing;
+            int ownerName = utf8(owner);
+            int classIndex = add(7);
+            out.writeShort(ownerName);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = add(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            int index = add(10);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+            added.put(key, index);
+            return index;
+        }
+
+        /**
+         * Starts a new entry with the tag, the caller writes its content.
+         */
+        private int add(int tag) throws IOException {
+            if (count >= 0xFFFF) throw new IOException("constant pool is full");
+            out.writeByte(tag);
+            return count++;
+        }
+
+        void write(DataOutputStream target) throws IOException {
+            out.flush();
+            target.writeShort(count);
+            entries.writeTo(target);
+        }
+    }
+}
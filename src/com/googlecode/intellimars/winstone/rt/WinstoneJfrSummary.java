@@ -0,0 +1,142 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates a Java Flight Recorder file of a Winstone startup. Runs on the JDK of the run configuration (11 or
+ * later), which has the <code>jdk.jfr.consumer</code> API; the API is used reflectively so that this class only
+ * depends on the JDK the plugin is built with.
+ * <p/>
+ * Prints one tab separated line per aggregate:
+ * <pre>
+ * CPU      leaf frame  owner frame  samples
+ * ALLOC    leaf frame  owner frame  bytes (sampled weight)
+ * LOCK     monitor class  owner frame  count  blocked nanos
+ * </pre>
+ * The owner frame is the top-most frame outside of the JDK, the code that is responsible for the work.
+ */
+public class WinstoneJfrSummary {
+    private static final String[] JDK_PACKAGES = {"java.", "javax.", "jdk.", "sun.", "com.sun."};
+
+    private final Map<String, long[]> aggregates = new HashMap<String, long[]>();
+    private Method getEventType;
+    private Method getName;
+    private Method getStackTrace;
+    private Method getFrames;
+    private Method getMethod;
+    private Method getType;
+    private Method getClassField;
+    private Method hasField;
+    private Method getLong;
+    private Method getDuration;
+    private Method toNanos;
+
+
+    public static void main(String[] args) throws Exception {
+        WinstoneJfrSummary summary = new WinstoneJfrSummary();
+        summary.read(new File(args[0]));
+        for (Map.Entry<String, long[]> entry : summary.aggregates.entrySet()) {
+            StringBuilder sb = new StringBuilder(entry.getKey());
+            for (long value : entry.getValue()) sb.append('\t').append(value);
+            System.out.println(sb);
+        }
+        System.out.flush();
+    }
+
+    private void read(File file) throws Exception {
+        ClassLoader loader = ClassLoader.getSystemClassLoader();
+        Class<?> recordingFileClass = Class.forName("jdk.jfr.consumer.RecordingFile", true, loader);
+        Class<?> pathClass = Class.forName("java.nio.file.Path", true, loader);
+        Object path = File.class.getMethod("toPath").invoke(file);
+        Object recording = recordingFileClass.getConstructor(pathClass).newInstance(path);
+        Method hasMoreEvents = recordingFileClass.getMethod("hasMoreEvents");
+        Method readEvent = recordingFileClass.getMethod("readEvent");
+
+        Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject", true, loader);
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent", true, loader);
+        getEventType = recordedEvent.getMethod("getEventType");
+        getName = Class.forName("jdk.jfr.EventType", true, loader).getMethod("getName");
+        getStackTrace = recordedEvent.getMethod("getStackTrace");
+        getDuration = recordedEvent.getMethod("getDuration");
+        toNanos = Class.forName("java.time.Duration", true, loader).getMethod("toNanos");
+        getFrames = Class.forName("jdk.jfr.consumer.RecordedStackTrace", true, loader).getMethod("getFrames");
+        getMethod = Class.forName("jdk.jfr.consumer.RecordedFrame", true, loader).getMethod("getMethod");
+        getType = Class.forName("jdk.jfr.consumer.RecordedMethod", true, loader).getMethod("getType");
+        getClassField = recordedObject.getMethod("getClass", String.class);
+        hasField = recordedObject.getMethod("hasField", String.class);
+        getLong = recordedObject.getMethod("getLong", String.class);
+
+        try {
+            while ((Boolean) hasMoreEvents.invoke(recording)) {
+                Object event = readEvent.invoke(recording);
+                String type = (String) getName.invoke(getEventType.invoke(event));
+                if ("jdk.ExecutionSample".equals(type)) {
+                    String[] frames = frames(event);
+                    add("CPU\t" + frames[0] + "\t" + frames[1], 1, 0);
+                } else if ("jdk.ObjectAllocationSample".equals(type)) {
+                    String[] frames = frames(event);
+                    add("ALLOC\t" + frames[0] + "\t" + frames[1], (Long) getLong.invoke(event, "weight"), 0);
+                } else if ("jdk.ObjectAllocationInNewTLAB".equals(type) || "jdk.ObjectAllocationOutsideTLAB".equals(type)) {
+                    String[] frames = frames(event);
+                    add("ALLOC\t" + frames[0] + "\t" + frames[1], (Long) getLong.invoke(event, "allocationSize"), 0);
+                } else if ("jdk.JavaMonitorEnter".equals(type)) {
+                    String[] frames = frames(event);
+                    String monitor = className(getClassField.invoke(event, "monitorClass"));
+                    add("LOCK\t" + monitor + "\t" + frames[1], 1, (Long) toNanos.invoke(getDuration.invoke(event)));
+                }
+            }
+        } finally {
+            recordingFileClass.getMethod("close").invoke(recording);
+        }
+    }
+
+    private void add(String key, long value, long extra) {
+        long[] aggregate = aggregates.get(key);
+        if (aggregate == null) {
+            aggregate = key.startsWith("LOCK") ? new long[2] : new long[1];
+            aggregates.put(key, aggregate);
+        }
+        aggregate[0] += value;
+        if (aggregate.length > 1) aggregate[1] += extra;
+    }
+
+    /**
+     * @return the leaf frame and the owner frame of the event's stack trace
+     */
+    private String[] frames(Object event) throws Exception {
+        String[] result = {"", ""};
+        Object stackTrace = (Boolean) hasField.invoke(event, "stackTrace") ? getStackTrace.invoke(event) : null;
+        if (stackTrace == null) return result;
+        List<?> frames = (List<?>) getFrames.invoke(stackTrace);
+        for (Object frame : frames) {
+            Object method = getMethod.invoke(frame);
+            String name = className(getType.invoke(method)) + "." + getName(method);
+            if (result[0].length() == 0) result[0] = name;
+            if (!isJdk(name)) {
+                result[1] = name;
+                break;
+            }
+        }
+        if (result[1].length() == 0) result[1] = result[0];
+        return result;
+    }
+
+    private String getName(Object recordedMethodOrClass) throws Exception {
+        return (String) recordedMethodOrClass.getClass().getMethod("getName").invoke(recordedMethodOrClass);
+    }
+
+    private String className(Object recordedClass) throws Exception {
+        return recordedClass == null ? "" : getName(recordedClass);
+    }
+
+    public static boolean isJdk(String className) {
+        for (String prefix : JDK_PACKAGES) {
+            if (className.startsWith(prefix)) return true;
+        }
+        return false;
+    }
+}
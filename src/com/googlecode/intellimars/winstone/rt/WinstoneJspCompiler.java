@@ -0,0 +1,111 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiles JSPs of one webapp with Jasper's JspC, several at a time. Runs on the JDK given as --javaHome with the
+ * Jasper jars of the commonLib folder and the tools.jar on the class path; JspC is used reflectively so that this
+ * class only depends on the JDK.
+ * <p/>
+ * Arguments: thread count, webapp root and a file with one <code>uri TAB output directory</code> line per JSP. Every
+ * JSP gets a JspC of its own and its own output directory, so the caller knows which classes belong to which JSP.
+ * Prints one line per JSP:
+ * <pre>
+ * RESULT  OK      uri  millis
+ * RESULT  FAILED  uri  message
+ * </pre>
+ */
+public class WinstoneJspCompiler {
+    public static final String RESULT = "winstone-ce-jsp";
+    private static final String JSPC_CLASS = "org.apache.jasper.JspC";
+
+
+    public static void main(String[] args) throws Exception {
+        int threads = Math.max(1, Integer.parseInt(args[0]));
+        final String uriRoot = args[1];
+        final PrintStream out = System.out;
+        final Class<?> jspc = Class.forName(JSPC_CLASS);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (final String[] jsp : readList(new File(args[2]))) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    long start = System.nanoTime();
+                    String line;
+                    try {
+                        compile(jspc, uriRoot, jsp[0], jsp[1]);
+                        line = RESULT + "\tOK\t" + jsp[0] + "\t" + (System.nanoTime() - start) / 1000000L;
+                    } catch (Throwable e) {
+                        line = RESULT + "\tFAILED\t" + jsp[0] + "\t" + describe(e);
+                    }
+                    synchronized (out) {
+                        out.println(line);
+                        out.flush();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        System.exit(0);
+    }
+
+    private static List<String[]> readList(File file) throws Exception {
+        List<String[]> result = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) result.add(new String[]{line.substring(0, tab), line.substring(tab + 1)});
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private static void compile(Class<?> jspcClass, String uriRoot, String uri, String outputDir) throws Throwable {
+        Object jspc;
+        try {
+            jspc = jspcClass.getConstructor().newInstance();
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+        invoke(jspc, "setUriroot", String.class, uriRoot);
+        invoke(jspc, "setOutputDir", String.class, outputDir);
+        invoke(jspc, "setCompile", boolean.class, Boolean.TRUE);
+        // Tomcat 6 and later only log failures unless told otherwise
+        try {
+            invoke(jspc, "setFailOnError", boolean.class, Boolean.TRUE);
+        } catch (NoSuchMethodException ignored) {
+        }
+        invoke(jspc, "setJspFiles", String.class, uri.startsWith("/") ? uri.substring(1) : uri);
+        try {
+            jspcClass.getMethod("execute").invoke(jspc);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void invoke(Object target, String name, Class<?> type, Object value) throws Exception {
+        Method method = target.getClass().getMethod(name, type);
+        method.invoke(target, value);
+    }
+
+    private static String describe(Throwable e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+        return message.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+}
@@ -0,0 +1,340 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Java agent that keeps the HTTP sessions of the webapps across restarts of the launched Winstone JVM. Winstone is
+ * called by reflection.
+ * <p/>
+ * {@link WinstoneSessionTransformer} turns on Winstone's saved sessions for the webapps, see
+ * {@link #useSavedSessions(Object)}, and hands them to {@link #save(Object)} and {@link #restore(Object)}. Winstone
+ * saves the sessions of a webapp when it destroys it, which is on a graceful shutdown (its shutdown hook on SIGTERM,
+ * or the control port) and on a reload; the first save of a webapp writes all of its live sessions into one snapshot
+ * file. Winstone loads the sessions while it initializes a webapp, which is before the listeners accept connections.
+ * A snapshot is restored once and then deleted, so a JVM that is killed afterwards does not bring back sessions that
+ * were invalidated since.
+ * <p/>
+ * The snapshot is written by the agent, not by serializing the WinstoneSession: the <code>writeObject</code> of
+ * Winstone 0.9.10 drops all attributes. A snapshot is GZIP compressed:
+ * <pre>
+ * int magic, int version
+ * per session: true, UTF id, long created, long last accessed, int max inactive seconds, boolean new,
+ *              boolean distributable, int attribute count, per attribute: UTF name, int length, serialized value
+ * false
+ * </pre>
+ * Each attribute is serialized on its own, so one that cannot be written or read back only loses itself; the
+ * compression takes out the class descriptors they repeat. Agent arguments: the directory of the snapshots.
+ */
+public class WinstoneSessionAgent {
+    public static final String PREFIX = "winstone-ce sessions: ";
+    public static final String SUFFIX = ".sessions";
+    private static final int MAGIC = 0x57435353;
+    private static final int VERSION = 1;
+
+    private static File directory;
+    // the webapps whose sessions were saved; Winstone calls save once per session
+    private static final Map<Object, Boolean> SAVED = Collections.synchronizedMap(new WeakHashMap<Object, Boolean>());
+
+    /**
+     * Resolves the classes of the session attributes with the class loader of the webapp.
+     */
+    private static class SessionInputStream extends ObjectInputStream {
+        private final ClassLoader loader;
+
+        SessionInputStream(InputStream in, ClassLoader _loader) throws IOException {
+            super(in);
+            loader = _loader;
+        }
+
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            try {
+                return Class.forName(desc.getName(), false, loader);
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        if (args == null || args.trim().length() == 0) {
+            System.err.println(PREFIX + "expected the snapshot directory as argument");
+            return;
+        }
+        directory = new File(args.trim());
+        directory.mkdirs();
+        instrumentation.addTransformer(new WinstoneSessionTransformer());
+    }
+
+    /**
+     * Called instead of <code>WebAppConfiguration.useSavedSessions(Map)</code>, by the constructor of a webapp and by
+     * the pool of request handlers.
+     *
+     * @return true for the webapps, which load and save their sessions; false for the request handlers, which would
+     *         otherwise save the sessions a request used after every request
+     */
+    public static boolean useSavedSessions(Object args) {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (element.getClassName().equals("winstone.WebAppConfiguration") &&
+                element.getMethodName().equals("<init>")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called instead of <code>WinstoneSession.saveToTemp()</code>, when a webapp is destroyed.
+     */
+    public static void save(Object session) {
+        Object webApp = null;
+        try {
+            webApp = getField(session, "webAppConfig");
+            if (webApp == null || SAVED.put(webApp, Boolean.TRUE) != null) return;
+            write(webApp);
+        } catch (Throwable e) {
+            System.err.println(PREFIX + "could not save the sessions of " + describe(webApp) + ": " + e);
+        }
+    }
+
+    /**
+     * Called instead of <code>WinstoneSession.loadSessions(WebAppConfiguration)</code>.
+     */
+    public static void restore(Object webApp) {
+        File file = null;
+        try {
+            file = getFile(webApp);
+            if (file.isFile()) read(webApp, file);
+        } catch (Throwable e) {
+            System.err.println(PREFIX + "could not restore the sessions of " + describe(webApp) + ": " + e);
+        } finally {
+            if (file != null) file.delete();
+        }
+    }
+
+    private static void write(Object webApp) throws Exception {
+        long start = System.nanoTime();
+        List<Object> sessions = new ArrayList<Object>(((Map<?, ?>) getField(webApp, "sessions")).values());
+        File file = getFile(webApp);
+        File tmp = new File(file.getPath() + ".tmp");
+        int saved = 0;
+        int attributes = 0;
+        int skipped = 0;
+        Set<Object> skippedNames = new HashSet<Object>();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                new FileOutputStream(tmp))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            for (Object session : sessions) {
+                if ((Boolean) invoke(session, "isExpired")) continue;
+                Map<Object, Object> data;
+                synchronized (getField(session, "sessionMonitor")) {
+                    data = new LinkedHashMap<Object, Object>((Map<?, ?>) getField(session, "sessionData"));
+                }
+                out.writeBoolean(true);
+                out.writeUTF((String) getField(session, "sessionId"));
+                out.writeLong((Long) getField(session, "createTime"));
+                out.writeLong((Long) getField(session, "lastAccessedTime"));
+                out.writeInt((Integer) getField(session, "maxInactivePeriod"));
+                out.writeBoolean((Boolean) getField(session, "isNew"));
+                out.writeBoolean((Boolean) getField(session, "distributable"));
+                List<String> names = new ArrayList<String>();
+                List<byte[]> values = new ArrayList<byte[]>();
+                for (Map.Entry<Object, Object> attribute : data.entrySet()) {
+                    buffer.reset();
+                    try {
+                        ObjectOutputStream objects = new ObjectOutputStream(buffer);
+                        objects.writeObject(attribute.getValue());
+                        objects.close();
+                    } catch (Exception e) {
+                        if (skippedNames.add(attribute.getKey()))
+                            System.err.println(PREFIX + "skipping attribute " + attribute.getKey() + ": " + e);
+                        skipped++;
+                        continue;
+                    }
+                    names.add((String) attribute.getKey());
+                    values.add(buffer.toByteArray());
+                }
+                out.writeInt(names.size());
+                for (int i = 0; i < names.size(); i++) {
+                    out.writeUTF(names.get(i));
+                    out.writeInt(values.get(i).length);
+                    out.write(values.get(i));
+                }
+                attributes += names.size();
+                saved++;
+            }
+            out.writeBoolean(false);
+        } finally {
+            out.close();
+        }
+        file.delete();
+        if (saved == 0) {
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("cannot rename " + tmp + " to " + file);
+        }
+        System.out.println(PREFIX + String.format(
+                "saved %d sessions of %s with %d attributes into a %d byte snapshot (%d bytes uncompressed) in %d ms%s",
+                saved, describe(webApp), attributes, file.length(), out.size(), (System.nanoTime() - start) / 1000000L,
+                skipped > 0 ? ", " + skipped + " attributes could not be serialized" : ""));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void read(Object webApp, File file) throws Exception {
+        long start = System.nanoTime();
+        ClassLoader loader = (ClassLoader) invoke(webApp, "getLoader");
+        Constructor<?> constructor =
+                webApp.getClass().getClassLoader().loadClass("winstone.WinstoneSession").getConstructor(String.class);
+        int restored = 0;
+        int expired = 0;
+        int attributes = 0;
+        int skipped = 0;
+        Set<Object> skippedNames = new HashSet<Object>();
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                new FileInputStream(file))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not a session snapshot");
+            while (in.readBoolean()) {
+                Object session = constructor.newInstance(in.readUTF());
+                setField(session, "createTime", in.readLong());
+                setField(session, "lastAccessedTime", in.readLong());
+                setField(session, "maxInactivePeriod", in.readInt());
+                setField(session, "isNew", in.readBoolean());
+                setField(session, "distributable", in.readBoolean());
+                // put in directly as deserializing does, the attribute listeners heard of them when they were set
+                Map<Object, Object> data = (Map<Object, Object>) getField(session, "sessionData");
+                for (int count = in.readInt(); count > 0; count--) {
+                    String name = in.readUTF();
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    try {
+                        data.put(name, new SessionInputStream(new ByteArrayInputStream(value), loader).readObject());
+                        attributes++;
+                    } catch (Exception e) {
+                        if (skippedNames.add(name)) System.err.println(PREFIX + "skipping attribute " + name + ": " + e);
+                        skipped++;
+                    }
+                }
+                // what WinstoneSession.loadSessions does with a session read from its file
+                invoke(session, "setWebAppConfiguration", webApp);
+                invoke(webApp, "setSessionListeners", session);
+                if ((Boolean) invoke(session, "isExpired")) {
+                    invoke(session, "invalidate");
+                    expired++;
+                } else {
+                    invoke(webApp, "addSession", invoke(session, "getId"), session);
+                    restored++;
+                }
+            }
+        } finally {
+            in.close();
+            thread.setContextClassLoader(contextLoader);
+        }
+        System.out.println(PREFIX + String.format(
+                "restored %d sessions of %s with %d attributes from a %d byte snapshot in %d ms%s%s",
+                restored, describe(webApp), attributes, file.length(), (System.nanoTime() - start) / 1000000L,
+                expired > 0 ? ", " + expired + " had expired" : "",
+                skipped > 0 ? ", " + skipped + " attributes could not be deserialized" : ""));
+    }
+
+    /**
+     * @return the snapshot of the webapp, named after its host and context
+     */
+    private static File getFile(Object webApp) throws Exception {
+        String host = (String) invoke(webApp, "getOwnerHostname");
+        String context = (String) invoke(webApp, "getContextPath");
+        String key = host + "/" + context;
+        String name = (host + "_" + (context.length() <= 1 ? "ROOT" : context.substring(1)))
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+        // the context tells apart webapps whose names only differ in replaced characters
+        return new File(directory, name + "-" + Integer.toHexString(key.hashCode()) + SUFFIX);
+    }
+
+    private static String describe(Object webApp) {
+        if (webApp == null) return "a webapp";
+        try {
+            String context = (String) invoke(webApp, "getContextPath");
+            return context.length() == 0 ? "/" : context;
+        } catch (Exception e) {
+            return "a webapp";
+        }
+    }
+
+    private static Object getField(Object target, String name) throws Exception {
+        for (Class<?> aClass = target.getClass(); aClass != null; aClass = aClass.getSuperclass()) {
+            try {
+                Field field = aClass.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(target.getClass().getName() + "." + name);
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        for (Class<?> aClass = target.getClass(); aClass != null; aClass = aClass.getSuperclass()) {
+            try {
+                Field field = aClass.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException ignored) {
+            }
+        }
+        throw new NoSuchFieldException(target.getClass().getName() + "." + name);
+    }
+
+    /**
+     * Calls the method of the name that takes as many arguments; the Winstone methods used are not overloaded.
+     */
+    private static Object invoke(Object target, String name, Object... args) throws Exception {
+        for (Class<?> aClass = target.getClass(); aClass != null; aClass = aClass.getSuperclass()) {
+            for (Method method : aClass.getDeclaredMethods()) {
+                if (!method.getName().equals(name) || method.getParameterTypes().length != args.length) continue;
+                method.setAccessible(true);
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        throw new NoSuchMethodException(target.getClass().getName() + "." + name);
+    }
+}
@@ -0,0 +1,154 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+
+/**
+ * Hooks {@link WinstoneSessionAgent} into Winstone by replacing the code of three methods with a call of the agent.
+ * The class files are edited directly, as in {@link WinstoneTimingTransformer}.
+ * <pre>
+ * WebAppConfiguration.useSavedSessions(Map)       return WinstoneSessionAgent.useSavedSessions(args)
+ * WinstoneSession.loadSessions(webApp)            WinstoneSessionAgent.restore(webApp)
+ * WinstoneSession.saveToTemp()                    WinstoneSessionAgent.save(this)
+ * </pre>
+ * The hooks take an Object, which a Winstone type is assignable to, so the agent needs no Winstone classes.
+ */
+public class WinstoneSessionTransformer implements ClassFileTransformer {
+    private static final String AGENT = WinstoneSessionAgent.class.getName().replace('.', '/');
+    private static final Target[] TARGETS = {
+            new Target("winstone/WebAppConfiguration", "useSavedSessions", "(Ljava/util/Map;)Z", "useSavedSessions"),
+            new Target("winstone/WinstoneSession", "loadSessions", "(Lwinstone/WebAppConfiguration;)V", "restore"),
+            new Target("winstone/WinstoneSession", "saveToTemp", "()V", "save"),
+    };
+
+    /**
+     * A method whose code is replaced by a call of the <code>hook</code> of the agent with its first local (the
+     * argument of a static method, <code>this</code> otherwise), which returns what the method returns.
+     */
+    static class Target {
+        final String className;
+        final String name;
+        final String descriptor;
+        final String hook;
+
+        Target(String _className, String _name, String _descriptor, String _hook) {
+            className = _className;
+            name = _name;
+            descriptor = _descriptor;
+            hook = _hook;
+        }
+    }
+
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined != null) return null;
+        boolean targeted = false;
+        for (Target target : TARGETS) targeted |= target.className.equals(className);
+        if (!targeted) return null;
+        try {
+            return rewrite(classfileBuffer, className);
+        } catch (Throwable e) {
+            System.err.println(WinstoneSessionAgent.PREFIX + "could not instrument " + className + ": " + e);
+            return null;
+        }
+    }
+
+    static byte[] rewrite(byte[] classfile, String className) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classfile));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(classfile.length + 256);
+        DataOutputStream out = new DataOutputStream(buffer);
+        if (in.readInt() != 0xCAFEBABE) throw new IOException("not a class file");
+        int minor = in.readUnsignedShort();
+        int major = in.readUnsignedShort();
+        WinstoneClassFile.ConstantPool pool = new WinstoneClassFile.ConstantPool(in);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(classfile.length);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeShort(in.readUnsignedShort());      // access
+        bodyOut.writeShort(in.readUnsignedShort());      // this
+        bodyOut.writeShort(in.readUnsignedShort());      // super
+        int interfaces = in.readUnsignedShort();
+        bodyOut.writeShort(interfaces);
+        for (int i = 0; i < interfaces; i++) bodyOut.writeShort(in.readUnsignedShort());
+        int fields = in.readUnsignedShort();
+        bodyOut.writeShort(fields);
+        for (int i = 0; i < fields; i++) WinstoneClassFile.copyMember(in, bodyOut);
+
+        int methods = in.readUnsignedShort();
+        bodyOut.writeShort(methods);
+        for (int i = 0; i < methods; i++) {
+            int access = in.readUnsignedShort();
+            int nameIndex = in.readUnsignedShort();
+            int descriptorIndex = in.readUnsignedShort();
+            bodyOut.writeShort(access);
+            bodyOut.writeShort(nameIndex);
+            bodyOut.writeShort(descriptorIndex);
+            Target target = find(className, pool.getUtf8(nameIndex), pool.getUtf8(descriptorIndex));
+            if (target == null) {
+                WinstoneClassFile.copyAttributes(in, bodyOut);
+                continue;
+            }
+            int attributes = in.readUnsignedShort();
+            bodyOut.writeShort(attributes);
+            for (int j = 0; j < attributes; j++) {
+                int attributeName = in.readUnsignedShort();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                if ("Code".equals(pool.getUtf8(attributeName))) content = code(pool, target);
+                bodyOut.writeShort(attributeName);
+                bodyOut.writeInt(content.length);
+                bodyOut.write(content);
+            }
+        }
+        WinstoneClassFile.copyAttributes(in, bodyOut);
+        bodyOut.flush();
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(minor);
+        out.writeShort(major);
+        pool.write(out);
+        body.writeTo(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static Target find(String className, String name, String descriptor) {
+        for (Target target : TARGETS) {
+            if (target.className.equals(className) && target.name.equals(name) && target.descriptor.equals(descriptor))
+                return target;
+        }
+        return null;
+    }
+
+    /**
+     * @return the content of a Code attribute: <code>aload_0, invokestatic hook, (i)return</code>; without branches
+     *         it needs no stack map frames in any class file version
+     */
+    private static byte[] code(WinstoneClassFile.ConstantPool pool, Target target) throws IOException {
+        String returnType = target.descriptor.substring(target.descriptor.indexOf(')') + 1);
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        DataOutputStream c = new DataOutputStream(code);
+        c.writeByte(0x2a);                              // aload_0
+        c.writeByte(0xb8);                              // invokestatic hook
+        c.writeShort(pool.methodref(AGENT, target.hook, "(Ljava/lang/Object;)" + returnType));
+        c.writeByte("V".equals(returnType) ? 0xb1 : 0xac);      // return or ireturn
+        c.flush();
+
+        ByteArrayOutputStream attribute = new ByteArrayOutputStream();
+        DataOutputStream a = new DataOutputStream(attribute);
+        a.writeShort(1);                                // max_stack
+        a.writeShort(1);                                // max_locals
+        a.writeInt(code.size());
+        code.writeTo(a);
+        a.writeShort(0);                                // exception table
+        a.writeShort(0);                                // no attributes
+        a.flush();
+        return attribute.toByteArray();
+    }
+}
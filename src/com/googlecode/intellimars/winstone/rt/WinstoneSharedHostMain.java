@@ -0,0 +1,130 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Main class of a shared host: one Winstone that the webapps of several run configurations are deployed into.
+ * <p/>
+ * Starts Winstone with the given arguments (an empty --webappsDir), measures the memory of the bare container and
+ * reports {@link #READY} with the command port on stdout. Every connection to the command port carries one line:
+ * <pre>
+ * DEPLOY   prefix  webroot  name   -> OK  millis  heap bytes added  baseline heap  baseline non-heap  contexts
+ * UNDEPLOY prefix                  -> OK  contexts
+ * </pre>
+ * Fields are tab separated; a failure is answered with "ERROR message". Winstone's HostConfiguration has no public
+ * API to add a webapp at runtime, so its protected initWebApp and private destroyWebApp are called reflectively.
+ */
+public class WinstoneSharedHostMain {
+    public static final String READY = "winstone-ce shared host ready, command port=";
+
+    private final Object host;
+    private final Map<Object, Object> webapps;
+    private final Method initWebApp;
+    private final Method destroyWebApp;
+    private final long baselineHeap;
+    private final long baselineNonHeap;
+
+
+    public static void main(String[] args) throws Exception {
+        Class<?> launcherClass = Class.forName("winstone.Launcher");
+        Map<?, ?> winstoneArgs = (Map<?, ?>) launcherClass.getMethod("getArgsFromCommandLine", String[].class)
+                .invoke(null, new Object[]{args});
+        Object launcher = launcherClass.getConstructor(Map.class).newInstance(winstoneArgs);
+
+        WinstoneSharedHostMain main = new WinstoneSharedHostMain(launcher);
+        ServerSocket server = new ServerSocket(0, 10, InetAddress.getByName("127.0.0.1"));
+        System.out.println(READY + server.getLocalPort());
+        System.out.flush();
+        while (true) {
+            Socket socket = server.accept();
+            try {
+                main.handle(socket);
+            } catch (Exception e) {
+                e.printStackTrace();
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private WinstoneSharedHostMain(Object launcher) throws Exception {
+        Object hostGroup = field(launcher, "hostGroup");
+        Object defaultHostName = field(hostGroup, "defaultHostName");
+        host = hostGroup.getClass().getMethod("getHostByName", String.class).invoke(hostGroup, defaultHostName);
+        // request threads look webapps up while contexts come and go
+        Field webappsField = host.getClass().getDeclaredField("webapps");
+        webappsField.setAccessible(true);
+        webapps = Collections.synchronizedMap((Map<Object, Object>) webappsField.get(host));
+        webappsField.set(host, webapps);
+        initWebApp = host.getClass().getDeclaredMethod("initWebApp", String.class, File.class, String.class);
+        initWebApp.setAccessible(true);
+        destroyWebApp = host.getClass().getDeclaredMethod("destroyWebApp", String.class);
+        destroyWebApp.setAccessible(true);
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        collectGarbage();
+        baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        baselineNonHeap = memory.getNonHeapMemoryUsage().getUsed();
+    }
+
+    private void handle(Socket socket) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+        String line = in.readLine();
+        String[] command = line == null ? new String[0] : line.split("\t");
+        try {
+            if (command.length == 4 && command[0].equals("DEPLOY")) {
+                out.write("OK\t" + deploy(command[1], new File(command[2]), command[3]) + "\n");
+            } else if (command.length == 2 && command[0].equals("UNDEPLOY")) {
+                destroyWebApp.invoke(host, command[1]);
+                out.write("OK\t" + webapps.size() + "\n");
+            } else {
+                out.write("ERROR\tunknown command " + line + "\n");
+            }
+        } catch (InvocationTargetException e) {
+            e.getCause().printStackTrace();
+            out.write("ERROR\t" + e.getCause() + "\n");
+        }
+        out.flush();
+    }
+
+    private String deploy(String prefix, File webRoot, String name) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        collectGarbage();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long start = System.nanoTime();
+        if (webapps.containsKey(prefix)) destroyWebApp.invoke(host, prefix);
+        webapps.put(prefix, initWebApp.invoke(host, prefix, webRoot, name));
+        long millis = (System.nanoTime() - start) / 1000000L;
+        collectGarbage();
+        long heapAdded = Math.max(0, memory.getHeapMemoryUsage().getUsed() - heapBefore);
+        return millis + "\t" + heapAdded + "\t" + baselineHeap + "\t" + baselineNonHeap + "\t" + webapps.size();
+    }
+
+    private static Object field(Object target, String name) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void collectGarbage() {
+        System.gc();
+        System.runFinalization();
+        System.gc();
+    }
+}
@@ -0,0 +1,42 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Main class of a pre-warmed standby JVM.
+ * <p/>
+ * Loads the real main class (and the further classes given after it), reports {@link #READY} on stdout and then
+ * waits on stdin for the program arguments: a line with their count followed by one argument per line, in
+ * {@link #CHARSET}.
+ */
+public class WinstoneStandbyMain {
+    public static final String READY = "winstone-ce standby ready";
+    public static final String CHARSET = "UTF-8";
+
+    public static void main(String[] args) throws Throwable {
+        Class<?> mainClass = Class.forName(args[0], true, WinstoneStandbyMain.class.getClassLoader());
+        Method main = mainClass.getMethod("main", String[].class);
+        for (int i = 1; i < args.length; i++) {
+            try {
+                Class.forName(args[i], true, WinstoneStandbyMain.class.getClassLoader());
+            } catch (ClassNotFoundException ignored) {
+            }
+        }
+        System.out.println(READY);
+        System.out.flush();
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, CHARSET));
+        String count = in.readLine();
+        if (count == null) return;
+        String[] programArgs = new String[Integer.parseInt(count.trim())];
+        for (int i = 0; i < programArgs.length; i++) programArgs[i] = in.readLine();
+        try {
+            main.invoke(null, new Object[]{programArgs});
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
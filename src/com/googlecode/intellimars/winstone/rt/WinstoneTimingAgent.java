@@ -0,0 +1,249 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.OutputStream;
+import java.lang.instrument.Instrumentation;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Java agent that times request handling inside the launched Winstone JVM.
+ * <p/>
+ * {@link WinstoneTimingTransformer} wraps <code>RequestHandlerThread.processRequest</code>,
+ * <code>FilterConfiguration.execute</code> and <code>ServletConfiguration.execute</code> in calls of {@link #enter()}
+ * and {@link #exit(int, String)}. A stack per thread separates the time spent in a call itself from the time of the
+ * nested calls (a filter from the rest of its chain). The numbers go into counters striped by thread, so request
+ * threads do not contend on the same cache lines, and a daemon thread sends the cumulative sums every
+ * {@link #SEND_INTERVAL} ms to the IDE:
+ * <pre>
+ * H  key
+ * T  kind  name  count  totalNanos  selfNanos  maxNanos  bucket,bucket,...
+ * E
+ * </pre>
+ * Agent arguments: <code>port,key</code> of the IDE's socket on the loopback interface.
+ */
+public class WinstoneTimingAgent {
+    public static final int REQUEST = 0;
+    public static final int FILTER = 1;
+    public static final int SERVLET = 2;
+    public static final String[] KINDS = {"request", "filter", "servlet"};
+    public static final String OTHER_NAMES = "(other)";
+    public static final int BUCKETS = 64;
+    private static final int MAX_NAMES = 256;
+    private static final long SEND_INTERVAL = 1000;
+    // count, total, self, max, buckets; padded so that stripes do not share cache lines
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int SELF = 2;
+    private static final int MAX = 3;
+    private static final int STRIDE = 4 + BUCKETS + 4;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+    private static final AtomicInteger NEXT_STRIPE = new AtomicInteger();
+    private static final List<ConcurrentMap<String, Stats>> STATS = new ArrayList<ConcurrentMap<String, Stats>>();
+    private static final Stats[] OTHER = new Stats[KINDS.length];
+    private static final ThreadLocal<Frames> FRAMES = new ThreadLocal<Frames>() {
+        protected Frames initialValue() {
+            return new Frames(NEXT_STRIPE.getAndIncrement() & (STRIPES - 1));
+        }
+    };
+
+    static {
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            STATS.add(new ConcurrentHashMap<String, Stats>());
+            OTHER[kind] = new Stats(kind, OTHER_NAMES);
+        }
+    }
+
+    private static class Frames {
+        final int stripe;
+        long[] starts = new long[16];
+        long[] nested = new long[16];
+        int depth;
+
+        Frames(int _stripe) {
+            stripe = _stripe;
+        }
+    }
+
+    private static class Stats {
+        final int kind;
+        final String name;
+        final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+        long sentCount;
+
+        Stats(int _kind, String _name) {
+            kind = _kind;
+            name = _name;
+        }
+
+        void record(int stripe, long nanos, long selfNanos) {
+            int base = stripe * STRIDE;
+            cells.incrementAndGet(base + COUNT);
+            cells.addAndGet(base + TOTAL, nanos);
+            cells.addAndGet(base + SELF, selfNanos);
+            cells.incrementAndGet(base + 4 + bucket(nanos / 1000));
+            long max;
+            while (nanos > (max = cells.get(base + MAX)) && !cells.compareAndSet(base + MAX, max, nanos)) {
+                // another thread of this stripe raised the maximum, retry
+            }
+        }
+
+        /**
+         * @return the line to send, or null if nothing was recorded since the last one
+         */
+        String describe() {
+            long count = 0;
+            long total = 0;
+            long self = 0;
+            long max = 0;
+            long[] buckets = new long[BUCKETS];
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                int base = stripe * STRIDE;
+                count += cells.get(base + COUNT);
+                total += cells.get(base + TOTAL);
+                self += cells.get(base + SELF);
+                max = Math.max(max, cells.get(base + MAX));
+                for (int i = 0; i < BUCKETS; i++) buckets[i] += cells.get(base + 4 + i);
+            }
+            if (count == 0 || count == sentCount) return null;
+            sentCount = count;
+            StringBuilder sb = new StringBuilder("T\t").append(kind).append('\t').append(name).append('\t')
+                    .append(count).append('\t').append(total).append('\t').append(self).append('\t').append(max)
+                    .append('\t');
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(buckets[i]);
+            }
+            return sb.append('\n').toString();
+        }
+    }
+
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        int comma = args != null ? args.indexOf(',') : -1;
+        if (comma < 0) {
+            System.err.println("winstone-ce timing agent: expected port,key as arguments, not " + args);
+            return;
+        }
+        final int port = Integer.parseInt(args.substring(0, comma).trim());
+        final String key = args.substring(comma + 1).trim();
+        instrumentation.addTransformer(new WinstoneTimingTransformer());
+        Thread sender = new Thread("winstone-ce timing agent") {
+            public void run() {
+                send(port, key);
+            }
+        };
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    public static void enter() {
+        Frames frames = FRAMES.get();
+        if (frames.depth == frames.starts.length) {
+            long[] starts = new long[frames.depth * 2];
+            long[] nested = new long[frames.depth * 2];
+            System.arraycopy(frames.starts, 0, starts, 0, frames.depth);
+            System.arraycopy(frames.nested, 0, nested, 0, frames.depth);
+            frames.starts = starts;
+            frames.nested = nested;
+        }
+        frames.nested[frames.depth] = 0;
+        frames.starts[frames.depth++] = System.nanoTime();
+    }
+
+    public static void exit(int kind, String name) {
+        long now = System.nanoTime();
+        Frames frames = FRAMES.get();
+        if (frames.depth == 0) return;
+        int depth = --frames.depth;
+        long nanos = now - frames.starts[depth];
+        if (depth > 0) frames.nested[depth - 1] += nanos;
+        lookup(kind, name).record(frames.stripe, nanos, nanos - frames.nested[depth]);
+    }
+
+    private static Stats lookup(int kind, String name) {
+        if (name == null) name = "";
+        ConcurrentMap<String, Stats> map = STATS.get(kind);
+        Stats stats = map.get(name);
+        if (stats != null) return stats;
+        if (map.size() >= MAX_NAMES) return OTHER[kind];
+        stats = new Stats(kind, name.replace('\t', ' ').replace('\n', ' ').replace('\r', ' '));
+        Stats existing = map.putIfAbsent(name, stats);
+        return existing != null ? existing : stats;
+    }
+
+    /**
+     * Buckets of microseconds, two per power of two: 0, 1, 2, 3, 4-5, 6-7, 8-11, 12-15, ...
+     */
+    public static int bucket(long micros) {
+        if (micros < 4) return (int) Math.max(micros, 0);
+        int bit = 63 - Long.numberOfLeadingZeros(micros);
+        int index = bit * 2 + (int) ((micros >>> (bit - 1)) & 1);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * @return the highest number of microseconds that falls into the bucket
+     */
+    public static long bucketLimit(int bucket) {
+        if (bucket < 4) return bucket;
+        int bit = bucket / 2;
+        return ((2L + bucket % 2 + 1) << (bit - 1)) - 1;
+    }
+
+    private static int stripes(int processors) {
+        int stripes = 1;
+        while (stripes < processors && stripes < 16) stripes <<= 1;
+        return stripes;
+    }
+
+    /**
+     * Sends the sums of the keys that changed, connecting (again) when needed; the IDE only keeps the latest sums,
+     * so a batch that could not be sent is simply part of the next one.
+     */
+    private static void send(int port, String key) {
+        Socket socket = null;
+        while (true) {
+            try {
+                Thread.sleep(SEND_INTERVAL);
+                StringBuilder batch = new StringBuilder();
+                boolean connect = socket == null;
+                for (ConcurrentMap<String, Stats> map : STATS) {
+                    for (Stats stats : map.values()) append(batch, stats, connect);
+                }
+                for (Stats stats : OTHER) append(batch, stats, connect);
+                if (batch.length() == 0) continue;
+                if (socket == null) {
+                    socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+                    batch.insert(0, "H\t" + key + "\n");
+                }
+                OutputStream out = socket.getOutputStream();
+                out.write(batch.append("E\n").toString().getBytes("UTF-8"));
+                out.flush();
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                // the IDE is gone or not listening (yet); send everything again after reconnecting
+                if (socket != null) {
+                    try {
+                        socket.close();
+                    } catch (Exception ignored) {
+                    }
+                    socket = null;
+                }
+            }
+        }
+    }
+
+    private static void append(StringBuilder batch, Stats stats, boolean all) {
+        if (all) stats.sentCount = -1;
+        String line = stats.describe();
+        if (line != null) batch.append(line);
+    }
+}
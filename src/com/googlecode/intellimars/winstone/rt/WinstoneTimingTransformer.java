@@ -0,0 +1,281 @@
+package com.googlecode.intellimars.winstone.rt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the timed methods of Winstone for {@link WinstoneTimingAgent}. The class files are edited directly instead
+ * of with a bytecode library.
+ * <p/>
+ * A timed method is renamed to <code>name$timed</code> (and made private) and a method with the original name,
+ * descriptor and access is added that calls it between {@link WinstoneTimingAgent#enter()} and
+ * {@link WinstoneTimingAgent#exit(int, String)}, also when it throws. Winstone 0.9.10 is compiled for Java 1.1, so
+ * the added code needs no stack map frames.
+ */
+public class WinstoneTimingTransformer implements ClassFileTransformer {
+    private static final String AGENT = WinstoneTimingAgent.class.getName().replace('.', '/');
+    private static final String SUFFIX = "$timed";
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_SYNCHRONIZED = 0x0020;
+    private static final int ACC_NATIVE = 0x0100;
+    private static final int ACC_ABSTRACT = 0x0400;
+    private static final Target[] TARGETS = {
+            new Target("winstone/RequestHandlerThread", "processRequest",
+                       "(Lwinstone/WebAppConfiguration;Lwinstone/WinstoneRequest;Lwinstone/WinstoneResponse;Ljava/lang/String;)V",
+                       WinstoneTimingAgent.REQUEST, null),
+            new Target("winstone/FilterConfiguration", "execute",
+                       "(Ljavax/servlet/ServletRequest;Ljavax/servlet/ServletResponse;Ljavax/servlet/FilterChain;)V",
+                       WinstoneTimingAgent.FILTER, "getFilterName"),
+            new Target("winstone/ServletConfiguration", "execute",
+                       "(Ljavax/servlet/ServletRequest;Ljavax/servlet/ServletResponse;Ljava/lang/String;)V",
+                       WinstoneTimingAgent.SERVLET, "getServletName"),
+    };
+
+    /**
+     * A method to time. The name the timings are kept under is the result of <code>nameGetter</code>, or the last
+     * argument if there is no getter.
+     */
+    static class Target {
+        final String className;
+        final String name;
+        final String descriptor;
+        final int kind;
+        final String nameGetter;
+
+        Target(String _className, String _name, String _descriptor, int _kind, String _nameGetter) {
+            className = _className;
+            name = _name;
+            descriptor = _descriptor;
+            kind = _kind;
+            nameGetter = _nameGetter;
+        }
+    }
+
+
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+        if (classBeingRedefined != null) return null;
+        List<Target> targets = new ArrayList<Target>();
+        for (Target target : TARGETS) {
+            if (target.className.equals(className)) targets.add(target);
+        }
+        if (targets.isEmpty()) return null;
+        try {
+            return rewrite(classfileBuffer, targets);
+        } catch (Throwable e) {
+            System.err.println("winstone-ce timing agent: could not instrument " + className + ": " + e);
+            return null;
+        }
+    }
+
+    static byte[] rewrite(byte[] classfile, List<Target> targets) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classfile));
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(classfile.length + 1024);
+        DataOutputStream out = new DataOutputStream(buffer);
+        if (in.readInt() != 0xCAFEBABE) throw new IOException("not a class file");
+        int minor = in.readUnsignedShort();
+        int major = in.readUnsignedShort();
+        // newer class files would need stack map frames for the handler
+        if (major > 49) throw new IOException("class file version " + major + " is not supported");
+        WinstoneClassFile.ConstantPool pool = new WinstoneClassFile.ConstantPool(in);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(classfile.length);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        bodyOut.writeShort(in.readUnsignedShort());      // access
+        int thisClass = in.readUnsignedShort();
+        bodyOut.writeShort(thisClass);
+        bodyOut.writeShort(in.readUnsignedShort());      // super
+        int interfaces = in.readUnsignedShort();
+        bodyOut.writeShort(interfaces);
+        for (int i = 0; i < interfaces; i++) bodyOut.writeShort(in.readUnsignedShort());
+        int fields = in.readUnsignedShort();
+        bodyOut.writeShort(fields);
+        for (int i = 0; i < fields; i++) WinstoneClassFile.copyMember(in, bodyOut);
+
+        String owner = pool.getClassName(thisClass);
+        List<byte[]> wrappers = new ArrayList<byte[]>();
+        int methods = in.readUnsignedShort();
+        ByteArrayOutputStream methodBuffer = new ByteArrayOutputStream();
+        DataOutputStream methodOut = new DataOutputStream(methodBuffer);
+        for (int i = 0; i < methods; i++) {
+            int access = in.readUnsignedShort();
+            int nameIndex = in.readUnsignedShort();
+            int descriptorIndex = in.readUnsignedShort();
+            Target target = find(targets, pool.getUtf8(nameIndex), pool.getUtf8(descriptorIndex));
+            if (target != null && (access & (ACC_NATIVE | ACC_ABSTRACT)) == 0) {
+                wrappers.add(wrapper(pool, owner, target, access));
+                access = access & ~(ACC_PUBLIC | ACC_PROTECTED) | ACC_PRIVATE;
+                nameIndex = pool.utf8(target.name + SUFFIX);
+            }
+            methodOut.writeShort(access);
+            methodOut.writeShort(nameIndex);
+            methodOut.writeShort(descriptorIndex);
+            WinstoneClassFile.copyAttributes(in, methodOut);
+        }
+        bodyOut.writeShort(methods + wrappers.size());
+        methodBuffer.writeTo(bodyOut);
+        for (byte[] wrapper : wrappers) bodyOut.write(wrapper);
+        WinstoneClassFile.copyAttributes(in, bodyOut);
+        bodyOut.flush();
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(minor);
+        out.writeShort(major);
+        pool.write(out);
+        body.writeTo(out);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static Target find(List<Target> targets, String name, String descriptor) {
+        for (Target target : targets) {
+            if (target.name.equals(name) && target.descriptor.equals(descriptor)) return target;
+        }
+        return null;
+    }
+
+    /**
+     * <pre>
+     *     invokestatic  WinstoneTimingAgent.enter()V
+     *     aload_0, load arguments, invokespecial name$timed      (any exception: handler)
+     *     iconst kind, push name, invokestatic WinstoneTimingAgent.exit(ILjava/lang/String;)V
+     *     return
+     * handler:
+     *     astore exception, iconst kind, push name, invokestatic exit, aload exception, athrow
+     * </pre>
+     */
+    private static byte[] wrapper(WinstoneClassFile.ConstantPool pool, String owner, Target target, int access)
+            throws IOException {
+        int enter = pool.methodref(AGENT, "enter", "()V");
+        int exit = pool.methodref(AGENT, "exit", "(ILjava/lang/String;)V");
+        int timed = pool.methodref(owner, target.name + SUFFIX, target.descriptor);
+        int getter = target.nameGetter != null ? pool.methodref(owner, target.nameGetter, "()Ljava/lang/String;") : 0;
+        List<Character> arguments = parseArguments(target.descriptor);
+        int slots = 1;
+        int lastSlot = 0;
+        for (char type : arguments) {
+            lastSlot = slots;
+            slots += type == 'J' || type == 'D' ? 2 : 1;
+        }
+        if (target.nameGetter == null && (arguments.isEmpty() || arguments.get(arguments.size() - 1) != 'L'))
+            throw new IOException(target.name + " has no name argument");
+        int exceptionSlot = slots;
+
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        DataOutputStream c = new DataOutputStream(code);
+        c.writeByte(0xb8);                              // invokestatic enter
+        c.writeShort(enter);
+        int tryStart = code.size();
+        c.writeByte(0x2a);                              // aload_0
+        int slot = 1;
+        for (char type : arguments) {
+            load(c, type, slot);
+            slot += type == 'J' || type == 'D' ? 2 : 1;
+        }
+        c.writeByte(0xb7);                              // invokespecial name$timed
+        c.writeShort(timed);
+        int tryEnd = code.size();
+        pushKey(c, target, getter, lastSlot);
+        c.writeByte(0xb8);                              // invokestatic exit
+        c.writeShort(exit);
+        c.writeByte(0xb1);                              // return
+        int handler = code.size();
+        c.writeByte(0x3a);                              // astore
+        c.writeByte(exceptionSlot);
+        pushKey(c, target, getter, lastSlot);
+        c.writeByte(0xb8);                              // invokestatic exit
+        c.writeShort(exit);
+        c.writeByte(0x19);                              // aload
+        c.writeByte(exceptionSlot);
+        c.writeByte(0xbf);                              // athrow
+        c.flush();
+        if (exceptionSlot > 255) throw new IOException(target.name + " has too many arguments");
+
+        ByteArrayOutputStream method = new ByteArrayOutputStream();
+        DataOutputStream m = new DataOutputStream(method);
+        m.writeShort(access & ~ACC_SYNCHRONIZED);
+        m.writeShort(pool.utf8(target.name));
+        m.writeShort(pool.utf8(target.descriptor));
+        m.writeShort(1);                                // attributes: Code
+        m.writeShort(pool.utf8("Code"));
+        m.writeInt(2 + 2 + 4 + code.size() + 2 + 8 + 2);
+        m.writeShort(Math.max(slots, 2));               // max_stack
+        m.writeShort(slots + 1);                        // max_locals
+        m.writeInt(code.size());
+        code.writeTo(m);
+        m.writeShort(1);                                // exception table
+        m.writeShort(tryStart);
+        m.writeShort(tryEnd);
+        m.writeShort(handler);
+        m.writeShort(0);                                // any
+        m.writeShort(0);                                // no attributes
+        m.flush();
+        return method.toByteArray();
+    }
+
+    private static void pushKey(DataOutputStream c, Target target, int getter, int lastSlot) throws IOException {
+        c.writeByte(0x03 + target.kind);                // iconst_<kind>
+        if (target.nameGetter != null) {
+            c.writeByte(0x2a);                          // aload_0
+            c.writeByte(0xb6);                          // invokevirtual getter
+            c.writeShort(getter);
+        } else {
+            c.writeByte(0x19);                          // aload the last argument
+            c.writeByte(lastSlot);
+        }
+    }
+
+    private static void load(DataOutputStream c, char type, int slot) throws IOException {
+        int opcode;
+        switch (type) {
+            case 'J':
+                opcode = 0x16;                          // lload
+                break;
+            case 'F':
+                opcode = 0x17;                          // fload
+                break;
+            case 'D':
+                opcode = 0x18;                          // dload
+                break;
+            case 'L':
+                opcode = 0x19;                          // aload
+                break;
+            default:
+                opcode = 0x15;                          // iload
+        }
+        c.writeByte(opcode);
+        c.writeByte(slot);
+    }
+
+    /**
+     * @return one character per argument: the primitive type, or 'L' for references and arrays
+     */
+    static List<Character> parseArguments(String descriptor) {
+        List<Character> result = new ArrayList<Character>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == '[') {
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                result.add('L');
+            } else if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+                result.add('L');
+            } else {
+                result.add(c);
+            }
+            i++;
+        }
+        return result;
+    }
+}
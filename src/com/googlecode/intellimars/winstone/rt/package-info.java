@@ -0,0 +1,7 @@
+/**
+ * Classes that run inside the JVMs the plugin launches: Java agents, main classes and helpers for the Winstone
+ * process and the JDK of the run configuration. They are packaged into small jars with
+ * {@link com.googlecode.intellimars.winstone.WinstoneRuntimeJar}, so they must only depend on the JDK; Winstone,
+ * Jasper and newer JDK APIs are reached by reflection.
+ */
+package com.googlecode.intellimars.winstone.rt;